@@ -0,0 +1,32 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.mock.MockVirtualFile;
+import com.intellij.openapi.vfs.VirtualFileWithId;
+
+/**
+ * Mock file carrying a file id, so benchmarks go through the verdict cache like files of the persistent VFS.
+ **/
+final class BenchmarkFile extends MockVirtualFile implements VirtualFileWithId {
+    private final int id;
+    private final long length;
+
+    BenchmarkFile(String path, int id) {
+        this(path, id, false, 0);
+    }
+
+    BenchmarkFile(String path, int id, boolean directory, long length) {
+        super(directory, path);
+        this.id = id;
+        this.length = length;
+    }
+
+    @Override
+    public int getId() {
+        return id;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,65 @@
+package dev.bmac.intellij.indexing;
+
+import dev.bmac.intellij.settings.IndexExclusion;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Raw path matching cost without any caching: the original loop of {@link FuzzyRegex#matches} over every rule
+ * against each {@link PathMatcher} engine.
+ **/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g"})
+@State(Scope.Benchmark)
+public class FuzzyRegexBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int paths;
+
+    @Param({"1", "10", "100", "500", "2000"})
+    public int rules;
+
+    private String[] corpus;
+    private FuzzyRegex[] fuzzyRegexes;
+    private PathMatcher literalPrefilter;
+    private PathMatcher dfa;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        corpus = PathCorpus.generate(paths, 42);
+        List<String> patterns = RuleSets.generate(rules, 7).stream().map(IndexExclusion::getPath).collect(Collectors.toList());
+        fuzzyRegexes = patterns.stream().map(FuzzyRegex::new).toArray(FuzzyRegex[]::new);
+        literalPrefilter = new LiteralPrefilterMatcher(patterns);
+        dfa = new DfaPathMatcher(patterns);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+    }
+
+    @Benchmark
+    public int fuzzyRegexLoop(Cursor cursor) {
+        String path = corpus[(cursor.next++ & Integer.MAX_VALUE) % corpus.length];
+        for (int i = 0; i < fuzzyRegexes.length; i++) {
+            if (fuzzyRegexes[i].matches(path)) return i;
+        }
+        return -1;
+    }
+
+    @Benchmark
+    public int literalPrefilter(Cursor cursor) {
+        return literalPrefilter.firstMatch(corpus[(cursor.next++ & Integer.MAX_VALUE) % corpus.length]);
+    }
+
+    @Benchmark
+    public int dfa(Cursor cursor) {
+        return dfa.firstMatch(corpus[(cursor.next++ & Integer.MAX_VALUE) % corpus.length]);
+    }
+}
@@ -0,0 +1,85 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.indexing.ID;
+import dev.bmac.intellij.settings.PluginSettings;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link IndexFilter#isExcludedFromIndex} over a synthetic monorepo, single threaded and with every
+ * core querying the same filter like the parallel indexer does.
+ **/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g"})
+@State(Scope.Benchmark)
+public class IndexFilterBenchmark {
+    private static final String[] INDEXES = {"FilenameIndex", "IdIndex", "Stubs", "js.index", "css.index",
+            "TodoIndex", "XmlTagNames", "java.class.fqn"};
+
+    @Param({"10000", "1000000", "5000000"})
+    public int paths;
+
+    @Param({"1", "10", "100", "500", "2000"})
+    public int rules;
+
+    @Param({"LITERAL_PREFILTER", "DFA"})
+    public PluginSettings.MatcherEngine engine;
+
+    /**
+     * Cache bound as a share of the corpus size, 100 keeps every verdict, lower values force cache misses.
+     */
+    @Param({"100", "10"})
+    public int cachePercent;
+
+    private VirtualFile[] files;
+    private ID<?, ?>[] indexes;
+    private IndexFilter filter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] corpus = PathCorpus.generate(paths, 42);
+        files = new VirtualFile[corpus.length];
+        for (int i = 0; i < corpus.length; i++) {
+            files[i] = new BenchmarkFile(corpus[i], i + 1);
+        }
+        indexes = new ID<?, ?>[INDEXES.length];
+        for (int i = 0; i < INDEXES.length; i++) {
+            indexes[i] = ID.create(INDEXES[i]);
+        }
+        PluginSettings settings = new PluginSettings();
+        settings.setIndexPathExclude(RuleSets.generate(rules, 7));
+        settings.setMatcherEngine(engine);
+        settings.setVerdictCacheSize(Math.max(1, (int) ((long) paths * cachePercent / 100)));
+        filter = new IndexFilter(settings);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            //Threads start at different files, as indexing threads do.
+            next = ThreadLocalRandom.current().nextInt(1 << 20);
+        }
+    }
+
+    @Benchmark
+    public boolean isExcludedFromIndex(Cursor cursor) {
+        int i = cursor.next++ & Integer.MAX_VALUE;
+        return filter.isExcludedFromIndex(files[i % files.length], indexes[i % indexes.length]);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean isExcludedFromIndexContended(Cursor cursor) {
+        int i = cursor.next++ & Integer.MAX_VALUE;
+        return filter.isExcludedFromIndex(files[i % files.length], indexes[i % indexes.length]);
+    }
+}
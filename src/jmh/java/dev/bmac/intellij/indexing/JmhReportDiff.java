@@ -0,0 +1,70 @@
+package dev.bmac.intellij.indexing;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH json reports produced by the jmh task: throughput and normalized allocation rate of every
+ * benchmark and parameter combination present in both.
+ * Usage: JmhReportDiff before.json after.json
+ **/
+public final class JmhReportDiff {
+    private static final String ALLOCATION = "·gc.alloc.rate.norm";
+
+    private JmhReportDiff() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: JmhReportDiff <before.json> <after.json>");
+            System.exit(1);
+        }
+        Map<String, double[]> before = read(args[0]);
+        Map<String, double[]> after = read(args[1]);
+        System.out.printf("%-100s %14s %14s %8s %12s %12s%n", "Benchmark", "ops/s before", "ops/s after", "change",
+                "B/op before", "B/op after");
+        for (Map.Entry<String, double[]> entry : after.entrySet()) {
+            double[] old = before.get(entry.getKey());
+            if (old == null) continue;
+            double[] now = entry.getValue();
+            System.out.printf("%-100s %14.0f %14.0f %+7.1f%% %12.1f %12.1f%n", entry.getKey(), old[0], now[0],
+                    (now[0] - old[0]) * 100 / old[0], old[1], now[1]);
+        }
+    }
+
+    /**
+     * @return benchmark name with its parameters, mapped to the throughput and the allocated bytes per operation.
+     */
+    private static Map<String, double[]> read(String file) throws IOException {
+        Map<String, double[]> result = new LinkedHashMap<>();
+        try (Reader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            JsonArray runs = new JsonParser().parse(reader).getAsJsonArray();
+            for (JsonElement element : runs) {
+                JsonObject run = element.getAsJsonObject();
+                StringBuilder key = new StringBuilder(run.get("benchmark").getAsString());
+                if (run.has("params")) {
+                    Map<String, String> params = new TreeMap<>();
+                    run.getAsJsonObject("params").entrySet().forEach(e -> params.put(e.getKey(), e.getValue().getAsString()));
+                    key.append(params);
+                }
+                double score = run.getAsJsonObject("primaryMetric").get("score").getAsDouble();
+                JsonObject secondary = run.getAsJsonObject("secondaryMetrics");
+                double allocation = secondary != null && secondary.has(ALLOCATION) ?
+                        secondary.getAsJsonObject(ALLOCATION).get("score").getAsDouble() : Double.NaN;
+                result.put(key.toString(), new double[]{score, allocation});
+            }
+        }
+        return result;
+    }
+}
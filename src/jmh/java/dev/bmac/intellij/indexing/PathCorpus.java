@@ -0,0 +1,67 @@
+package dev.bmac.intellij.indexing;
+
+import java.util.Random;
+
+/**
+ * Deterministic synthetic file paths shaped like a large monorepo: many teams and services with deep java and
+ * frontend source trees, node_modules folders, build outputs and generated sources.
+ **/
+final class PathCorpus {
+    private static final String ROOT = "/home/dev/monorepo";
+    private static final String[] TEAMS = {"payments", "search", "platform", "mobile", "infra", "growth", "ads", "identity"};
+    private static final String[] WORDS = {"api", "core", "util", "model", "service", "client", "server", "common",
+            "impl", "internal", "config", "handler", "store", "cache", "auth", "event", "query", "index"};
+    private static final String[] JAVA_EXT = {".java", ".kt", ".xml", ".properties"};
+    private static final String[] WEB_EXT = {".js", ".ts", ".tsx", ".css", ".html", ".json", ".min.js", ".map"};
+
+    private PathCorpus() {
+    }
+
+    static String[] generate(int size, long seed) {
+        Random random = new Random(seed);
+        String[] paths = new String[size];
+        StringBuilder sb = new StringBuilder(256);
+        for (int i = 0; i < size; i++) {
+            sb.setLength(0);
+            sb.append(ROOT).append('/').append(pick(random, TEAMS)).append("/service").append(random.nextInt(200));
+            int shape = random.nextInt(100);
+            if (shape < 40) {
+                sb.append("/src/").append(random.nextBoolean() ? "main" : "test").append("/java/com/example");
+                appendDirs(sb, random, 2 + random.nextInt(6));
+                sb.append('/').append(capitalize(pick(random, WORDS))).append(random.nextInt(1000)).append(pick(random, JAVA_EXT));
+            } else if (shape < 65) {
+                sb.append("/web/node_modules/").append(pick(random, WORDS)).append('-').append(pick(random, WORDS));
+                appendDirs(sb, random, random.nextInt(5));
+                sb.append('/').append(pick(random, WORDS)).append(pick(random, WEB_EXT));
+            } else if (shape < 80) {
+                sb.append("/web/src");
+                appendDirs(sb, random, 1 + random.nextInt(4));
+                sb.append('/').append(pick(random, WORDS)).append(pick(random, WEB_EXT));
+            } else if (shape < 92) {
+                sb.append("/build/").append(random.nextBoolean() ? "generated" : "classes");
+                appendDirs(sb, random, 1 + random.nextInt(5));
+                sb.append('/').append(capitalize(pick(random, WORDS))).append(pick(random, JAVA_EXT));
+            } else {
+                sb.append('/').append(random.nextBoolean() ? "docs" : "scripts");
+                appendDirs(sb, random, random.nextInt(3));
+                sb.append('/').append(pick(random, WORDS)).append(random.nextBoolean() ? ".md" : ".sh");
+            }
+            paths[i] = sb.toString();
+        }
+        return paths;
+    }
+
+    private static void appendDirs(StringBuilder sb, Random random, int count) {
+        for (int i = 0; i < count; i++) {
+            sb.append('/').append(pick(random, WORDS));
+        }
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+}
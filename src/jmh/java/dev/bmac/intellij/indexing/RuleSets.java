@@ -0,0 +1,50 @@
+package dev.bmac.intellij.indexing;
+
+import com.google.common.collect.Lists;
+import dev.bmac.intellij.settings.IndexExclusion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic synthetic exclusion rules, mixing the three cost classes of {@link FuzzyRegex}:
+ * literal directory rules, rules prefiltered by a literal and full regular expressions without any literal.
+ **/
+final class RuleSets {
+    private static final String[] WORDS = {"api", "core", "util", "model", "service", "client", "server", "common",
+            "impl", "internal", "config", "handler", "store", "cache", "auth", "event", "query", "index"};
+
+    private RuleSets() {
+    }
+
+    static List<IndexExclusion> generate(int count, long seed) {
+        Random random = new Random(seed);
+        List<IndexExclusion> rules = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String pattern;
+            switch (i % 3) {
+                case 0:
+                    pattern = i == 0 ? ".*/node_modules/.*" : ".*/service" + random.nextInt(200) + "/" + pick(random) + "/.*";
+                    break;
+                case 1:
+                    pattern = ".*/service" + random.nextInt(200) + "/.*/" + pick(random) + "/.*\\.(java|kt)";
+                    break;
+                default:
+                    pattern = ".*/" + pick(random).charAt(0) + "[a-z]*" + random.nextInt(1000) + "\\.[jt]sx?";
+                    break;
+            }
+            IndexExclusion.IndexNameExclusion names = new IndexExclusion.IndexNameExclusion();
+            if (random.nextInt(4) == 0) {
+                names.setExcludeIfNotIn(false);
+                names.setIndexerNames(Lists.newArrayList("js.index", "css.index"));
+            }
+            rules.add(new IndexExclusion(pattern, names));
+        }
+        return rules;
+    }
+
+    private static String pick(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+}
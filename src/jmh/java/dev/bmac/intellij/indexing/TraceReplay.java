@@ -0,0 +1,171 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.indexing.ID;
+import dev.bmac.intellij.settings.PluginSettings;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays a trace recorded by {@link QueryTrace} through {@link IndexFilter} outside the IDE, with the recorded
+ * settings and the given matcher engines: throughput, latency percentiles next to the recorded ones, and the queries
+ * whose verdict differs from the recorded one.
+ * <p>
+ * Queries are replayed single threaded in recorded order, once to warm up and once measured, each pass with new filters
+ * so the verdict cache starts as cold as it did in the IDE. Files are mocks without parents or content: queries decided
+ * by project exclusions are skipped, and directory verdicts, ignore files and generated content detection do not apply,
+ * which shows up as differences for rules relying on them.
+ * Usage: TraceReplay trace [engine...]
+ **/
+public final class TraceReplay {
+    private static final int SHOWN_DIFFERENCES = 20;
+
+    private TraceReplay() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args[0].isEmpty()) {
+            System.err.println("Usage: TraceReplay <trace> [engine...], engines are " +
+                    Arrays.toString(PluginSettings.MatcherEngine.values()));
+            System.exit(1);
+        }
+        List<PluginSettings.MatcherEngine> engines = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            for (String engine : args[i].split(",")) {
+                if (!engine.isEmpty()) {
+                    engines.add(PluginSettings.MatcherEngine.valueOf(engine.trim()));
+                }
+            }
+        }
+        if (engines.isEmpty()) {
+            engines.addAll(Arrays.asList(PluginSettings.MatcherEngine.values()));
+        }
+        Trace trace = Trace.read(args[0]);
+        System.out.printf("%,d queries, %,d decided by project exclusions and skipped, %s dropped while recording, " +
+                        "%d settings%n", trace.queries.size(), trace.skipped,
+                trace.dropped < 0 ? "unknown (trace cut short)" : String.format("%,d", trace.dropped),
+                trace.settings.size());
+        if (trace.queries.isEmpty()) return;
+        long[] recorded = new long[trace.queries.size()];
+        for (int i = 0; i < recorded.length; i++) {
+            recorded[i] = trace.queries.get(i).nanos;
+        }
+        System.out.printf("%-26s %14s %s%n", "Recorded", "", percentiles(recorded));
+        for (PluginSettings.MatcherEngine engine : engines) {
+            replay(trace, engine, new ArrayList<>());
+            List<Query> differences = new ArrayList<>();
+            long[] latencies = replay(trace, engine, differences);
+            long total = Arrays.stream(latencies).sum();
+            System.out.printf("%-26s %,10.0f q/s %s, %,d verdict differences%n", engine.name(),
+                    latencies.length * 1e9 / Math.max(1, total), percentiles(latencies), differences.size());
+            for (Query query : differences.subList(0, Math.min(SHOWN_DIFFERENCES, differences.size()))) {
+                System.out.printf("    recorded %s, replayed %s: %s %s%n", verdict(query.excluded),
+                        verdict(!query.excluded), query.index.getName(), query.file.getPath());
+            }
+        }
+    }
+
+    /**
+     * @param differences receives the queries decided differently than recorded
+     * @return the latency of each query.
+     */
+    private static long[] replay(Trace trace, PluginSettings.MatcherEngine engine, List<Query> differences) {
+        long[] latencies = new long[trace.queries.size()];
+        IndexFilter filter = null;
+        int settings = -1;
+        for (int i = 0; i < latencies.length; i++) {
+            Query query = trace.queries.get(i);
+            if (query.settings != settings) {
+                settings = query.settings;
+                PluginSettings recorded = trace.settings.get(settings);
+                recorded.setMatcherEngine(engine);
+                filter = new IndexFilter(recorded);
+            }
+            long start = System.nanoTime();
+            boolean excluded = filter.isExcludedFromIndex(query.file, query.index);
+            latencies[i] = System.nanoTime() - start;
+            if (excluded != query.excluded) {
+                differences.add(query);
+            }
+        }
+        return latencies;
+    }
+
+    private static String percentiles(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return String.format("p50 %,6d ns  p90 %,6d ns  p99 %,7d ns  p99.9 %,8d ns  max %,10d ns",
+                percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+                percentile(sorted, 0.999), sorted[sorted.length - 1]);
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * quantile))];
+    }
+
+    private static String verdict(boolean excluded) {
+        return excluded ? "excluded" : "included";
+    }
+
+    /**
+     * A trace loaded into memory, so reading it is not measured.
+     */
+    private static final class Trace {
+        private final List<PluginSettings> settings = new ArrayList<>();
+        private final List<Query> queries = new ArrayList<>();
+        private long skipped;
+        private long dropped;
+
+        private static Trace read(String file) throws IOException {
+            Trace trace = new Trace();
+            Map<String, ID<?, ?>> indexes = new HashMap<>();
+            //Queries of the same file share a mock, so the filter's caches see them as the same file.
+            Map<String, VirtualFile> files = new HashMap<>();
+            try (QueryTrace.Reader reader = new QueryTrace.Reader(Paths.get(file))) {
+                trace.settings.add(reader.getSettings());
+                while (reader.next()) {
+                    PluginSettings settings = reader.getSettings();
+                    if (settings != null) {
+                        trace.settings.add(settings);
+                        continue;
+                    }
+                    if (reader.isProject()) {
+                        trace.skipped++;
+                        continue;
+                    }
+                    ID<?, ?> index = indexes.computeIfAbsent(reader.getIndexName(), ID::create);
+                    VirtualFile virtualFile = files.computeIfAbsent(reader.getFileId() + ":" + reader.getPath(),
+                            key -> new BenchmarkFile(reader.getPath(), reader.getFileId(), reader.isDirectory(),
+                                    reader.getLength()));
+                    trace.queries.add(new Query(trace.settings.size() - 1, index, virtualFile, reader.isExcluded(),
+                            reader.getNanos()));
+                }
+                trace.dropped = reader.getDropped();
+            }
+            return trace;
+        }
+    }
+
+    private static final class Query {
+        //Position of the settings the query was decided with.
+        private final int settings;
+        private final ID<?, ?> index;
+        private final VirtualFile file;
+        private final boolean excluded;
+        private final long nanos;
+
+        private Query(int settings, ID<?, ?> index, VirtualFile file, boolean excluded, long nanos) {
+            this.settings = settings;
+            this.index = index;
+            this.file = file;
+            this.excluded = excluded;
+            this.nanos = nanos;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package dev.bmac.intellij.indexing;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Order in which a matcher tries its regular expressions, adapted to how often each rule matches and what it costs.
+ * <p>
+ * One in {@link #SAMPLE_RATE} matcher calls per thread is sampled: its rule checks are timed and counted. Every
+ * {@link #REORDER_INTERVAL} calls a thread sorts the rules by average cost over hit rate, so cheap and frequently
+ * matching rules come first, and publishes the order as a new array through a volatile field. Published arrays are
+ * never written again, so the indexing threads read them without locking.
+ * <p>
+ * The order only decides which rule is tried first, not which one wins: callers keep the lowest matching rule and
+ * skip rules after it, so a match found early prunes every later rule in the settings.
+ **/
+final class AdaptiveRuleOrder {
+    static final int SAMPLE_RATE = 64;
+    static final int REORDER_INTERVAL = 1 << 13;
+    //Hit rate assumed for rules which never matched, so they still sort by cost.
+    private static final double MIN_HIT_RATE = 1e-3;
+
+    private final LongAdder[] evaluations;
+    private final LongAdder[] hits;
+    private final LongAdder[] nanos;
+    private final AtomicBoolean reordering = new AtomicBoolean();
+    private final ThreadLocal<int[]> calls = ThreadLocal.withInitial(() -> new int[1]);
+    private volatile int[] order;
+
+    /**
+     * @param rules the rules to order, in settings order
+     * @param size one more than the highest rule
+     */
+    AdaptiveRuleOrder(int[] rules, int size) {
+        this.order = rules.clone();
+        this.evaluations = adders(size);
+        this.hits = adders(size);
+        this.nanos = adders(size);
+    }
+
+    private static LongAdder[] adders(int size) {
+        LongAdder[] adders = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * Counts a matcher call, reordering the rules every {@link #REORDER_INTERVAL} calls of this thread.
+     * @return true if the rule checks of this call are to be timed and recorded.
+     */
+    boolean sample() {
+        int[] count = calls.get();
+        int call = ++count[0];
+        if ((call & (REORDER_INTERVAL - 1)) == 0) {
+            reorder();
+        }
+        return (call & (SAMPLE_RATE - 1)) == 0;
+    }
+
+    /**
+     * @return the rules in the order to try them. The array must not be modified.
+     */
+    int[] order() {
+        return order;
+    }
+
+    /**
+     * Records a sampled rule check.
+     */
+    void record(int rule, boolean matched, long elapsedNanos) {
+        evaluations[rule].increment();
+        if (matched) {
+            hits[rule].increment();
+        }
+        nanos[rule].add(elapsedNanos);
+    }
+
+    /**
+     * Sorts the rules by expected cost of finding a match with them. Rules never sampled sort first, so they get
+     * sampled. One thread reorders at a time, the others keep matching with the published order.
+     */
+    void reorder() {
+        if (!reordering.compareAndSet(false, true)) return;
+        try {
+            int[] current = order;
+            double[] score = new double[evaluations.length];
+            for (int rule : current) {
+                long evaluated = evaluations[rule].sum();
+                if (evaluated == 0) continue;
+                double hitRate = Math.max(MIN_HIT_RATE, (double) hits[rule].sum() / evaluated);
+                score[rule] = nanos[rule].sum() / (double) evaluated / hitRate;
+            }
+            Integer[] sorted = Arrays.stream(current).boxed().toArray(Integer[]::new);
+            //Stable, rules scoring the same keep their settings order.
+            Arrays.sort(sorted, Comparator.<Integer>comparingDouble(rule -> score[rule]).thenComparingInt(rule -> rule));
+            order = Arrays.stream(sorted).mapToInt(Integer::intValue).toArray();
+        } finally {
+            reordering.set(false);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package dev.bmac.intellij.indexing;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton over a set of literals. A single scan of the input reports every literal it contains.
+ * Literals are matched ignoring case, like the regular expressions they are taken from: the automaton is built over
+ * literals folded to lower case and the input is folded as it is scanned. Literals taken from case sensitive rules
+ * (globs) are checked against the input as written once the folded scan found them.
+ **/
+class AhoCorasick {
+    private static final int[] NONE = new int[0];
+
+    //Per node sorted child characters and their target node, searched with a binary search.
+    private final char[][] childChars;
+    private final int[][] childNodes;
+    private final int[] fail;
+    //Ids of every literal ending at a node, including the ones reachable through fail links.
+    private final int[][] outputs;
+    //Per id, the literal as written if it is matched case sensitively, otherwise null.
+    private final String[] caseSensitive;
+
+    /**
+     * @param literals literals to search for, ignoring case. The id reported for a literal is its index. Null entries
+     * are skipped.
+     */
+    AhoCorasick(List<String> literals) {
+        this(literals, new boolean[literals.size()]);
+    }
+
+    /**
+     * @param caseSensitive per literal, true to match it as written
+     */
+    AhoCorasick(List<String> literals, boolean[] caseSensitive) {
+        this.caseSensitive = new String[literals.size()];
+        List<TreeMap<Character, Integer>> children = new ArrayList<>();
+        List<int[]> out = new ArrayList<>();
+        children.add(new TreeMap<>());
+        out.add(NONE);
+        for (int id = 0; id < literals.size(); id++) {
+            String literal = literals.get(id);
+            if (literal == null) continue;
+            if (caseSensitive[id]) {
+                this.caseSensitive[id] = literal;
+            }
+            int node = 0;
+            for (int i = 0; i < literal.length(); i++) {
+                char c = Character.toLowerCase(literal.charAt(i));
+                Integer next = children.get(node).get(c);
+                if (next == null) {
+                    next = children.size();
+                    children.add(new TreeMap<>());
+                    out.add(NONE);
+                    children.get(node).put(c, next);
+                }
+                node = next;
+            }
+            out.set(node, append(out.get(node), id));
+        }
+
+        int size = children.size();
+        childChars = new char[size][];
+        childNodes = new int[size][];
+        fail = new int[size];
+        outputs = new int[size][];
+        for (int node = 0; node < size; node++) {
+            TreeMap<Character, Integer> map = children.get(node);
+            childChars[node] = new char[map.size()];
+            childNodes[node] = new int[map.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> entry : map.entrySet()) {
+                childChars[node][i] = entry.getKey();
+                childNodes[node][i++] = entry.getValue();
+            }
+            outputs[node] = out.get(node);
+        }
+
+        //Breadth first so a node's fail target is always complete before the node itself.
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int child : childNodes[0]) {
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int i = 0; i < childChars[node].length; i++) {
+                int child = childNodes[node][i];
+                int f = fail[node];
+                int target;
+                while ((target = child(f, childChars[node][i])) < 0 && f != 0) {
+                    f = fail[f];
+                }
+                fail[child] = target < 0 ? 0 : target;
+                if (outputs[fail[child]].length > 0) {
+                    outputs[child] = merge(outputs[child], outputs[fail[child]]);
+                }
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Scans the input once and sets the bit of every literal id found in it.
+     */
+    void findAll(CharSequence input, long[] foundIds) {
+        int node = 0;
+        for (int i = 0; i < input.length(); i++) {
+            char c = Character.toLowerCase(input.charAt(i));
+            int next;
+            while ((next = child(node, c)) < 0 && node != 0) {
+                node = fail[node];
+            }
+            node = next < 0 ? 0 : next;
+            for (int id : outputs[node]) {
+                if (caseSensitive[id] == null || endsWith(input, i + 1, caseSensitive[id])) {
+                    foundIds[id >>> 6] |= 1L << id;
+                }
+            }
+        }
+    }
+
+    private static boolean endsWith(CharSequence input, int end, String literal) {
+        int start = end - literal.length();
+        for (int i = 0; i < literal.length(); i++) {
+            if (input.charAt(start + i) != literal.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private int child(int node, char c) {
+        int i = Arrays.binarySearch(childChars[node], c);
+        return i < 0 ? -1 : childNodes[node][i];
+    }
+
+    private static int[] append(int[] ids, int id) {
+        int[] result = Arrays.copyOf(ids, ids.length + 1);
+        result[ids.length] = id;
+        return result;
+    }
+
+    private static int[] merge(int[] a, int[] b) {
+        int[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
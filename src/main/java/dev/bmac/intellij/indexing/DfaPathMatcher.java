@@ -0,0 +1,66 @@
+package dev.bmac.intellij.indexing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Matches all rules with a single {@link RegexDfa}. Rules the DFA cannot express fall back to jregex, only those
+ * rules pay for backtracking. They are tried in the order of an {@link AdaptiveRuleOrder}.
+ **/
+class DfaPathMatcher implements PathMatcher {
+    private final RegexDfa dfa;
+    //Rules on the slow path, in settings order. Null for rules handled by the DFA.
+    private final FuzzyRegex[] fallbacks;
+    private final int[] fallbackRules;
+    private final AdaptiveRuleOrder order;
+
+    DfaPathMatcher(List<String> patterns) {
+        this.dfa = new RegexDfa(patterns);
+        this.fallbacks = new FuzzyRegex[patterns.size()];
+        List<Integer> slowRules = new ArrayList<>();
+        for (int i = 0; i < patterns.size(); i++) {
+            if (dfa.getUnsupportedReason(i) != null) {
+                fallbacks[i] = new FuzzyRegex(patterns.get(i));
+                slowRules.add(i);
+            }
+        }
+        this.fallbackRules = slowRules.stream().mapToInt(Integer::intValue).toArray();
+        this.order = new AdaptiveRuleOrder(fallbackRules, patterns.size());
+    }
+
+    @Override
+    public int firstMatch(CharSequence path) {
+        int match = dfa.firstMatch(path);
+        if (fallbackRules.length == 0) return match;
+        boolean sampled = order.sample();
+        for (int rule : order.order()) {
+            //First match in the settings wins, rules after the best match so far cannot change the result.
+            if (match >= 0 && rule > match) continue;
+            boolean matched;
+            if (sampled) {
+                long start = System.nanoTime();
+                matched = fallbacks[rule].matches(path);
+                order.record(rule, matched, System.nanoTime() - start);
+            } else {
+                matched = fallbacks[rule].matches(path);
+            }
+            if (matched) {
+                match = rule;
+            }
+        }
+        return match;
+    }
+
+    /**
+     * @return the rules which could not be compiled into the DFA, mapped to the reason why.
+     */
+    Map<Integer, String> getFallbackRules() {
+        Map<Integer, String> result = new TreeMap<>();
+        for (int rule : fallbackRules) {
+            result.put(rule, dfa.getUnsupportedReason(rule));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,110 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import dev.bmac.intellij.settings.IndexExclusion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Memoizes, per directory, which directory rule (a .*\/some/path/.* pattern or a **{@code /some/path/**} glob) covers
+ * its whole subtree.
+ * Every descendant of a covered directory then resolves from its parent's memo, without building its path or
+ * running any matcher. The memo of a directory is derived from its parent's, so each directory is checked once.
+ * <p>
+ * First match still has to win, so a directory verdict is only used when every rule before the covering rule
+ * excludes exactly the same indexes: whichever of them matches first, the outcome is the same. Rules depending on
+ * the file name are never directory rules and are left to the per file matching.
+ **/
+class DirectoryVerdicts {
+    private static final Key<Memo> MEMO = Key.create("dev.bmac.indexExclusion.directoryVerdict");
+
+    private final AhoCorasick literals;
+    private final int rules;
+    private volatile Epoch epoch;
+
+    DirectoryVerdicts(List<IndexExclusion> exclusions) {
+        List<String> directoryLiterals = new ArrayList<>();
+        boolean[] globs = new boolean[exclusions.size()];
+        for (IndexExclusion exclusion : exclusions) {
+            //Only the leading rules sharing the first rule's index selection can give a final verdict.
+            if (!exclusion.getIndexerNameExclusion().equals(exclusions.get(0).getIndexerNameExclusion())) break;
+            //Globs are case sensitive, regular expressions are not.
+            globs[directoryLiterals.size()] = exclusion.getSyntax() == IndexExclusion.Syntax.GLOB;
+            directoryLiterals.add(directoryLiteral(exclusion));
+        }
+        this.rules = directoryLiterals.size();
+        this.literals = new AhoCorasick(directoryLiterals, Arrays.copyOf(globs, rules));
+        this.epoch = new Epoch(rules);
+    }
+
+    private static String directoryLiteral(IndexExclusion exclusion) {
+        if (!exclusion.getSyntax().isPath() || exclusion.hasSizeThreshold()) return null;
+        return exclusion.getSyntax() == IndexExclusion.Syntax.GLOB ? GlobTrie.directoryLiteral(exclusion.getPath()) :
+                FuzzyRegex.directoryLiteral(exclusion.getPath());
+    }
+
+    /**
+     * @return the rule covering the file's parent directory, which is the file's first matching rule, or -1 if the
+     * file has to be matched on its own.
+     */
+    int getVerdict(VirtualFile file) {
+        if (rules == 0) return -1;
+        VirtualFile parent = file.getParent();
+        return parent == null ? -1 : memo(parent, epoch).rule;
+    }
+
+    /**
+     * Drops every memo, needed once directories were renamed or moved.
+     */
+    void invalidateAll() {
+        epoch = new Epoch(rules);
+    }
+
+    private Memo memo(VirtualFile directory, Epoch epoch) {
+        Memo memo = directory.getUserData(MEMO);
+        if (memo != null && memo.epoch == epoch) return memo;
+        VirtualFile parent = directory.getParent();
+        Memo inherited = parent == null ? epoch.uncovered : memo(parent, epoch);
+        memo = inherited.rule >= 0 ? inherited : compute(directory, epoch);
+        directory.putUserData(MEMO, memo);
+        return memo;
+    }
+
+    private Memo compute(VirtualFile directory, Epoch epoch) {
+        String path = directory.getPath();
+        long[] found = new long[(rules + 63) >>> 6];
+        literals.findAll(path.endsWith("/") ? path : path + "/", found);
+        for (int i = 0; i < found.length; i++) {
+            if (found[i] != 0) return epoch.covered[i * 64 + Long.numberOfTrailingZeros(found[i])];
+        }
+        return epoch.uncovered;
+    }
+
+    /**
+     * Memos are shared, one per rule, and tied to the epoch they were created in.
+     */
+    private static final class Epoch {
+        private final Memo uncovered = new Memo(this, -1);
+        private final Memo[] covered;
+
+        private Epoch(int rules) {
+            covered = new Memo[rules];
+            for (int i = 0; i < rules; i++) {
+                covered[i] = new Memo(this, i);
+            }
+        }
+    }
+
+    private static final class Memo {
+        private final Epoch epoch;
+        private final int rule;
+
+        private Memo(Epoch epoch, int rule) {
+            this.epoch = epoch;
+            this.rule = rule;
+        }
+    }
+}
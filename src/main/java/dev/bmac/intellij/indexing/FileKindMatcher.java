@@ -0,0 +1,84 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import dev.bmac.intellij.settings.IndexExclusion;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Extension and file type rules, resolved with hash lookups on the file name and type, without building the path.
+ * <p>
+ * An extension may span several dots, min.js matches a.min.js, so each of the last dotted suffixes of the name is
+ * looked up, up to the most dots any rule has. Extensions and file type names are matched ignoring case.
+ **/
+class FileKindMatcher {
+    private final Map<String, Integer> extensions = new HashMap<>();
+    private final Map<String, Integer> fileTypes = new HashMap<>();
+    private final int maxDots;
+
+    FileKindMatcher(List<IndexExclusion> rules) {
+        int maxDots = 0;
+        for (int rule = 0; rule < rules.size(); rule++) {
+            IndexExclusion exclusion = rules.get(rule);
+            IndexExclusion.Syntax syntax = exclusion.getSyntax();
+            if (syntax.isPath() || syntax == IndexExclusion.Syntax.IGNORE_FILE || exclusion.hasSizeThreshold()) continue;
+            Map<String, Integer> keys = syntax == IndexExclusion.Syntax.EXTENSION ? extensions : fileTypes;
+            for (String key : split(exclusion.getPath())) {
+                if (syntax == IndexExclusion.Syntax.EXTENSION) {
+                    maxDots = Math.max(maxDots, StringUtil.countChars(key, '.') + 1);
+                }
+                //First rule wins.
+                keys.putIfAbsent(key, rule);
+            }
+        }
+        this.maxDots = maxDots;
+    }
+
+    /**
+     * @return the extensions or file type names of a rule: comma separated, without leading '*' or '.'.
+     */
+    static List<String> split(String path) {
+        List<String> keys = StringUtil.split(StringUtil.notNullize(path), ",");
+        keys.replaceAll(key -> StringUtil.trimLeading(StringUtil.trimLeading(key.trim(), '*'), '.').toLowerCase(Locale.US));
+        keys.removeIf(String::isEmpty);
+        return keys;
+    }
+
+    boolean isEmpty() {
+        return extensions.isEmpty() && fileTypes.isEmpty();
+    }
+
+    /**
+     * @return the first extension or file type rule matching the file, or -1.
+     */
+    int firstMatch(VirtualFile file) {
+        int best = -1;
+        if (!extensions.isEmpty()) {
+            CharSequence name = file.getNameSequence();
+            int dots = 0;
+            for (int i = name.length() - 1; i > 0 && dots < maxDots; i--) {
+                if (name.charAt(i) != '.') continue;
+                dots++;
+                Integer rule = extensions.get(name.subSequence(i + 1, name.length()).toString().toLowerCase(Locale.US));
+                if (rule != null && (best < 0 || rule < best)) {
+                    best = rule;
+                }
+            }
+        }
+        if (!fileTypes.isEmpty()) {
+            Integer rule = fileTypes.get(file.getFileType().getName().toLowerCase(Locale.US));
+            if (rule != null && (best < 0 || rule < best)) {
+                best = rule;
+            }
+        }
+        return best;
+    }
+
+    boolean hasFileTypeRules() {
+        return !fileTypes.isEmpty();
+    }
+}
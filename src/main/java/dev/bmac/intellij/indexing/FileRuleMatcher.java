@@ -0,0 +1,135 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import dev.bmac.intellij.settings.IndexExclusion;
+import dev.bmac.intellij.settings.PluginSettings;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * First match over the path, extension, file type and ignore file rules of a rule list. Extension and file type rules
+ * are looked up first, ignore files are only consulted by rules before the rule found so far and the path is only built
+ * and matched if a path rule comes before it. Size exclusions are left to {@link SizeThresholds}.
+ **/
+class FileRuleMatcher {
+    private final PathMatcher pathMatcher;
+    private final FileKindMatcher fileKinds;
+    //Settings position of each ignore file rule, in order, and its matcher.
+    private final int[] ignoreRules;
+    private final IgnoreFileMatcher[] ignoreFiles;
+    //Position of the first path rule, rules before it are decided by fileKinds alone.
+    private final int firstPathRule;
+    private final int rules;
+
+    FileRuleMatcher(PluginSettings.MatcherEngine engine, List<IndexExclusion> rules) {
+        this(engine, rules, true);
+    }
+
+    /**
+     * @param memoize false to leave the per directory memos of the ignore files alone, for dry runs next to the filter
+     */
+    FileRuleMatcher(PluginSettings.MatcherEngine engine, List<IndexExclusion> rules, boolean memoize) {
+        this.pathMatcher = IndexFilter.createPathMatcher(engine, rules);
+        this.fileKinds = new FileKindMatcher(rules);
+        List<Integer> ignoreRules = new ArrayList<>();
+        List<IgnoreFileMatcher> ignoreFiles = new ArrayList<>();
+        for (int rule = 0; rule < rules.size(); rule++) {
+            IndexExclusion exclusion = rules.get(rule);
+            if (exclusion.getSyntax() != IndexExclusion.Syntax.IGNORE_FILE || exclusion.hasSizeThreshold() ||
+                    StringUtil.isEmptyOrSpaces(exclusion.getPath())) continue;
+            ignoreRules.add(rule);
+            ignoreFiles.add(new IgnoreFileMatcher(exclusion.getPath().trim(), memoize));
+        }
+        this.ignoreRules = ignoreRules.stream().mapToInt(Integer::intValue).toArray();
+        this.ignoreFiles = ignoreFiles.toArray(new IgnoreFileMatcher[0]);
+        int firstPathRule = 0;
+        while (firstPathRule < rules.size() && (!rules.get(firstPathRule).getSyntax().isPath() ||
+                rules.get(firstPathRule).hasSizeThreshold())) {
+            firstPathRule++;
+        }
+        this.firstPathRule = firstPathRule;
+        this.rules = rules.size();
+    }
+
+    /**
+     * @param root directory the path rules are relative to, or null to match them against the whole path
+     * @return the file's first matching rule, or -1.
+     */
+    int firstMatch(VirtualFile file, @Nullable VirtualFile root) {
+        int kind = firstKindMatch(file);
+        if (kind >= 0 && kind < firstPathRule || firstPathRule == rules) return kind;
+        return withPath(kind, root == null ? PathBuffer.of(file) : PathBuffer.relative(file, root));
+    }
+
+    /**
+     * @param path the file's path as the path rules match it, already built by the caller
+     * @return the file's first matching rule, or -1.
+     */
+    int firstMatchPath(VirtualFile file, CharSequence path) {
+        int kind = firstKindMatch(file);
+        if (kind >= 0 && kind < firstPathRule || firstPathRule == rules) return kind;
+        return withPath(kind, path);
+    }
+
+    private int firstKindMatch(VirtualFile file) {
+        int kind = fileKinds.isEmpty() ? -1 : fileKinds.firstMatch(file);
+        for (int i = 0; i < ignoreRules.length && (kind < 0 || ignoreRules[i] < kind); i++) {
+            if (ignoreFiles[i].isIgnored(file)) return ignoreRules[i];
+        }
+        return kind;
+    }
+
+    private int withPath(int kind, CharSequence file) {
+        int path = pathMatcher.firstMatch(file);
+        return kind < 0 ? path : path < 0 ? kind : Math.min(kind, path);
+    }
+
+    boolean hasFileTypeRules() {
+        return fileKinds.hasFileTypeRules();
+    }
+
+    /**
+     * Drops what the ignore files memoized per directory, needed once directories were renamed or moved. The ignore
+     * files stay compiled.
+     */
+    void invalidateAll() {
+        for (IgnoreFileMatcher ignoreFile : ignoreFiles) {
+            ignoreFile.invalidateAll();
+        }
+    }
+
+    boolean hasIgnoreFileRules() {
+        return ignoreRules.length > 0;
+    }
+
+    /**
+     * @return true if a rule reads ignore files of the given name.
+     */
+    boolean readsIgnoreFile(String fileName) {
+        for (IgnoreFileMatcher ignoreFile : ignoreFiles) {
+            if (ignoreFile.getFileName().equals(fileName)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Recompiles what the ignore file of the given name in the directory contributes, after it was created, changed or
+     * deleted.
+     * @return whether the first match of a file under the directory may have changed, or null if no rule reads ignore
+     * files of that name.
+     */
+    @Nullable
+    Predicate<VirtualFile> ignoreFileChanged(VirtualFile directory, String fileName) {
+        Predicate<VirtualFile> changed = null;
+        for (IgnoreFileMatcher ignoreFile : ignoreFiles) {
+            if (!ignoreFile.getFileName().equals(fileName)) continue;
+            Predicate<VirtualFile> flipped = ignoreFile.changed(directory);
+            changed = changed == null ? flipped : changed.or(flipped);
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,119 @@
+package dev.bmac.intellij.indexing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Java Flight Recorder events of the index filter, to line filter cost up with indexing stalls in a recording.
+ * <p>
+ * Decisions are sampled, one in the configured rate, and only while a recording enables the decision event: with no
+ * recording running a decision pays an int compare and the enabled check, nothing is allocated.
+ **/
+final class FilterEvents {
+    private static final String CATEGORY = "Index Exclusion";
+    private static final EventType DECISION = EventType.getEventType(Decision.class);
+
+    private FilterEvents() {
+    }
+
+    /**
+     * @param sampleRate one in how many decisions is recorded, 0 to record none
+     * @return a started decision event, or null if this decision is not recorded.
+     */
+    @Nullable
+    static Decision beginDecision(int sampleRate) {
+        if (sampleRate <= 0 || !DECISION.isEnabled() || ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return null;
+        }
+        Decision event = new Decision();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @return a started event timing the compilation of a rule set.
+     */
+    static RulesCompiled beginCompile() {
+        RulesCompiled event = new RulesCompiled();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param verdicts how many in memory verdicts were dropped
+     */
+    static void cacheInvalidated(String reason, int verdicts) {
+        CacheInvalidated event = new CacheInvalidated();
+        if (!event.shouldCommit()) return;
+        event.reason = reason;
+        event.verdicts = verdicts;
+        event.commit();
+    }
+
+    @Name("dev.bmac.indexExclusion.Decision")
+    @Label("Index Filter Decision")
+    @Category(CATEGORY)
+    @Description("Sampled decision of whether a file is excluded from an index")
+    @StackTrace(false)
+    static final class Decision extends Event {
+        @Label("Path")
+        String path;
+        @Label("Index")
+        String index;
+        @Label("Rule")
+        @Description("Position of the first matching application exclusion, -1 for none")
+        int rule;
+        @Label("Project Rule")
+        @Description("Position of the first matching project exclusion, -1 for none")
+        int projectRule;
+        @Label("Cache Hit")
+        @Description("Whether the verdict was in the verdict cache")
+        boolean cacheHit;
+        @Label("Excluded")
+        boolean excluded;
+    }
+
+    @Name("dev.bmac.indexExclusion.RulesCompiled")
+    @Label("Index Exclusion Rules Compiled")
+    @Category(CATEGORY)
+    @Description("Rule set compiled after a settings change or a project change")
+    @StackTrace(false)
+    static final class RulesCompiled extends Event {
+        @Label("Scope")
+        @Description("Application, or the projects whose exclusions were compiled")
+        String scope;
+        @Label("Rules")
+        int rules;
+        @Label("Matcher Engine")
+        String engine;
+
+        void finish(String scope, int rules, Object engine) {
+            end();
+            if (!shouldCommit()) return;
+            this.scope = scope;
+            this.rules = rules;
+            this.engine = String.valueOf(engine);
+            commit();
+        }
+    }
+
+    @Name("dev.bmac.indexExclusion.CacheInvalidated")
+    @Label("Index Exclusion Cache Invalidated")
+    @Category(CATEGORY)
+    @Description("In memory verdicts dropped")
+    static final class CacheInvalidated extends Event {
+        @Label("Reason")
+        String reason;
+        @Label("Verdicts")
+        @Description("Verdicts in the cache when it was dropped")
+        int verdicts;
+    }
+}
@@ -0,0 +1,306 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.util.indexing.IndexId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the index filter decisions, safe to update from all indexing threads at once.
+ * Counters are striped {@link LongAdder}s and latencies go to a histogram with power of two buckets,
+ * so recording never locks and only allocates the first time an index is seen.
+ **/
+public class FilterMetrics {
+    /**
+     * Where the path verdict of a decision came from.
+     */
+    enum Source {
+        /** Verdict cache hit. */
+        CACHE,
+        /** Verdict persisted by an earlier run. */
+        STORE,
+        /** Resolved from a covered parent directory. */
+        DIRECTORY,
+        /** Path was run through the matcher. */
+        MATCHER,
+        /** Excluded for its generated content, counted on top of the path verdict. */
+        CONTENT
+    }
+
+    private static final int BUCKETS = 64;
+
+    private final String[] ruleLabels;
+    private final LongAdder[] ruleMatches;
+    private final LongAdder[] ruleExclusions;
+    private final LongAdder[] ruleNanos;
+    private final ConcurrentHashMap<IndexId<?, ?>, IndexCounters> indexCounters = new ConcurrentHashMap<>();
+    private final LongAdder[] sources = newAdders(Source.values().length);
+    private final LongAdder[] latency = newAdders(BUCKETS);
+
+    FilterMetrics(List<String> ruleLabels) {
+        this.ruleLabels = ruleLabels.toArray(new String[0]);
+        this.ruleMatches = newAdders(this.ruleLabels.length);
+        this.ruleExclusions = newAdders(this.ruleLabels.length);
+        this.ruleNanos = newAdders(this.ruleLabels.length);
+    }
+
+    private static LongAdder[] newAdders(int size) {
+        LongAdder[] adders = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * Records where a path verdict came from.
+     */
+    void recordSource(Source source) {
+        sources[source.ordinal()].increment();
+    }
+
+    /**
+     * Records one decision.
+     * @param rule the matching path rule, or -1
+     * @param excludedBy the rule which kept the file out of the index, the path rule or a size exclusion, or -1 if no
+     * rule did, also when a whole index, a project exclusion or generated content did
+     * @param nanos time spent on the decision, or -1 if it was not timed
+     */
+    void record(IndexId<?, ?> indexId, int rule, boolean excluded, int excludedBy, long nanos) {
+        IndexCounters counters = indexCounters.get(indexId);
+        if (counters == null) {
+            counters = indexCounters.computeIfAbsent(indexId, id -> new IndexCounters(id.getName()));
+        }
+        counters.calls.increment();
+        if (excluded) {
+            counters.excluded.increment();
+        }
+        if (rule >= 0 && !excluded) {
+            counters.coveredIncluded.increment();
+        }
+        if (rule >= 0) {
+            ruleMatches[rule].increment();
+        }
+        if (excludedBy >= 0) {
+            if (excludedBy != rule) {
+                ruleMatches[excludedBy].increment();
+            }
+            ruleExclusions[excludedBy].increment();
+        }
+        if (nanos >= 0) {
+            counters.nanos.add(nanos);
+            counters.timed.increment();
+            latency[63 - Long.numberOfLeadingZeros(Math.max(1, nanos))].increment();
+            if (rule >= 0) {
+                ruleNanos[rule].add(nanos);
+            }
+        }
+    }
+
+    /**
+     * Records the size of a file a size exclusion kept out of an index, once per file and index however often the
+     * indexer asks.
+     * @param fileId id of the file, or 0 for files without one, which are counted on every decision
+     */
+    void recordExcludedBytes(IndexId<?, ?> indexId, int fileId, long bytes) {
+        IndexCounters counters = indexCounters.get(indexId);
+        if (counters == null) {
+            counters = indexCounters.computeIfAbsent(indexId, id -> new IndexCounters(id.getName()));
+        }
+        if (fileId > 0 && !counters.sizeExcludedFiles.add(fileId)) return;
+        counters.excludedBytes.add(bytes);
+    }
+
+    void reset() {
+        indexCounters.clear();
+        for (LongAdder[] adders : new LongAdder[][]{ruleMatches, ruleExclusions, ruleNanos, sources, latency}) {
+            for (LongAdder adder : adders) {
+                adder.reset();
+            }
+        }
+    }
+
+    public long getDecisions() {
+        long total = 0;
+        for (IndexCounters counters : indexCounters.values()) {
+            total += counters.calls.sum();
+        }
+        return total;
+    }
+
+    /**
+     * @return the share of path verdicts served from the verdict cache, the persisted store or a parent directory,
+     * between 0 and 1.
+     */
+    public double getCacheHitRate() {
+        long hits = sources[Source.CACHE.ordinal()].sum() + sources[Source.STORE.ordinal()].sum() +
+                sources[Source.DIRECTORY.ordinal()].sum();
+        long lookups = hits + sources[Source.MATCHER.ordinal()].sum();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * @return an upper bound of the given latency percentile in nanoseconds, from the histogram buckets.
+     */
+    public long getLatencyPercentile(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = latency[i].sum();
+            total += counts[i];
+        }
+        long threshold = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= threshold && seen > 0) return (2L << i) - 1;
+        }
+        return 0;
+    }
+
+    public List<RuleStats> getRuleStats() {
+        List<RuleStats> result = new ArrayList<>(ruleLabels.length);
+        for (int i = 0; i < ruleLabels.length; i++) {
+            result.add(new RuleStats(ruleLabels[i], ruleMatches[i].sum(), ruleExclusions[i].sum(), ruleNanos[i].sum()));
+        }
+        return result;
+    }
+
+    public List<IndexStats> getIndexStats() {
+        List<IndexStats> result = new ArrayList<>(indexCounters.size());
+        for (IndexCounters counters : indexCounters.values()) {
+            result.add(new IndexStats(counters.name, counters.calls.sum(), counters.excluded.sum(),
+                    counters.coveredIncluded.sum(), counters.excludedBytes.sum(), counters.timed.sum(),
+                    counters.nanos.sum()));
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return getDecisions() + " decisions, " + Math.round(getCacheHitRate() * 100) + "% path verdicts cached, p50 " +
+                getLatencyPercentile(50) + "ns, p99 " + getLatencyPercentile(99) + "ns";
+    }
+
+    private static final class IndexCounters {
+        private final String name;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder excluded = new LongAdder();
+        private final LongAdder coveredIncluded = new LongAdder();
+        private final LongAdder excludedBytes = new LongAdder();
+        //Files counted in excludedBytes, only the few above a size threshold.
+        private final Set<Integer> sizeExcludedFiles = ConcurrentHashMap.newKeySet();
+        private final LongAdder timed = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        private IndexCounters(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Point in time counters of a path rule.
+     */
+    public static final class RuleStats {
+        private final String rule;
+        private final long matches;
+        private final long exclusions;
+        private final long nanos;
+
+        RuleStats(String rule, long matches, long exclusions, long nanos) {
+            this.rule = rule;
+            this.matches = matches;
+            this.exclusions = exclusions;
+            this.nanos = nanos;
+        }
+
+        public String getRule() {
+            return rule;
+        }
+
+        /**
+         * @return number of decisions for files matching this rule.
+         */
+        public long getMatches() {
+            return matches;
+        }
+
+        /**
+         * @return number of (file, index) pairs this rule kept out of an index.
+         */
+        public long getExclusions() {
+            return exclusions;
+        }
+
+        /**
+         * @return time spent on the timed decisions for files matching this rule.
+         */
+        public long getNanos() {
+            return nanos;
+        }
+    }
+
+    /**
+     * Point in time counters of an index.
+     */
+    public static final class IndexStats {
+        private final String index;
+        private final long calls;
+        private final long excluded;
+        private final long coveredIncluded;
+        private final long excludedBytes;
+        private final long timed;
+        private final long nanos;
+
+        IndexStats(String index, long calls, long excluded, long coveredIncluded, long excludedBytes, long timed,
+                   long nanos) {
+            this.index = index;
+            this.calls = calls;
+            this.excluded = excluded;
+            this.coveredIncluded = coveredIncluded;
+            this.excludedBytes = excludedBytes;
+            this.timed = timed;
+            this.nanos = nanos;
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getExcluded() {
+            return excluded;
+        }
+
+        /**
+         * @return number of decisions for files matching a path rule which still let the file into this index.
+         */
+        public long getCoveredIncluded() {
+            return coveredIncluded;
+        }
+
+        /**
+         * @return bytes of the files size exclusions kept out of this index.
+         */
+        public long getExcludedBytes() {
+            return excludedBytes;
+        }
+
+        /**
+         * @return average time of a timed decision for this index.
+         */
+        public long getAverageNanos() {
+            return timed == 0 ? 0 : nanos / timed;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+    }
+}
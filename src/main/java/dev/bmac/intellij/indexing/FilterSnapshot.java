@@ -0,0 +1,182 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.impl.cache.impl.todo.TodoIndex;
+import com.intellij.util.indexing.IndexId;
+import dev.bmac.intellij.settings.IndexExclusion;
+import dev.bmac.intellij.settings.IndexFamily;
+import dev.bmac.intellij.settings.PluginSettings;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Compiled, immutable view of the settings the filter decides with. Settings changes build a new snapshot which is
+ * swapped in as a whole, so a decision never sees half old and half new rules.
+ **/
+final class FilterSnapshot {
+    //Indexes disabled for every file, by the TODO switch or an enabled index family, as a single rule.
+    final IndexDecisionTable wholeIndexes;
+    final boolean hasWholeIndexes;
+    //Deep copy, the settings editor keeps editing the exclusions it handed to the settings.
+    final List<IndexExclusion> rules;
+    final FileRuleMatcher matcher;
+    final SizeThresholds sizeThresholds;
+    //Null unless generated content is skipped.
+    @Nullable
+    final GeneratedContentDetector generatedContent;
+    final IndexDecisionTable generatedContentIndexes;
+    //Copy of the indexes generated content is excluded from, null unless generated content is skipped.
+    @Nullable
+    final IndexExclusion.IndexNameExclusion generatedContentSelection;
+    final IndexDecisionTable decisionTable;
+    //Indexes some rule or the whole index rule can exclude, as a single rule. The filter stays out of all others.
+    final IndexDecisionTable affectedIndexes;
+    final DirectoryVerdicts directoryVerdicts;
+    final boolean enabled;
+    final VerdictCache verdictCache;
+    @Nullable
+    final VerdictStore verdictStore;
+    final FilterMetrics metrics;
+    final int timingSampleRate;
+    final int eventSampleRate;
+
+    /**
+     * @param storeDirectory directory to persist verdicts in, or null to only cache them in memory
+     */
+    FilterSnapshot(PluginSettings settings, @Nullable Path storeDirectory) {
+        List<Pattern> families = settings.getIndexFamilies().stream().filter(IndexFamily::isEnabled)
+                .map(IndexFamily::toNamePattern).collect(Collectors.toList());
+        boolean todoDisabled = settings.isTODOIndexDisabled();
+        this.hasWholeIndexes = todoDisabled || !families.isEmpty();
+        Predicate<String> wholeIndex = name -> todoDisabled && name.equals(TodoIndex.NAME.getName()) ||
+                families.stream().anyMatch(family -> family.matcher(name).matches());
+        this.wholeIndexes = new IndexDecisionTable(Collections.singletonList(wholeIndex));
+        this.rules = settings.getIndexPathExclude().stream().map(IndexExclusion::copy).collect(Collectors.toList());
+        List<String> patterns = rules.stream().map(IndexExclusion::getPath).collect(Collectors.toList());
+        this.matcher = new FileRuleMatcher(settings.getMatcherEngine(), rules);
+        this.sizeThresholds = new SizeThresholds(settings.getMatcherEngine(), rules);
+        this.generatedContent = settings.isSkipGeneratedContent() ?
+                new GeneratedContentDetector(settings.getVerdictCacheSize()) : null;
+        Predicate<String> generatedIndexes = settings.isSkipGeneratedContent() ?
+                IndexDecisionTable.toPredicate(settings.getGeneratedContentExclusion()) : name -> false;
+        this.generatedContentIndexes = new IndexDecisionTable(Collections.singletonList(generatedIndexes));
+        this.generatedContentSelection = settings.isSkipGeneratedContent() ?
+                copy(settings.getGeneratedContentExclusion()) : null;
+        List<Predicate<String>> rulePredicates = rules.stream().map(IndexExclusion::getIndexerNameExclusion)
+                .map(IndexDecisionTable::toPredicate).collect(Collectors.toList());
+        this.decisionTable = new IndexDecisionTable(rulePredicates);
+        this.affectedIndexes = new IndexDecisionTable(Collections.<Predicate<String>>singletonList(name ->
+                wholeIndex.test(name) || generatedIndexes.test(name) ||
+                        rulePredicates.stream().anyMatch(rule -> rule.test(name))));
+        this.directoryVerdicts = new DirectoryVerdicts(rules);
+        this.enabled = hasWholeIndexes || !rules.isEmpty() || generatedContent != null;
+        this.verdictCache = new VerdictCache(settings.getVerdictCacheSize());
+        //Ignore files and file type registrations (plugins, associations) may change while the IDE is closed, the
+        //verdicts of rules reading them are not persisted.
+        this.verdictStore = storeDirectory == null || rules.isEmpty() || matcher.hasIgnoreFileRules() ||
+                matcher.hasFileTypeRules() ? null : VerdictStore.open(storeDirectory, settings.getMatcherEngine(), rules);
+        this.timingSampleRate = settings.getTimingSampleRate();
+        this.eventSampleRate = settings.getDecisionEventSampleRate();
+        this.metrics = new FilterMetrics(patterns);
+    }
+
+    private static IndexExclusion.IndexNameExclusion copy(IndexExclusion.IndexNameExclusion indexes) {
+        IndexExclusion.IndexNameExclusion copy = new IndexExclusion.IndexNameExclusion();
+        copy.setIndexerNames(new ArrayList<>(indexes.getIndexerNames()));
+        copy.setExcludeIfNotIn(indexes.isExcludeIfNotIn());
+        return copy;
+    }
+
+    /**
+     * @return true if the index is excluded for every file, regardless of the path rules. Names are only matched the
+     * first time an index is seen, from then on this is a bit test.
+     */
+    boolean excludesWholeIndex(IndexId<?, ?> indexId) {
+        return hasWholeIndexes && wholeIndexes.isExcluded(0, indexId);
+    }
+
+    /**
+     * @return false if no file can be excluded from the index, neither as a whole nor by a rule. An excludeIfNotIn
+     * rule affects every index but the listed ones.
+     */
+    boolean affectsIndex(IndexId<?, ?> indexId) {
+        return enabled && affectedIndexes.isExcluded(0, indexId);
+    }
+
+    /**
+     * @param rule the file's first matching rule, or -1
+     */
+    boolean isExcluded(int rule, IndexId<?, ?> indexId) {
+        return excludesWholeIndex(indexId) || rule >= 0 && decisionTable.isExcluded(rule, indexId);
+    }
+
+    /**
+     * @param rule the file's first matching rule, or -1
+     * @return true if the file is excluded from the index, by the rule or by a size exclusion.
+     */
+    boolean isExcluded(VirtualFile file, int rule, IndexId<?, ?> indexId) {
+        return isExcluded(rule, indexId) || sizeThresholds.firstExcluding(file, indexId) >= 0 ||
+                isGeneratedContentExcluded(file, indexId);
+    }
+
+    /**
+     * @return true if the file looks generated and generated content is excluded from the index. The content is only
+     * sampled for indexes generated content is excluded from.
+     */
+    boolean isGeneratedContentExcluded(VirtualFile file, IndexId<?, ?> indexId) {
+        return generatedContent != null && generatedContentIndexes.isExcluded(0, indexId) &&
+                generatedContent.isGenerated(file);
+    }
+
+    /**
+     * @return true if decisions depend on more than the file's first matching rule: its size or its content.
+     */
+    boolean hasContentRules() {
+        return !sizeThresholds.isEmpty() || generatedContent != null;
+    }
+
+    /**
+     * @return the file's first matching rule, or -1. Bypasses the verdict cache and the metrics.
+     */
+    int findRule(VirtualFile file) {
+        if (rules.isEmpty()) return -1;
+        int rule = directoryVerdicts.getVerdict(file);
+        return rule >= 0 ? rule : matchRule(file);
+    }
+
+    /**
+     * @return the file's first matching rule, running the matchers.
+     */
+    int matchRule(VirtualFile file) {
+        return matcher.firstMatch(file, null);
+    }
+
+    /**
+     * Drops the in memory caches, the persisted verdicts stay valid.
+     */
+    void invalidateCaches() {
+        verdictCache.invalidateAll();
+        if (generatedContent != null) {
+            generatedContent.invalidateAll();
+        }
+        directoryVerdicts.invalidateAll();
+    }
+
+    /**
+     * Drops every verdict, once paths changed in ways the per file stamps do not catch.
+     */
+    void invalidateVerdicts() {
+        invalidateCaches();
+        matcher.invalidateAll();
+        if (verdictStore != null) {
+            verdictStore.invalidateAll();
+        }
+    }
+}
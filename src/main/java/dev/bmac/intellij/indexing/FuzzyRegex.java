@@ -0,0 +1,134 @@
+package dev.bmac.intellij.indexing;
+
+import jregex.Matcher;
+import jregex.Pattern;
+import jregex.REFlags;
+
+/**
+ * Class to help speed up basic regular expressions.
+ * Basic .*\/some/path/.* will exclude regular expressions all together.
+ * Others will use fuzzyMatching to try to check for contains to a path and returns false early if there is no contains
+ */
+class FuzzyRegex {
+    private final String fuzzyMatch;
+    private final Pattern pattern;
+    private final boolean requiresPatternMatch;
+    //Matchers are reused per thread so matching does not allocate.
+    private final ThreadLocal<Matcher> matchers;
+
+    public FuzzyRegex(String pattern) {
+        this.pattern = new Pattern(pattern, REFlags.IGNORE_CASE);
+        this.matchers = ThreadLocal.withInitial(this.pattern::matcher);
+        Literal literal = Literal.of(pattern);
+        this.fuzzyMatch = literal.fuzzyMatch;
+        this.requiresPatternMatch = literal.requiresPatternMatch;
+    }
+
+    public boolean matches(CharSequence input) {
+        if (!requiresPatternMatch) {
+            return contains(input, fuzzyMatch);
+        } else if (this.fuzzyMatch != null && !contains(input, fuzzyMatch)) {
+            return false;
+        }
+        return matchesPattern(input);
+    }
+
+    /**
+     * @return the literal every matching path must contain, or null if none could be extracted.
+     */
+    String getFuzzyMatch() {
+        return fuzzyMatch;
+    }
+
+    /**
+     * @return false if containing {@link #getFuzzyMatch()} is enough for the path to match.
+     */
+    boolean requiresPatternMatch() {
+        return requiresPatternMatch;
+    }
+
+    /**
+     * Runs the full regular expression, skipping the fuzzy check. Used once a caller already knows the fuzzy
+     * literal is present in the input.
+     */
+    boolean matchesPattern(CharSequence input) {
+        Matcher matcher = matchers.get();
+        if (input instanceof PathBuffer) {
+            matcher.setTarget(((PathBuffer) input).array(), 0, input.length());
+        } else {
+            matcher.setTarget(input.toString());
+        }
+        return matcher.matches();
+    }
+
+    /**
+     * @return true if the input contains the literal, ignoring case like the pattern.
+     */
+    private static boolean contains(CharSequence input, String literal) {
+        int last = input.length() - literal.length();
+        char first = Character.toLowerCase(literal.charAt(0));
+        for (int i = 0; i <= last; i++) {
+            if (Character.toLowerCase(input.charAt(i)) != first) continue;
+            int j = 1;
+            while (j < literal.length() &&
+                    Character.toLowerCase(input.charAt(i + j)) == Character.toLowerCase(literal.charAt(j))) {
+                j++;
+            }
+            if (j == literal.length()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the literal of a .*\/some/path/.* pattern, which every path containing it matches. Null for any other
+     * pattern, including ones whose literal still holds regex syntax. Does not compile the regular expression.
+     */
+    static String directoryLiteral(String pattern) {
+        Literal literal = Literal.of(pattern);
+        if (literal.requiresPatternMatch || literal.fuzzyMatch.matches(".*[+?\\[\\]{}|^$].*")) return null;
+        return literal.fuzzyMatch;
+    }
+
+    private static final class Literal {
+        private final String fuzzyMatch;
+        private final boolean requiresPatternMatch;
+
+        private Literal(String fuzzyMatch, boolean requiresPatternMatch) {
+            this.fuzzyMatch = fuzzyMatch;
+            this.requiresPatternMatch = requiresPatternMatch;
+        }
+
+        private static Literal of(String pattern) {
+            String[] parts = pattern.split("/");
+            String fuzzy = "";
+            boolean previousPartSet = false;
+            boolean matcherInMiddle = false;
+            //Try to make the longest continuous string for fuzzy match. Does not account for a few things,
+            //probably a better way out there, but this should help.
+            for (int i = 0; i < parts.length; i++) {
+                String part = parts[i];
+                if (!(part.contains(".") || part.contains("*") || part.contains("(") || part.contains("\\"))) {
+                    if (previousPartSet) {
+                        fuzzy += part + ((i != parts.length - 1) ? "/" : "");
+                    } else {
+                        if (part.length() > fuzzy.length()) {
+                            fuzzy = (i != 0 ? "/" : "") + part + ((i != parts.length - 1) ? "/" : "");
+                            previousPartSet = true;
+                        }
+                    }
+                } else {
+                    previousPartSet = false;
+                    if (i != 0 && i != parts.length - 1) {
+                        matcherInMiddle = true;
+                    }
+
+                }
+            }
+            boolean requiresPatternMatch = !(parts.length >= 3 && !matcherInMiddle &&
+                    parts[0].equals(".*") && parts[parts.length - 1].equals(".*"));
+            String fuzzyMatch = fuzzy.isEmpty() ? null : fuzzy;
+            assert requiresPatternMatch || fuzzyMatch != null : "Fuzzymatch should not be null if we do not require pattern match";
+            return new Literal(fuzzyMatch, requiresPatternMatch);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileWithId;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tells generated and minified files apart by sampling the start of their content, for files no path rule describes.
+ * <p>
+ * Only the first {@link #SAMPLE_BYTES} of a file are read, into a buffer reused per thread, and scanned once for
+ * generated markers, source map comments and overly long lines. The verdict is cached per file id together with the
+ * file's modification stamp, so a file is sampled again only after it changed.
+ **/
+class GeneratedContentDetector {
+    private static final Logger LOGGER = Logger.getInstance(GeneratedContentDetector.class);
+    static final int SAMPLE_BYTES = 4096;
+    //Longer lines are only written by minifiers and code generators.
+    static final int MAX_LINE_LENGTH = 1000;
+    private static final byte[][] MARKERS = {
+            bytes("@generated"),
+            bytes("DO NOT EDIT"),
+            bytes("sourceMappingURL="),
+    };
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[SAMPLE_BYTES]);
+
+    //Packed modification stamp and verdict per file id, see pack().
+    private final VerdictCache verdicts;
+
+    GeneratedContentDetector(int maxEntries) {
+        this.verdicts = new VerdictCache(maxEntries);
+    }
+
+    private static byte[] bytes(String marker) {
+        return marker.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return true if the file looks generated or minified. Binary files and files that cannot be read are not.
+     */
+    boolean isGenerated(VirtualFile file) {
+        if (file.isDirectory() || file.getFileType().isBinary()) return false;
+        int fileId = file instanceof VirtualFileWithId ? ((VirtualFileWithId) file).getId() : 0;
+        long stamp = file.getModificationStamp();
+        if (fileId > 0) {
+            int cached = verdicts.get(fileId);
+            if (cached != VerdictCache.MISS && cached >>> 1 == pack(stamp, false) >>> 1) return (cached & 1) != 0;
+        }
+        boolean generated = sample(file);
+        if (fileId > 0) {
+            verdicts.put(fileId, pack(stamp, generated));
+        }
+        return generated;
+    }
+
+    /**
+     * @return the low 30 bits of the stamp and the verdict in the lowest bit, never {@link VerdictCache#MISS}.
+     */
+    private static int pack(long stamp, boolean generated) {
+        return ((int) stamp & 0x3FFFFFFF) << 1 | (generated ? 1 : 0);
+    }
+
+    private static boolean sample(VirtualFile file) {
+        byte[] buffer = BUFFER.get();
+        int length = 0;
+        try (InputStream stream = file.getInputStream()) {
+            int read;
+            while (length < buffer.length && (read = stream.read(buffer, length, buffer.length - length)) > 0) {
+                length += read;
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Could not sample " + file, e);
+            return false;
+        }
+        return isGenerated(buffer, length);
+    }
+
+    /**
+     * Scans a content prefix once, for markers and for line lengths.
+     */
+    static boolean isGenerated(byte[] content, int length) {
+        int lineStart = 0;
+        for (int i = 0; i < length; i++) {
+            byte b = content[i];
+            if (b == '\n') {
+                lineStart = i + 1;
+                continue;
+            }
+            if (i - lineStart >= MAX_LINE_LENGTH) return true;
+            for (byte[] marker : MARKERS) {
+                if (b == marker[0] && startsWith(content, length, i, marker)) return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWith(byte[] content, int length, int offset, byte[] marker) {
+        if (offset + marker.length > length) return false;
+        for (int i = 1; i < marker.length; i++) {
+            if (content[offset + i] != marker[i]) return false;
+        }
+        return true;
+    }
+
+    void invalidateAll() {
+        verdicts.invalidateAll();
+    }
+}
@@ -0,0 +1,29 @@
+package dev.bmac.intellij.indexing;
+
+/**
+ * Combines the glob rules, all in one {@link GlobTrie}, with a matcher of the regex rules. The regex matcher only knows
+ * the regex rules, so its matches are mapped back to their position in the settings list.
+ **/
+class GlobAndRegexMatcher implements PathMatcher {
+    private final GlobTrie globs;
+    private final PathMatcher regexes;
+    //Settings position of each rule of the regex matcher.
+    private final int[] regexRules;
+
+    GlobAndRegexMatcher(GlobTrie globs, PathMatcher regexes, int[] regexRules) {
+        this.globs = globs;
+        this.regexes = regexes;
+        this.regexRules = regexRules;
+    }
+
+    @Override
+    public int firstMatch(CharSequence path) {
+        int glob = globs.firstMatch(path);
+        //Every regex rule before the glob would have to match first, which the glob walk did not pay for.
+        if (regexRules.length == 0 || glob >= 0 && glob < regexRules[0]) return glob;
+        int regex = regexes.firstMatch(path);
+        if (regex < 0) return glob;
+        regex = regexRules[regex];
+        return glob < 0 ? regex : Math.min(glob, regex);
+    }
+}
@@ -0,0 +1,289 @@
+package dev.bmac.intellij.indexing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * All glob rules compiled into one trie over path segments. The path is split on '/' and walked once, tracking the
+ * trie nodes the segments so far can lead to, so every glob is checked in the same pass and no regex is involved.
+ * <p>
+ * Within a segment {@code *} matches any run of characters and {@code ?} a single one, everything else is literal.
+ * A {@code **} segment matches any number of segments, except at the end of a glob where it needs at least one:
+ * {@code **}{@code /build/**} matches the files under build, but not build itself. Globs not starting with '/' match
+ * at any depth. Matching is case sensitive, like .gitignore files.
+ **/
+class GlobTrie implements PathMatcher {
+    private static final String ANY_DEPTH = "**";
+    private static final int NO_RULE = Integer.MAX_VALUE;
+
+    //Lowest rule ending at a node, or NO_RULE.
+    private final int[] accept;
+    //Node entered through a ** segment, which is active as soon as this node is, or -1.
+    private final int[] anyDepth;
+    private final boolean[] isAnyDepth;
+    //Per node literal children sorted by hash, searched with a binary search.
+    private final int[][] literalHashes;
+    private final String[][] literals;
+    private final int[][] literalNodes;
+    private final String[][] wildcards;
+    private final int[][] wildcardNodes;
+    private final boolean empty;
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * @param globs globs to match, the rule reported for a glob is its index. Null entries are skipped.
+     */
+    GlobTrie(List<String> globs) {
+        List<Node> nodes = new ArrayList<>();
+        Node root = new Node(nodes);
+        boolean empty = true;
+        for (int rule = 0; rule < globs.size(); rule++) {
+            if (globs.get(rule) == null) continue;
+            empty = false;
+            Node node = root;
+            for (String segment : segments(globs.get(rule))) {
+                node = node.child(segment, nodes);
+            }
+            node.accept = Math.min(node.accept, rule);
+        }
+        this.empty = empty;
+
+        int size = nodes.size();
+        accept = new int[size];
+        anyDepth = new int[size];
+        isAnyDepth = new boolean[size];
+        literalHashes = new int[size][];
+        literals = new String[size][];
+        literalNodes = new int[size][];
+        wildcards = new String[size][];
+        wildcardNodes = new int[size][];
+        for (Node node : nodes) {
+            int id = node.id;
+            accept[id] = node.accept;
+            anyDepth[id] = node.anyDepth == null ? -1 : node.anyDepth.id;
+            isAnyDepth[id] = node.isAnyDepth;
+            List<Map.Entry<String, Node>> sorted = new ArrayList<>(node.literals.entrySet());
+            sorted.sort(Comparator.comparingInt(entry -> entry.getKey().hashCode()));
+            literalHashes[id] = sorted.stream().mapToInt(entry -> entry.getKey().hashCode()).toArray();
+            literals[id] = sorted.stream().map(Map.Entry::getKey).toArray(String[]::new);
+            literalNodes[id] = sorted.stream().mapToInt(entry -> entry.getValue().id).toArray();
+            wildcards[id] = node.wildcards.keySet().toArray(new String[0]);
+            wildcardNodes[id] = node.wildcards.values().stream().mapToInt(child -> child.id).toArray();
+        }
+        scratch = ThreadLocal.withInitial(() -> new Scratch(size));
+    }
+
+    /**
+     * Splits a glob into the segments walked by the trie: unanchored globs get a leading ** and a trailing ** is
+     * turned into * followed by **, so it needs at least one segment.
+     */
+    static List<String> segments(String glob) {
+        List<String> segments = new ArrayList<>();
+        if (!glob.startsWith("/") && !(glob.equals(ANY_DEPTH) || glob.startsWith(ANY_DEPTH + "/"))) {
+            segments.add(ANY_DEPTH);
+        }
+        for (String segment : glob.split("/", -1)) {
+            //Consecutive ** match nothing more than one does.
+            if (segment.equals(ANY_DEPTH) && !segments.isEmpty() && segments.get(segments.size() - 1).equals(ANY_DEPTH)) continue;
+            segments.add(segment);
+        }
+        if (segments.get(segments.size() - 1).equals(ANY_DEPTH)) {
+            segments.add(segments.size() - 1, "*");
+        }
+        return segments;
+    }
+
+    /**
+     * @return the literal of a **{@code /some/path/**} glob, which every path containing it matches. Null for any
+     * other glob.
+     */
+    static String directoryLiteral(String glob) {
+        if (glob.startsWith("/")) return null;
+        List<String> segments = segments(glob);
+        int last = segments.size() - 1;
+        //Only ** literal... * ** qualifies, the literal has to be free to appear anywhere in the path.
+        if (last < 3 || !segments.get(0).equals(ANY_DEPTH) || !segments.get(last).equals(ANY_DEPTH) ||
+                !segments.get(last - 1).equals("*")) return null;
+        StringBuilder literal = new StringBuilder("/");
+        for (int i = 1; i < last - 1; i++) {
+            String segment = segments.get(i);
+            if (isWildcard(segment) || segment.isEmpty()) return null;
+            literal.append(segment).append('/');
+        }
+        return literal.toString();
+    }
+
+    private static boolean isWildcard(String segment) {
+        return segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0;
+    }
+
+    @Override
+    public int firstMatch(CharSequence path) {
+        if (empty) return -1;
+        Scratch scratch = this.scratch.get();
+        scratch.next();
+        scratch.add(0, this);
+        int start = 0;
+        int length = path.length();
+        while (true) {
+            int end = start;
+            while (end < length && path.charAt(end) != '/') {
+                end++;
+            }
+            step(scratch, path, start, end);
+            if (scratch.size == 0) return -1;
+            if (end == length) break;
+            start = end + 1;
+        }
+        int best = NO_RULE;
+        for (int i = 0; i < scratch.size; i++) {
+            best = Math.min(best, accept[scratch.current[i]]);
+        }
+        return best == NO_RULE ? -1 : best;
+    }
+
+    private void step(Scratch scratch, CharSequence path, int start, int end) {
+        int[] active = scratch.current;
+        int count = scratch.size;
+        scratch.swap();
+        scratch.next();
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + path.charAt(i);
+        }
+        for (int i = 0; i < count; i++) {
+            int node = active[i];
+            if (isAnyDepth[node]) {
+                scratch.add(node, this);
+            }
+            int literal = findLiteral(node, hash, path, start, end);
+            if (literal >= 0) {
+                scratch.add(literal, this);
+            }
+            String[] nodeWildcards = wildcards[node];
+            for (int w = 0; w < nodeWildcards.length; w++) {
+                if (matchesSegment(nodeWildcards[w], path, start, end)) {
+                    scratch.add(wildcardNodes[node][w], this);
+                }
+            }
+        }
+    }
+
+    private int findLiteral(int node, int hash, CharSequence path, int start, int end) {
+        int[] hashes = literalHashes[node];
+        int i = Arrays.binarySearch(hashes, hash);
+        if (i < 0) return -1;
+        while (i > 0 && hashes[i - 1] == hash) {
+            i--;
+        }
+        for (; i < hashes.length && hashes[i] == hash; i++) {
+            if (regionEquals(literals[node][i], path, start, end)) return literalNodes[node][i];
+        }
+        return -1;
+    }
+
+    private static boolean regionEquals(String literal, CharSequence path, int start, int end) {
+        if (literal.length() != end - start) return false;
+        for (int i = 0; i < literal.length(); i++) {
+            if (literal.charAt(i) != path.charAt(start + i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Matches one segment against * and ? wildcards, backtracking only to the last *.
+     */
+    static boolean matchesSegment(String glob, CharSequence path, int start, int end) {
+        int g = 0;
+        int p = start;
+        int star = -1;
+        int starMatch = 0;
+        while (p < end) {
+            if (g < glob.length() && (glob.charAt(g) == '?' || glob.charAt(g) == path.charAt(p))) {
+                g++;
+                p++;
+            } else if (g < glob.length() && glob.charAt(g) == '*') {
+                star = g++;
+                starMatch = p;
+            } else if (star >= 0) {
+                g = star + 1;
+                p = ++starMatch;
+            } else {
+                return false;
+            }
+        }
+        while (g < glob.length() && glob.charAt(g) == '*') {
+            g++;
+        }
+        return g == glob.length();
+    }
+
+    private static final class Node {
+        private final int id;
+        private final Map<String, Node> literals = new LinkedHashMap<>();
+        private final Map<String, Node> wildcards = new LinkedHashMap<>();
+        private Node anyDepth;
+        private boolean isAnyDepth;
+        private int accept = NO_RULE;
+
+        private Node(List<Node> nodes) {
+            this.id = nodes.size();
+            nodes.add(this);
+        }
+
+        private Node child(String segment, List<Node> nodes) {
+            if (segment.equals(ANY_DEPTH)) {
+                if (anyDepth == null) {
+                    anyDepth = new Node(nodes);
+                    anyDepth.isAnyDepth = true;
+                }
+                return anyDepth;
+            }
+            return (isWildcard(segment) ? wildcards : literals).computeIfAbsent(segment, s -> new Node(nodes));
+        }
+    }
+
+    /**
+     * Per thread sets of active nodes, deduplicated with a stamp per node so nothing is cleared between steps.
+     */
+    private static final class Scratch {
+        private int[] current;
+        private int[] previous;
+        private int size;
+        private final int[] stamps;
+        private int stamp;
+
+        private Scratch(int nodes) {
+            current = new int[nodes];
+            previous = new int[nodes];
+            stamps = new int[nodes];
+        }
+
+        private void next() {
+            size = 0;
+            if (++stamp == 0) {
+                Arrays.fill(stamps, 0);
+                stamp = 1;
+            }
+        }
+
+        private void swap() {
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        private void add(int node, GlobTrie trie) {
+            while (node >= 0 && stamps[node] != stamp) {
+                stamps[node] = stamp;
+                current[size++] = node;
+                //A ** segment may match nothing, so its node is active together with its parent.
+                node = trie.anyDepth[node];
+            }
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Matches files against the ignore files of one name (.gitignore, .indexignore) found in the file tree, with the
+ * semantics of .gitignore: patterns are relative to the directory of their ignore file, deeper ignore files and later
+ * patterns win, ! re-includes, a trailing / only matches directories and nothing under an ignored directory can be
+ * re-included. Character classes are not supported, [ and ] are literal.
+ * <p>
+ * Each directory holding an ignore file gets a node, two {@link GlobTrie}s over its patterns in reverse order so the
+ * first match is the last matching line. Nodes are compiled the first time a directory is looked at, and a changed
+ * ignore file only recompiles the node of its directory. Whether a directory is ignored, and the nodes applying to
+ * it, are memoized per directory and derived from its parent's memo, so a file is decided with a lookup in the nodes
+ * of its own directory chain. The nodes are kept in one map for the life of the matcher, a change only replaces the
+ * state the memos are checked against.
+ **/
+class IgnoreFileMatcher {
+    private static final Logger LOGGER = Logger.getInstance(IgnoreFileMatcher.class);
+    private static final Map<String, Key<Memo>> MEMOS = new ConcurrentHashMap<>();
+    private static final Node NONE = new Node(Collections.emptyList());
+
+    private final String fileName;
+    private final Key<Memo> memoKey;
+    //False for dry runs, which must not replace the memos of the matcher deciding for the filter.
+    private final boolean memoize;
+    private volatile State state = new State(new ConcurrentHashMap<>());
+
+    IgnoreFileMatcher(String fileName) {
+        this(fileName, true);
+    }
+
+    /**
+     * @param memoize false to decide without reading or writing the memos on the directories, they are shared by every
+     * matcher of the same file name
+     */
+    IgnoreFileMatcher(String fileName, boolean memoize) {
+        this.fileName = fileName;
+        this.memoize = memoize;
+        this.memoKey = MEMOS.computeIfAbsent(fileName, name -> Key.create("dev.bmac.indexExclusion.ignore." + name));
+    }
+
+    String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @return true if the ignore files ignore the file.
+     */
+    boolean isIgnored(VirtualFile file) {
+        VirtualFile parent = file.getParent();
+        if (parent == null) return false;
+        State state = this.state;
+        Memo memo = memoize ? memo(parent, state) : compute(parent, state, false);
+        return memo.ignored || matches(memo.nodes, file, false);
+    }
+
+    private Memo memo(VirtualFile directory, State state) {
+        Memo memo = directory.getUserData(memoKey);
+        if (memo != null && memo.state == state) return memo;
+        memo = compute(directory, state, true);
+        directory.putUserData(memoKey, memo);
+        return memo;
+    }
+
+    /**
+     * @param memoize false to leave the memos alone, when deciding with a state other than the current one
+     */
+    private Memo compute(VirtualFile directory, State state, boolean memoize) {
+        VirtualFile parent = directory.getParent();
+        Memo inherited = parent == null ? state.root : memoize ? memo(parent, state) : compute(parent, state, false);
+        boolean ignored = inherited.ignored || matches(inherited.nodes, directory, true);
+        Node node = state.node(directory, this);
+        List<Scoped> nodes = inherited.nodes;
+        if (node != NONE) {
+            nodes = new ArrayList<>(inherited.nodes.size() + 1);
+            nodes.add(new Scoped(directory, node));
+            nodes.addAll(inherited.nodes);
+        }
+        return new Memo(state, ignored, nodes);
+    }
+
+    /**
+     * @param nodes the nodes applying to the file, deepest first
+     */
+    private static boolean matches(List<Scoped> nodes, VirtualFile file, boolean directory) {
+        for (Scoped scoped : nodes) {
+            int verdict = scoped.node.match(PathBuffer.relative(file, scoped.directory), directory);
+            if (verdict != Node.UNDECIDED) return verdict == Node.IGNORED;
+        }
+        return false;
+    }
+
+    private Node compile(VirtualFile directory) {
+        VirtualFile ignoreFile = directory.findChild(fileName);
+        if (ignoreFile == null || ignoreFile.isDirectory()) return NONE;
+        try {
+            return new Node(StringUtil.split(VfsUtilCore.loadText(ignoreFile), "\n"));
+        } catch (IOException e) {
+            LOGGER.debug("Could not read " + ignoreFile, e);
+            return NONE;
+        }
+    }
+
+    /**
+     * Recompiles the node of a directory whose ignore file was created, changed or deleted. Every other node is kept.
+     * @return whether a file under the directory is ignored differently than before the change.
+     */
+    Predicate<VirtualFile> changed(VirtualFile directory) {
+        Map<VirtualFile, Node> nodes = state.nodes;
+        Node compiled = compile(directory);
+        Node previous = nodes.put(directory, compiled);
+        //A directory never compiled had no file under it decided, nothing can flip.
+        State before = new State(nodes, directory, previous == null ? compiled : previous);
+        State after = new State(nodes);
+        this.state = after;
+        return file -> isIgnored(file, before) != isIgnored(file, after);
+    }
+
+    /**
+     * Drops the memos, needed once directories were renamed or moved. Nodes stay compiled.
+     */
+    void invalidateAll() {
+        state = new State(state.nodes);
+    }
+
+    private boolean isIgnored(VirtualFile file, State state) {
+        VirtualFile parent = file.getParent();
+        if (parent == null) return false;
+        Memo memo = compute(parent, state, false);
+        return memo.ignored || matches(memo.nodes, file, false);
+    }
+
+    /**
+     * Compiled patterns of one ignore file.
+     */
+    private static final class Node {
+        private static final int UNDECIDED = 0;
+        private static final int IGNORED = 1;
+        private static final int INCLUDED = 2;
+
+        private final GlobTrie files;
+        private final GlobTrie directories;
+        //Per pattern, in reverse order: true for ! patterns.
+        private final boolean[] negated;
+
+        private Node(List<String> lines) {
+            List<String> files = new ArrayList<>();
+            List<String> directories = new ArrayList<>();
+            List<Boolean> negated = new ArrayList<>();
+            for (int i = lines.size() - 1; i >= 0; i--) {
+                String pattern = StringUtil.trimTrailing(lines.get(i));
+                if (pattern.isEmpty() || pattern.startsWith("#")) continue;
+                boolean negate = pattern.startsWith("!");
+                if (negate || pattern.startsWith("\\#") || pattern.startsWith("\\!")) {
+                    pattern = pattern.substring(1);
+                }
+                boolean directoryOnly = pattern.endsWith("/");
+                pattern = StringUtil.trimEnd(pattern, "/");
+                if (pattern.isEmpty()) continue;
+                //A slash other than at the end anchors the pattern to the directory of the ignore file.
+                if (pattern.indexOf('/') > 0) {
+                    pattern = "/" + pattern;
+                }
+                files.add(directoryOnly ? null : pattern);
+                directories.add(pattern);
+                negated.add(negate);
+            }
+            this.files = new GlobTrie(files);
+            this.directories = new GlobTrie(directories);
+            this.negated = new boolean[negated.size()];
+            for (int i = 0; i < this.negated.length; i++) {
+                this.negated[i] = negated.get(i);
+            }
+        }
+
+        /**
+         * @param path path relative to the directory of the ignore file, starting with '/'
+         */
+        private int match(CharSequence path, boolean directory) {
+            int pattern = (directory ? directories : files).firstMatch(path);
+            if (pattern < 0) return UNDECIDED;
+            return negated[pattern] ? INCLUDED : IGNORED;
+        }
+    }
+
+    /**
+     * A node with the directory its patterns are relative to.
+     */
+    private static final class Scoped {
+        private final VirtualFile directory;
+        private final Node node;
+
+        private Scoped(VirtualFile directory, Node node) {
+            this.directory = directory;
+            this.node = node;
+        }
+    }
+
+    /**
+     * The compiled nodes, shared by every state of a matcher. Replaced when an ignore file changes, which outdates every
+     * memo, so the memos do not have to be cleared directory by directory.
+     */
+    private static final class State {
+        private final Map<VirtualFile, Node> nodes;
+        //The directory whose ignore file changed and its node from before, for deciding as before a change.
+        @Nullable
+        private final VirtualFile changedDirectory;
+        private final Node changedNode;
+        private final Memo root = new Memo(this, false, Collections.emptyList());
+
+        private State(Map<VirtualFile, Node> nodes) {
+            this(nodes, null, NONE);
+        }
+
+        private State(Map<VirtualFile, Node> nodes, @Nullable VirtualFile changedDirectory, Node changedNode) {
+            this.nodes = nodes;
+            this.changedDirectory = changedDirectory;
+            this.changedNode = changedNode;
+        }
+
+        private Node node(VirtualFile directory, IgnoreFileMatcher matcher) {
+            if (directory.equals(changedDirectory)) return changedNode;
+            Node node = nodes.get(directory);
+            if (node == null) {
+                node = matcher.compile(directory);
+                //A change recompiling the directory meanwhile wins over what this read.
+                Node existing = nodes.putIfAbsent(directory, node);
+                if (existing != null) return existing;
+            }
+            return node;
+        }
+    }
+
+    private static final class Memo {
+        private final State state;
+        private final boolean ignored;
+        //Nodes applying to the files of the directory, deepest first.
+        private final List<Scoped> nodes;
+
+        private Memo(State state, boolean ignored, List<Scoped> nodes) {
+            this.state = state;
+            this.ignored = ignored;
+            this.nodes = nodes;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.OrderEnumerator;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.vfs.VFileProperty;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.indexing.ID;
+import dev.bmac.intellij.settings.IndexExclusion;
+import dev.bmac.intellij.settings.PluginSettings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Dry run of a candidate rule set over the content and library roots of projects, reporting what it would keep out of
+ * the indexes. Uses the same compiled rules as {@link IndexFilter} on a private matcher, so nothing is excluded, cached,
+ * memoized or recorded.
+ * The tree is walked with fork join, one task per directory, and cancels through the progress indicator.
+ **/
+public class ImpactAnalyzer {
+    private final FilterSnapshot snapshot;
+    //Matches without the directory verdicts and ignore file memos the filter's own snapshot decides with.
+    private final FileRuleMatcher matcher;
+    private final List<ID<?, ?>> indexes;
+    //Positions in indexes a file matching each rule is excluded from, the first row for files matching no rule.
+    private final int[][] excludedIndexes;
+    //Positions in indexes each rule's own index selection excludes, without the indexes excluded as a whole.
+    private final int[] ruleIndexes;
+
+    public ImpactAnalyzer(PluginSettings candidate) {
+        this(candidate, ReindexPlanner.registeredIndexes());
+    }
+
+    ImpactAnalyzer(PluginSettings candidate, List<ID<?, ?>> indexes) {
+        this.snapshot = new FilterSnapshot(candidate, null);
+        this.matcher = new FileRuleMatcher(candidate.getMatcherEngine(), snapshot.rules, false);
+        this.indexes = indexes;
+        this.excludedIndexes = new int[snapshot.rules.size() + 1][];
+        this.ruleIndexes = new int[snapshot.rules.size()];
+        for (int rule = -1; rule < snapshot.rules.size(); rule++) {
+            List<Integer> excluded = new ArrayList<>();
+            for (int i = 0; i < indexes.size(); i++) {
+                if (snapshot.isExcluded(rule, indexes.get(i))) {
+                    excluded.add(i);
+                    if (rule >= 0 && !snapshot.excludesWholeIndex(indexes.get(i))) {
+                        ruleIndexes[rule]++;
+                    }
+                }
+            }
+            excludedIndexes[rule + 1] = excluded.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * @return the content and library roots of the projects, without roots nested in other roots.
+     */
+    private static List<VirtualFile> collectRoots(Collection<Project> projects) {
+        Set<VirtualFile> roots = new LinkedHashSet<>();
+        ReadAction.run(() -> {
+            for (Project project : projects) {
+                if (project.isDisposed()) continue;
+                roots.addAll(Arrays.asList(ProjectRootManager.getInstance(project).getContentRoots()));
+                roots.addAll(Arrays.asList(OrderEnumerator.orderEntries(project).librariesOnly().getAllLibrariesAndSdkClassesRoots()));
+                roots.addAll(Arrays.asList(OrderEnumerator.orderEntries(project).librariesOnly().getAllSourceRoots()));
+            }
+        });
+        List<VirtualFile> sorted = new ArrayList<>(roots);
+        sorted.sort(Comparator.comparing(VirtualFile::getPath));
+        List<VirtualFile> result = new ArrayList<>();
+        for (VirtualFile root : sorted) {
+            if (result.isEmpty() || !VfsUtilCore.isAncestor(result.get(result.size() - 1), root, false)) {
+                result.add(root);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Walks the roots of the projects in parallel, skipping directories excluded or ignored by a project.
+     */
+    public Report analyze(Collection<Project> projects, ProgressIndicator indicator) {
+        List<ProjectFileIndex> fileIndexes = new ArrayList<>();
+        for (Project project : projects) {
+            fileIndexes.add(ProjectFileIndex.getInstance(project));
+        }
+        Report report = newReport();
+        List<Walk> walks = new ArrayList<>();
+        for (VirtualFile root : collectRoots(projects)) {
+            walks.add(new Walk(root, 0, report, fileIndexes, indicator));
+        }
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(walks);
+                }
+            });
+        } finally {
+            pool.shutdownNow();
+        }
+        return report;
+    }
+
+    Report newReport() {
+        return new Report(snapshot.rules, indexes);
+    }
+
+    void analyze(VirtualFile file, Report report) {
+        int rule = snapshot.rules.isEmpty() ? -1 : matcher.firstMatch(file, null);
+        int[] excluded = excludedIndexes[rule + 1];
+        report.files.increment();
+        if (!snapshot.sizeThresholds.isEmpty()) {
+            analyzeSize(file, rule, report);
+        }
+        if (rule < 0 && excluded.length == 0) return;
+        long length = file.getLength();
+        if (rule >= 0) {
+            report.rules.get(rule).add(length, ruleIndexes[rule]);
+        }
+        for (int index : excluded) {
+            report.indexes.get(index).add(length, 1);
+        }
+    }
+
+    /**
+     * Counts what size exclusions keep out on top of the file's first matching rule.
+     */
+    private void analyzeSize(VirtualFile file, int rule, Report report) {
+        int[] pairs = null;
+        long length = file.getLength();
+        for (int i = 0; i < indexes.size(); i++) {
+            if (snapshot.isExcluded(rule, indexes.get(i))) continue;
+            int sizeRule = snapshot.sizeThresholds.firstExcluding(file, indexes.get(i));
+            if (sizeRule < 0) continue;
+            if (pairs == null) {
+                pairs = new int[snapshot.rules.size()];
+            }
+            pairs[sizeRule]++;
+            report.indexes.get(i).add(length, 1);
+        }
+        for (int sizeRule = 0; pairs != null && sizeRule < pairs.length; sizeRule++) {
+            if (pairs[sizeRule] > 0) {
+                report.rules.get(sizeRule).add(length, pairs[sizeRule]);
+            }
+        }
+    }
+
+    private final class Walk extends RecursiveAction {
+        private final VirtualFile directory;
+        private final int depth;
+        private final Report report;
+        private final List<ProjectFileIndex> fileIndexes;
+        private final ProgressIndicator indicator;
+
+        private Walk(VirtualFile directory, int depth, Report report, List<ProjectFileIndex> fileIndexes,
+                     ProgressIndicator indicator) {
+            this.directory = directory;
+            this.depth = depth;
+            this.report = report;
+            this.fileIndexes = fileIndexes;
+            this.indicator = indicator;
+        }
+
+        @Override
+        protected void compute() {
+            indicator.checkCanceled();
+            if (depth < 2) {
+                indicator.setText2(directory.getPresentableUrl());
+            }
+            VirtualFile[] children = ReadAction.compute(() -> isExcluded(directory) ? VirtualFile.EMPTY_ARRAY :
+                    directory.getChildren());
+            List<Walk> subdirectories = new ArrayList<>();
+            for (VirtualFile child : children) {
+                if (child.isDirectory()) {
+                    //Symbolic links may lead back up the tree.
+                    if (!child.is(VFileProperty.SYMLINK)) {
+                        subdirectories.add(new Walk(child, depth + 1, report, fileIndexes, indicator));
+                    }
+                } else {
+                    analyze(child, report);
+                }
+            }
+            invokeAll(subdirectories);
+        }
+
+        private boolean isExcluded(VirtualFile directory) {
+            for (ProjectFileIndex fileIndex : fileIndexes) {
+                if (fileIndex.isExcluded(directory)) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * What a rule set would keep out of the indexes, per rule and per index.
+     */
+    public static final class Report {
+        private final LongAdder files = new LongAdder();
+        private final List<Row> rules = new ArrayList<>();
+        private final List<Row> indexes = new ArrayList<>();
+
+        Report(List<IndexExclusion> rules, List<ID<?, ?>> indexes) {
+            for (IndexExclusion rule : rules) {
+                this.rules.add(new Row(rule.getPath()));
+            }
+            for (ID<?, ?> index : indexes) {
+                this.indexes.add(new Row(index.getName()));
+            }
+        }
+
+        /**
+         * @return the number of files walked.
+         */
+        public long getFiles() {
+            return files.sum();
+        }
+
+        /**
+         * @return one row per rule, in settings order.
+         */
+        public List<Row> getRules() {
+            return rules;
+        }
+
+        /**
+         * @return one row per registered index.
+         */
+        public List<Row> getIndexes() {
+            return indexes;
+        }
+    }
+
+    /**
+     * Files a rule or an index would skip, with their size and the number of (file, index) pairs skipped.
+     */
+    public static final class Row {
+        private final String label;
+        private final LongAdder files = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder pairs = new LongAdder();
+
+        private Row(String label) {
+            this.label = label;
+        }
+
+        private void add(long length, int skippedPairs) {
+            files.increment();
+            bytes.add(length);
+            pairs.add(skippedPairs);
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public long getFiles() {
+            return files.sum();
+        }
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        public long getPairs() {
+            return pairs.sum();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.util.indexing.ID;
+import com.intellij.util.indexing.IndexId;
+import dev.bmac.intellij.settings.IndexExclusion;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Dense per rule table of which indexes a rule excludes, indexed by {@link ID#getUniqueId()}.
+ * A row is filled in the first time an index is seen, from then on a decision is a single bit test.
+ * The table is copy on write, there are only as many writes as registered indexes.
+ **/
+class IndexDecisionTable {
+    private final Predicate<String>[] rules;
+    private volatile Table table;
+
+    @SuppressWarnings("unchecked")
+    IndexDecisionTable(List<Predicate<String>> rules) {
+        this.rules = rules.toArray(new Predicate[0]);
+        this.table = new Table(new long[0], new long[this.rules.length][0]);
+    }
+
+    static Predicate<String> toPredicate(IndexExclusion.IndexNameExclusion exclusion) {
+        Set<String> names = new HashSet<>(exclusion.getIndexerNames());
+        boolean excludeIfNotIn = exclusion.isExcludeIfNotIn();
+        return name -> names.contains(name) != excludeIfNotIn;
+    }
+
+    /**
+     * @return true if the rule excludes the given index.
+     */
+    boolean isExcluded(int rule, IndexId<?, ?> indexId) {
+        if (!(indexId instanceof ID)) return rules[rule].test(indexId.getName());
+        int ordinal = ((ID<?, ?>) indexId).getUniqueId();
+        Table table = this.table;
+        if (!table.isResolved(ordinal)) {
+            table = resolve(ordinal, indexId.getName());
+        }
+        return (table.excluded[rule][ordinal >>> 6] & (1L << ordinal)) != 0;
+    }
+
+    private synchronized Table resolve(int ordinal, String name) {
+        Table table = this.table;
+        if (table.isResolved(ordinal)) return table;
+        int words = Math.max(table.resolved.length, (ordinal >>> 6) + 1);
+        long[] resolved = Arrays.copyOf(table.resolved, words);
+        long[][] excluded = new long[rules.length][];
+        resolved[ordinal >>> 6] |= 1L << ordinal;
+        for (int rule = 0; rule < rules.length; rule++) {
+            excluded[rule] = Arrays.copyOf(table.excluded[rule], words);
+            if (rules[rule].test(name)) {
+                excluded[rule][ordinal >>> 6] |= 1L << ordinal;
+            }
+        }
+        return this.table = new Table(resolved, excluded);
+    }
+
+    private static final class Table {
+        private final long[] resolved;
+        private final long[][] excluded;
+
+        private Table(long[] resolved, long[][] excluded) {
+            this.resolved = resolved;
+            this.excluded = excluded;
+        }
+
+        private boolean isResolved(int ordinal) {
+            return (ordinal >>> 6) < resolved.length && (resolved[ordinal >>> 6] & (1L << ordinal)) != 0;
+        }
+    }
+}
@@ -1,21 +1,45 @@
 package dev.bmac.intellij.indexing;
 
-import com.google.common.base.Stopwatch;
-import com.google.common.cache.CacheBuilder;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.fileTypes.FileTypeEvent;
+import com.intellij.openapi.fileTypes.FileTypeListener;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.project.ProjectManagerListener;
+import com.intellij.openapi.roots.ModuleRootEvent;
+import com.intellij.openapi.roots.ModuleRootListener;
+import com.intellij.openapi.roots.ProjectRootManager;
 import com.intellij.openapi.startup.StartupActivity;
+import com.intellij.openapi.util.LowMemoryWatcher;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileWithId;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.intellij.util.PathUtil;
 import com.intellij.util.indexing.GlobalIndexFilter;
 import com.intellij.util.indexing.IndexId;
 import dev.bmac.intellij.settings.IndexExclusion;
 import dev.bmac.intellij.settings.PluginSettings;
-import jregex.Pattern;
-import jregex.REFlags;
+import dev.bmac.intellij.settings.ProjectSettings;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 /**
@@ -24,156 +48,604 @@ import java.util.stream.Collectors;
 public class IndexFilter implements GlobalIndexFilter {
 
     private static final com.intellij.openapi.diagnostic.Logger LOGGER = com.intellij.openapi.diagnostic.Logger.getInstance(IndexFilter.class);
+    private static final int VERSION = 1;
+    //System property naming a file to record the queries to from startup, to capture the initial indexing.
+    private static final String TRACE_PROPERTY = "dev.bmac.indexExclusion.trace";
 
-    private final boolean todoDisabled;
-    private final boolean frontEndIndexDisabled;
-    private final java.util.List<IndexExclusion> indexExclusionList;
-    private final Map<FuzzyRegex, IndexExclusion> pathExclusionPatterns;
-    private final boolean enabled;
-    private final com.google.common.cache.Cache<String, Optional<IndexExclusion>> indexExclusionCache = CacheBuilder.newBuilder().build();
+    private volatile FilterSnapshot snapshot;
+    private volatile PluginSettings settings;
+    private volatile ProjectScopes projectScopes = ProjectScopes.EMPTY;
+    @Nullable
+    private volatile QueryTrace trace;
+    //Held so the watcher is not collected, it is only weakly referenced by LowMemoryWatcher.
+    private final LowMemoryWatcher lowMemoryWatcher;
 
-    private long count = 0;
-    private long duration = 0;
+    @Nullable
+    private final Path storeDirectory;
+    //Null without a store directory, the filter version then stays the same.
+    @Nullable
+    private final IndexedSettings indexedSettings;
 
     public IndexFilter() {
-        this(PluginSettings.getInstance());
+        this(PluginSettings.getInstance(), Paths.get(PathManager.getSystemPath(), "index-exclusion"));
+        String trace = System.getProperty(TRACE_PROPERTY);
+        if (!StringUtil.isEmptyOrSpaces(trace)) {
+            try {
+                startRecording(Paths.get(trace));
+            } catch (IOException e) {
+                LOGGER.warn("Could not record index filter queries to " + trace, e);
+            }
+        }
     }
 
     IndexFilter(PluginSettings settings) {
-        this.todoDisabled = settings.isTODOIndexDisabled();
-        this.frontEndIndexDisabled = settings.isFrontEndIndexDisabled();
-        this.indexExclusionList = settings.getIndexPathExclude();
-        this.pathExclusionPatterns = indexExclusionList.stream().collect(Collectors.toMap(i -> new FuzzyRegex(i.getPath()), i -> i));
-        this.enabled = todoDisabled || frontEndIndexDisabled || !indexExclusionList.isEmpty();
+        this(settings, null);
+    }
+
+    /**
+     * @param storeDirectory directory to persist verdicts in across restarts, or null to only cache them in memory
+     */
+    IndexFilter(PluginSettings settings, @Nullable Path storeDirectory) {
+        this.storeDirectory = storeDirectory;
+        this.settings = settings;
+        this.indexedSettings = storeDirectory == null ? null : IndexedSettings.load(storeDirectory, settings);
+        FilterEvents.RulesCompiled event = FilterEvents.beginCompile();
+        this.snapshot = new FilterSnapshot(settings, storeDirectory);
+        event.finish("Application", snapshot.rules.size(), settings.getMatcherEngine());
+        this.lowMemoryWatcher = LowMemoryWatcher.register(this::invalidateCaches);
+    }
+
+    /**
+     * Swaps in the given settings without a restart, and reindexes what they change. Decisions in flight finish with
+     * the old settings.
+     */
+    public void reload(PluginSettings settings) {
+        long version = IndexedSettings.version(settings);
+        FilterSnapshot before = snapshot;
+        FilterEvents.RulesCompiled event = FilterEvents.beginCompile();
+        FilterSnapshot after = new FilterSnapshot(settings, storeDirectory);
+        event.finish("Application", after.rules.size(), settings.getMatcherEngine());
+        this.settings = settings;
+        snapshot = after;
+        QueryTrace trace = this.trace;
+        if (trace != null) {
+            trace.settingsChanged(settings);
+        }
+        if (before.verdictStore != null) {
+            before.verdictStore.close();
+        }
+        //The project exclusions are compiled with the matcher engine of these settings.
+        projectScopes = compileProjects(ProjectScopes.EMPTY, null);
+        new ReindexPlanner(before, after, ReindexPlanner.registeredIndexes()).schedule(() -> {
+            //A later reload records its own settings once reindexed.
+            if (indexedSettings != null && snapshot == after) {
+                indexedSettings.reindexed(version);
+            }
+        });
+    }
+
+    /**
+     * Recompiles the exclusions of the open projects, after projects were opened or closed or their content roots
+     * changed. Projects whose exclusions did not change keep their cached verdicts.
+     */
+    public void reloadProjects() {
+        projectScopes = compileProjects(projectScopes, null);
+    }
+
+    /**
+     * Swaps in the exclusions of the project as currently set in its {@link ProjectSettings}, and reindexes what they
+     * change.
+     */
+    public void reloadProject(Project project) {
+        ProjectScopes before = projectScopes;
+        ProjectScopes after = compileProjects(before, project);
+        projectScopes = after;
+        ReindexPlanner.scheduleProject(snapshot, before, after, project, ReindexPlanner.registeredIndexes());
+    }
+
+    /**
+     * @param changed project whose exclusions have to be compiled again even if they look unchanged, or null
+     */
+    private ProjectScopes compileProjects(ProjectScopes previous, @Nullable Project changed) {
+        PluginSettings settings = this.settings;
+        FilterEvents.RulesCompiled event = FilterEvents.beginCompile();
+        Map<VirtualFile, ProjectRules> roots = new HashMap<>();
+        ReadAction.run(() -> {
+            for (Project project : ProjectManager.getInstance().getOpenProjects()) {
+                if (project.isDisposed()) continue;
+                List<IndexExclusion> rules = ProjectSettings.getInstance(project).getIndexPathExclude();
+                if (rules.isEmpty()) continue;
+                ProjectRules compiled = previous.getProjects().stream()
+                        .filter(p -> p.project == project && project != changed && p.rules.equals(rules))
+                        .findFirst().orElseGet(() -> new ProjectRules(project, rules, settings));
+                for (VirtualFile root : ProjectRootManager.getInstance(project).getContentRoots()) {
+                    roots.putIfAbsent(root, compiled);
+                }
+            }
+        });
+        ProjectScopes scopes = new ProjectScopes(roots);
+        event.finish("Projects: " + scopes.getProjects().stream().map(rules -> rules.project.getName())
+                .collect(Collectors.joining(", ")), scopes.getProjects().stream().mapToInt(rules -> rules.rules.size())
+                .sum(), settings.getMatcherEngine());
+        return scopes;
+    }
+
+    static PathMatcher createPathMatcher(PluginSettings.MatcherEngine engine, List<IndexExclusion> rules) {
+        List<String> globs = new ArrayList<>();
+        List<String> patterns = new ArrayList<>();
+        List<Integer> regexRules = new ArrayList<>();
+        for (int i = 0; i < rules.size(); i++) {
+            IndexExclusion rule = rules.get(i);
+            //Size exclusions are checked on their own, see SizeThresholds.
+            boolean glob = rule.getSyntax() == IndexExclusion.Syntax.GLOB && !rule.hasSizeThreshold();
+            globs.add(glob ? rule.getPath() : null);
+            if (rule.getSyntax() == IndexExclusion.Syntax.REGEX && !rule.hasSizeThreshold()) {
+                patterns.add(rule.getPath());
+                regexRules.add(i);
+            }
+        }
+        PathMatcher regexMatcher = createRegexMatcher(engine, patterns);
+        if (regexRules.size() == rules.size()) return regexMatcher;
+        return new GlobAndRegexMatcher(new GlobTrie(globs), regexMatcher,
+                regexRules.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    private static PathMatcher createRegexMatcher(PluginSettings.MatcherEngine engine, List<String> patterns) {
+        if (engine == PluginSettings.MatcherEngine.DFA) {
+            DfaPathMatcher matcher = new DfaPathMatcher(patterns);
+            matcher.getFallbackRules().forEach((rule, reason) ->
+                    LOGGER.info("Path exclusion '" + patterns.get(rule) + "' uses jregex instead of the DFA: " + reason));
+            return matcher;
+        }
+        return new LiteralPrefilterMatcher(patterns);
+    }
+
+    /**
+     * @return the filter registered with the platform, or null if it is not loaded.
+     */
+    @Nullable
+    public static IndexFilter getInstance() {
+        return EP_NAME.findExtension(IndexFilter.class);
+    }
+
+    @NotNull
+    public FilterMetrics getMetrics() {
+        return snapshot.metrics;
     }
 
     @Override
-    public boolean isExcludedFromIndex(@NotNull com.intellij.openapi.vfs.VirtualFile virtualFile, @NotNull IndexId<?, ?> indexId) {
-        if (!enabled) return false;
-        if (todoDisabled && indexId.equals(com.intellij.psi.impl.cache.impl.todo.TodoIndex.NAME)) return true;
-        Stopwatch sw = Stopwatch.createStarted();
-        count++;
-        if (frontEndIndexDisabled && isFrontend(indexId)) return true;
-        try {
-            Optional<IndexExclusion> indexExclusion = indexExclusionCache.get(virtualFile.getPath(), () -> {
-                for (Map.Entry<FuzzyRegex, IndexExclusion> entry : pathExclusionPatterns.entrySet()) {
-                    //TODO, multiple indexExclusions may apply... User beware.
-                    if (entry.getKey().matches(virtualFile.getPath())) return Optional.of(entry.getValue());
+    public boolean isExcludedFromIndex(@NotNull VirtualFile virtualFile, @NotNull IndexId<?, ?> indexId) {
+        FilterSnapshot snapshot = this.snapshot;
+        ProjectScopes projectScopes = this.projectScopes;
+        //The platform asks every filter about every index, answering for the unaffected ones is a bit test.
+        boolean affected = snapshot.affectsIndex(indexId);
+        if (!affected && !projectScopes.affectsIndex(indexId)) return false;
+        QueryTrace trace = this.trace;
+        if (trace != null) return recordDecision(trace, snapshot, projectScopes, virtualFile, indexId, affected);
+        FilterEvents.Decision event = FilterEvents.beginDecision(snapshot.eventSampleRate);
+        if (event == null) return decide(snapshot, projectScopes, virtualFile, indexId, affected);
+        int fileId = virtualFile instanceof VirtualFileWithId ? ((VirtualFileWithId) virtualFile).getId() : 0;
+        event.cacheHit = fileId > 0 && snapshot.verdictCache.get(fileId) != VerdictCache.MISS;
+        boolean excluded = decide(snapshot, projectScopes, virtualFile, indexId, affected);
+        event.end();
+        if (event.shouldCommit()) {
+            //Looked up after the latency was taken, from the caches where possible.
+            ProjectScopes.Scope scope = projectScopes.find(virtualFile);
+            event.projectRule = scope == null ? -1 : scope.rules.getMatchingRule(virtualFile, scope.root);
+            int cached = fileId > 0 ? snapshot.verdictCache.get(fileId) : VerdictCache.MISS;
+            event.rule = !affected ? -1 : cached != VerdictCache.MISS ? cached : snapshot.findRule(virtualFile);
+            event.path = virtualFile.getPath();
+            event.index = indexId.getName();
+            event.excluded = excluded;
+            event.commit();
+        }
+        return excluded;
+    }
+
+    /**
+     * Decides while recording, every decision is timed. Whether a project exclusion decided is looked up after the
+     * latency was taken, from the project's caches.
+     */
+    private static boolean recordDecision(QueryTrace trace, FilterSnapshot snapshot, ProjectScopes projectScopes,
+                                          VirtualFile virtualFile, IndexId<?, ?> indexId, boolean affected) {
+        long start = System.nanoTime();
+        boolean excluded = decide(snapshot, projectScopes, virtualFile, indexId, affected);
+        long nanos = System.nanoTime() - start;
+        ProjectScopes.Scope scope = snapshot.excludesWholeIndex(indexId) ? null : projectScopes.find(virtualFile);
+        boolean project = scope != null && scope.rules.getMatchingRule(virtualFile, scope.root) >= 0;
+        trace.record(virtualFile, indexId, excluded, project, nanos);
+        return excluded;
+    }
+
+    private static boolean decide(FilterSnapshot snapshot, ProjectScopes projectScopes, VirtualFile virtualFile,
+                                  IndexId<?, ?> indexId, boolean affected) {
+        long start = startTiming(snapshot.timingSampleRate);
+        if (snapshot.excludesWholeIndex(indexId)) {
+            snapshot.metrics.record(indexId, -1, true, -1, elapsed(start));
+            return true;
+        }
+        ProjectScopes.Scope scope = projectScopes.find(virtualFile);
+        if (scope != null) {
+            //A matching project exclusion decides, the application exclusions are only the fallback.
+            int projectRule = scope.rules.getMatchingRule(virtualFile, scope.root);
+            if (projectRule >= 0) {
+                boolean excluded = scope.rules.isExcluded(projectRule, indexId);
+                snapshot.metrics.record(indexId, -1, excluded, -1, elapsed(start));
+                return excluded;
+            }
+        }
+        if (!affected) return false;
+        int rule = getMatchingRule(snapshot, virtualFile);
+        int excludedBy = rule >= 0 && snapshot.decisionTable.isExcluded(rule, indexId) ? rule : -1;
+        boolean excluded = excludedBy >= 0;
+        if (!excluded) {
+            int sizeRule = snapshot.sizeThresholds.firstExcluding(virtualFile, indexId);
+            if (sizeRule >= 0) {
+                snapshot.metrics.recordExcludedBytes(indexId, virtualFile instanceof VirtualFileWithId ?
+                        ((VirtualFileWithId) virtualFile).getId() : 0, virtualFile.getLength());
+                excludedBy = sizeRule;
+                excluded = true;
+            } else if (snapshot.isGeneratedContentExcluded(virtualFile, indexId)) {
+                snapshot.metrics.recordSource(FilterMetrics.Source.CONTENT);
+                excluded = true;
+            }
+        }
+        snapshot.metrics.record(indexId, rule, excluded, excludedBy, elapsed(start));
+        return excluded;
+    }
+
+    /**
+     * Only one in timingSampleRate decisions is timed, reading the clock costs more than a cached decision.
+     * @return the start time, or -1 if this decision is not timed.
+     */
+    private static long startTiming(int timingSampleRate) {
+        if (timingSampleRate <= 0 || ThreadLocalRandom.current().nextInt(timingSampleRate) != 0) return -1;
+        return System.nanoTime();
+    }
+
+    private static long elapsed(long start) {
+        return start < 0 ? -1 : System.nanoTime() - start;
+    }
+
+    /**
+     * @return the first path exclusion matching the file, or -1. Resolved from the parent directory when a rule covers
+     * it, otherwise cached per file id for files from the persistent VFS.
+     */
+    private static int getMatchingRule(FilterSnapshot snapshot, VirtualFile virtualFile) {
+        //Multiple indexExclusions may apply, the first one in the settings list wins.
+        int fileId = virtualFile instanceof VirtualFileWithId ? ((VirtualFileWithId) virtualFile).getId() : 0;
+        int rule = fileId > 0 ? snapshot.verdictCache.get(fileId) : VerdictCache.MISS;
+        if (rule != VerdictCache.MISS) {
+            snapshot.metrics.recordSource(FilterMetrics.Source.CACHE);
+            return rule;
+        }
+        VerdictStore store = fileId > 0 ? snapshot.verdictStore : null;
+        int stamp = store == null ? 0 : stamp(virtualFile);
+        rule = store == null ? VerdictStore.MISS : store.get(fileId, stamp);
+        if (rule != VerdictStore.MISS) {
+            snapshot.metrics.recordSource(FilterMetrics.Source.STORE);
+            snapshot.verdictCache.put(fileId, rule);
+            return rule;
+        }
+        rule = snapshot.directoryVerdicts.getVerdict(virtualFile);
+        if (rule >= 0) {
+            snapshot.metrics.recordSource(FilterMetrics.Source.DIRECTORY);
+            return rule;
+        }
+        snapshot.metrics.recordSource(FilterMetrics.Source.MATCHER);
+        rule = snapshot.matchRule(virtualFile);
+        if (fileId > 0) {
+            snapshot.verdictCache.put(fileId, rule);
+        }
+        if (store != null) {
+            store.put(fileId, stamp, rule);
+        }
+        return rule;
+    }
+
+    /**
+     * Computes and caches the verdicts of a directory's files in one call, ahead of the indexer asking for them one by
+     * one. The directory's path, its project scope and its directory verdict are resolved once for all the children,
+     * each child only appends its name to the path. Subdirectories are left to the caller.
+     * @return how many verdicts were computed, the others were cached already or are resolved from the directory.
+     */
+    public int evaluateChildren(@NotNull VirtualFile directory) {
+        FilterSnapshot snapshot = this.snapshot;
+        VirtualFile[] children = directory.getChildren();
+        if (children.length == 0) return 0;
+        //Both only depend on the parent directory, so they hold for every child.
+        ProjectScopes.Scope scope = projectScopes.find(children[0]);
+        boolean matchApplication = !snapshot.rules.isEmpty() && snapshot.directoryVerdicts.getVerdict(children[0]) < 0;
+        if (scope == null && !matchApplication) return 0;
+        StringBuilder path = new StringBuilder(directory.getPath());
+        if (path.length() == 0 || path.charAt(path.length() - 1) != '/') {
+            path.append('/');
+        }
+        int pathPrefix = path.length();
+        StringBuilder relative = scope == null ? null :
+                new StringBuilder(PathBuffer.relative(directory, scope.root)).append('/');
+        int relativePrefix = relative == null ? 0 : relative.length();
+        int computed = 0;
+        for (VirtualFile child : children) {
+            if (child.isDirectory()) continue;
+            if (relative != null) {
+                relative.setLength(relativePrefix);
+                if (scope.rules.cacheMatchingRule(child, relative.append(child.getNameSequence()))) {
+                    computed++;
                 }
-                return Optional.empty();
-            });
-            if (indexExclusion.isPresent()) {
-                List<String> indexNameList = indexExclusion.get().getIndexerNameExclusion().getIndexerNames();
-                if (indexExclusion.get().getIndexerNameExclusion().isExcludeIfNotIn()) {
-                    if (!indexNameList.contains(indexId.getName())) {
-                        sw.stop();
-                        duration += sw.elapsed(TimeUnit.NANOSECONDS);
-                        return true;
-                    }
-                } else {
-                    if (indexNameList.contains(indexId.getName())) {
-                        sw.stop();
-                        duration += sw.elapsed(TimeUnit.NANOSECONDS);
-                        return true;
-                    }
+            }
+            if (matchApplication) {
+                path.setLength(pathPrefix);
+                if (cacheMatchingRule(snapshot, child, path.append(child.getNameSequence()))) {
+                    computed++;
                 }
             }
-        } catch (ExecutionException e) {
-            LOGGER.error("Failed to execute cache load for index exclusion", e);
         }
-        sw.stop();
-        duration += sw.elapsed(TimeUnit.NANOSECONDS);
+        return computed;
+    }
+
+    /**
+     * Caches the file's first matching application exclusion the way {@link #getMatchingRule} does, unless it already
+     * is, without counting it as a decision.
+     * @return true if the rule had to be computed.
+     */
+    private static boolean cacheMatchingRule(FilterSnapshot snapshot, VirtualFile virtualFile, CharSequence path) {
+        int fileId = virtualFile instanceof VirtualFileWithId ? ((VirtualFileWithId) virtualFile).getId() : 0;
+        if (fileId <= 0 || snapshot.verdictCache.get(fileId) != VerdictCache.MISS) return false;
+        VerdictStore store = snapshot.verdictStore;
+        int stamp = store == null ? 0 : stamp(virtualFile);
+        int rule = store == null ? VerdictStore.MISS : store.get(fileId, stamp);
+        if (rule != VerdictStore.MISS) {
+            snapshot.verdictCache.put(fileId, rule);
+            return false;
+        }
+        rule = snapshot.matcher.firstMatchPath(virtualFile, path);
+        snapshot.verdictCache.put(fileId, rule);
+        if (store != null) {
+            store.put(fileId, stamp, rule);
+        }
+        return true;
+    }
+
+    /**
+     * Computes the verdicts of the project's files in the background, if enabled and any exclusion applies to them.
+     */
+    public void warmUp(Project project) {
+        if (!settings.isWarmUpVerdicts() || snapshot.rules.isEmpty() &&
+                projectScopes.getProjects().stream().noneMatch(rules -> rules.project == project)) return;
+        ProgressManager.getInstance().run(new VerdictWarmUp(this, project));
+    }
+
+    /**
+     * Records every query the filter decides to the file, replacing a recording in progress. Queries of indexes no
+     * exclusion affects are answered without deciding and not recorded. JFR decision events pause while recording.
+     */
+    public synchronized void startRecording(@NotNull Path file) throws IOException {
+        stopRecording();
+        trace = QueryTrace.start(file, settings);
+    }
+
+    /**
+     * Stops recording and completes the trace file.
+     * @return the finished recording, or null if none was in progress.
+     */
+    @Nullable
+    public synchronized QueryTrace stopRecording() {
+        QueryTrace trace = this.trace;
+        if (trace == null) return null;
+        this.trace = null;
+        trace.close();
+        return trace;
+    }
+
+    public boolean isRecording() {
+        return trace != null;
+    }
+
+    /**
+     * @return a hash of the file's name and parent, telling persisted verdicts of files renamed, moved, or replaced by
+     * another file with the same id apart. Moved parent directories are caught by the {@link VerdictInvalidationListener}.
+     */
+    private static int stamp(VirtualFile virtualFile) {
+        VirtualFile parent = virtualFile.getParent();
+        int parentId = parent instanceof VirtualFileWithId ? ((VirtualFileWithId) parent).getId() : 0;
+        return 31 * parentId + StringUtil.stringHashCode(virtualFile.getNameSequence());
+    }
+
+    private void invalidateCaches() {
+        FilterEvents.cacheInvalidated("Low memory", snapshot.verdictCache.size());
+        snapshot.invalidateCaches();
+        projectScopes.getProjects().forEach(ProjectRules::invalidateVerdicts);
+    }
+
+    private void invalidateVerdicts() {
+        FilterEvents.cacheInvalidated("Directory renamed or moved", snapshot.verdictCache.size());
+        snapshot.invalidateVerdicts();
+        projectScopes.invalidateAll();
+    }
+
+    private void invalidateFileTypeVerdicts() {
+        FilterSnapshot snapshot = this.snapshot;
+        if (snapshot.matcher.hasFileTypeRules()) {
+            FilterEvents.cacheInvalidated("File types changed", snapshot.verdictCache.size());
+            snapshot.invalidateVerdicts();
+        }
+        projectScopes.getProjects().stream().filter(ProjectRules::hasFileTypeRules)
+                .forEach(ProjectRules::invalidateVerdicts);
+    }
+
+    /**
+     * Recompiles what the changed ignore files contribute to the exclusions reading ignore files of their name, one
+     * directory each, and reindexes the files under them whose verdict they flip. Every other ignore file stays
+     * compiled, and only the cached verdicts of the flipped files are dropped.
+     */
+    private void ignoreFilesChanged(List<? extends VFileEvent> events) {
+        FilterSnapshot snapshot = this.snapshot;
+        Collection<ProjectRules> projects = projectScopes.getProjects();
+        if (!snapshot.matcher.hasIgnoreFileRules() && projects.stream().noneMatch(ProjectRules::hasIgnoreFileRules)) {
+            return;
+        }
+        Map<VirtualFile, Predicate<VirtualFile>> changed = new HashMap<>();
+        for (VFileEvent event : events) {
+            //Most events are for other files, they are dismissed by name before looking up their directory.
+            String name = PathUtil.getFileName(event.getPath());
+            String oldName = event instanceof VFilePropertyChangeEvent &&
+                    VirtualFile.PROP_NAME.equals(((VFilePropertyChangeEvent) event).getPropertyName()) ?
+                    (String) ((VFilePropertyChangeEvent) event).getOldValue() : null;
+            boolean named = readsIgnoreFile(snapshot, projects, name);
+            boolean renamed = oldName != null && readsIgnoreFile(snapshot, projects, oldName);
+            if (!named && !renamed) continue;
+            VirtualFile directory = event.getFileSystem().findFileByPath(PathUtil.getParentPath(event.getPath()));
+            if (named) {
+                ignoreFileChanged(snapshot, projects, directory, name, changed);
+            }
+            if (renamed) {
+                ignoreFileChanged(snapshot, projects, directory, oldName, changed);
+            } else if (event instanceof VFileMoveEvent) {
+                ignoreFileChanged(snapshot, projects, ((VFileMoveEvent) event).getOldParent(), name, changed);
+            }
+        }
+        if (!changed.isEmpty()) {
+            ReindexPlanner.scheduleIgnoreFiles(changed, file -> {
+                if (file instanceof VirtualFileWithId) {
+                    removeVerdict(((VirtualFileWithId) file).getId());
+                }
+            });
+        }
+    }
+
+    private static boolean readsIgnoreFile(FilterSnapshot snapshot, Collection<ProjectRules> projects,
+                                           String fileName) {
+        if (snapshot.matcher.readsIgnoreFile(fileName)) return true;
+        for (ProjectRules rules : projects) {
+            if (rules.readsIgnoreFile(fileName)) return true;
+        }
         return false;
     }
 
+    private static void ignoreFileChanged(FilterSnapshot snapshot, Collection<ProjectRules> projects,
+                                          @Nullable VirtualFile directory, String fileName,
+                                          Map<VirtualFile, Predicate<VirtualFile>> changed) {
+        if (directory == null || !directory.isDirectory()) return;
+        Predicate<VirtualFile> flipped = snapshot.matcher.ignoreFileChanged(directory, fileName);
+        for (ProjectRules rules : projects) {
+            Predicate<VirtualFile> projectFlipped = rules.ignoreFileChanged(directory, fileName);
+            if (projectFlipped == null) continue;
+            flipped = flipped == null ? projectFlipped : flipped.or(projectFlipped);
+        }
+        if (flipped != null) {
+            changed.merge(directory, flipped, Predicate::or);
+        }
+    }
+
+    private void removeVerdict(int fileId) {
+        snapshot.verdictCache.remove(fileId);
+        projectScopes.remove(fileId);
+    }
+
     @Override
     public int getVersion() {
-        return (frontEndIndexDisabled ? 1 : 0) + (todoDisabled ? 2 : 0) + (indexExclusionList.isEmpty() ? 0 : indexExclusionList.hashCode());
+        //Settings changes are reindexed by the ReindexPlanner, changing the version would rebuild every filtered index.
+        //It only changes for settings changes the planner could not reindex, see IndexedSettings.
+        return VERSION + (indexedSettings == null ? 0 : indexedSettings.getGeneration());
     }
 
+    /**
+     * The platform folds the filter version into the version of every index this returns true for, so a change of the
+     * answer rebuilds the index on the next start. Indexes are reported as affected for good once a rule affected them,
+     * rule edits only add to them. Decisions still bypass the indexes the current rules do not affect.
+     */
     @Override
     public boolean affectsIndex(@NotNull IndexId<?, ?> indexId) {
-        if (!enabled) return false;
-        if (!indexExclusionList.isEmpty()) return true;
-        if (todoDisabled && indexId.equals(com.intellij.psi.impl.cache.impl.todo.TodoIndex.NAME)) return true;
-        if (frontEndIndexDisabled && isFrontend(indexId)) return true;
-        return false;
+        boolean affected = snapshot.affectsIndex(indexId) || projectScopes.affectsIndex(indexId);
+        if (indexedSettings == null) return affected;
+        if (affected) {
+            indexedSettings.affected(indexId.getName());
+        }
+        return affected || indexedSettings.wasAffected(indexId.getName());
     }
 
-    private static boolean isFrontend(IndexId<?, ?> index) {
-        String name = index.getName();
-        if (name.startsWith("js.") || name.startsWith("angularjs.") || name.startsWith("css.") || name.equals("CssIndex") ||
-                name.startsWith("html5.") || name.equals("HtmlTagIdIndex") || name.startsWith("dom.")) return true;
-        return false;
+    public void logStats() {
+        FilterSnapshot snapshot = this.snapshot;
+        LOGGER.info("Index filter: " + snapshot.metrics + ", caching " + snapshot.verdictCache.size() + " verdicts in " +
+                snapshot.verdictCache.allocatedBytes() + " bytes");
     }
 
-    public void logStats() {
-        LOGGER.info("Index filter took " + duration + "ns for " + count + " times");
+    private static void forEachInstance(Consumer<IndexFilter> consumer) {
+        for (GlobalIndexFilter filter : IndexFilter.EP_NAME.getExtensions()) {
+            if (filter instanceof IndexFilter) {
+                consumer.accept((IndexFilter) filter);
+            }
+        }
     }
 
     public static final class IndexFilterLogStartupActivity implements StartupActivity {
         @Override
-        public void runActivity(@NotNull com.intellij.openapi.project.Project project) {
-            for (GlobalIndexFilter filter : IndexFilter.EP_NAME.getExtensions()) {
-                if (filter instanceof IndexFilter) {
-                    ((IndexFilter) filter).logStats();
-                    ((IndexFilter) filter).indexExclusionCache.invalidateAll();
-                    ((IndexFilter) filter).count = 0;
-                    ((IndexFilter) filter).duration = 0;
-                }
-            }
+        public void runActivity(@NotNull Project project) {
+            forEachInstance(filter -> {
+                filter.logStats();
+                filter.getMetrics().reset();
+            });
         }
     }
+
     /**
-     * Class to help speed up basic regular expressions.
-     * Basic .*\/some/path/.* will exclude regular expressions all together.
-     * Others will use fuzzyMatching to try to check for contains to a path and returns false early if there is no contains
-     */
-    private static class FuzzyRegex {
-        private final String fuzzyMatch;
-        private final Pattern pattern;
-        private final boolean requiresPatternMatch;
-
-        public FuzzyRegex(String pattern) {
-            this.pattern = new Pattern(pattern, REFlags.IGNORE_CASE);
-            String[] parts = pattern.split("/");
-            String fuzzy = "";
-            boolean previousPartSet = false;
-            boolean matcherInMiddle = false;
-            //Try to make the longest continuous string for fuzzy match. Does not account for a few things,
-            //probably a better way out there, but this should help.
-            for (int i = 0; i < parts.length; i++) {
-                String part = parts[i];
-                if (!(part.contains(".") || part.contains("*") || part.contains("(") || part.contains("\\"))) {
-                    if (previousPartSet) {
-                        fuzzy += part + ((i != parts.length - 1) ? "/" : "");
-                    } else {
-                        if (part.length() > fuzzy.length()) {
-                            fuzzy = (i != 0 ? "/" : "") + part + ((i != parts.length - 1) ? "/" : "");
-                            previousPartSet = true;
-                        }
-                    }
+     * Verdicts are keyed by file id, whose path changes on rename or move. Drops the verdicts which may be stale, and
+     * recompiles the ignore files which changed.
+     */
+    public static final class VerdictInvalidationListener implements BulkFileListener {
+        @Override
+        public void after(@NotNull List<? extends VFileEvent> events) {
+            forEachInstance(filter -> filter.ignoreFilesChanged(events));
+            for (VFileEvent event : events) {
+                boolean pathChanged = event instanceof VFileMoveEvent || event instanceof VFilePropertyChangeEvent &&
+                        VirtualFile.PROP_NAME.equals(((VFilePropertyChangeEvent) event).getPropertyName());
+                VirtualFile file = event.getFile();
+                if (!pathChanged || !(file instanceof VirtualFileWithId)) continue;
+                if (file.isDirectory()) {
+                    forEachInstance(IndexFilter::invalidateVerdicts);
                 } else {
-                    previousPartSet = false;
-                    if (i != 0 && i != parts.length - 1) {
-                        matcherInMiddle = true;
-                    }
-
+                    forEachInstance(filter -> filter.removeVerdict(((VirtualFileWithId) file).getId()));
                 }
             }
-            requiresPatternMatch = !(parts.length >= 3 && !matcherInMiddle &&
-                    parts[0].equals(".*") && parts[parts.length - 1].equals(".*"));
-            this.fuzzyMatch = fuzzy.isEmpty() ? null : fuzzy;
-            assert requiresPatternMatch || fuzzyMatch != null : "Fuzzymatch should not be null if we do not require pattern match";
+        }
+    }
+
+    /**
+     * Project exclusions are compiled for the open projects only. Opened projects get their verdicts warmed up.
+     */
+    public static final class ProjectOpenCloseListener implements ProjectManagerListener {
+        @Override
+        public void projectOpened(@NotNull Project project) {
+            forEachInstance(filter -> {
+                filter.reloadProjects();
+                filter.warmUp(project);
+            });
         }
 
-        public boolean matches(String input) {
-            if (!requiresPatternMatch) {
-                return input.contains(fuzzyMatch);
-            } else if (this.fuzzyMatch != null && !input.contains(fuzzyMatch)) {
-                return false;
-            }
-            return pattern.matches(input);
+        @Override
+        public void projectClosed(@NotNull Project project) {
+            forEachInstance(IndexFilter::reloadProjects);
+        }
+    }
+
+    /**
+     * Project exclusions are relative to the content roots, which moved.
+     */
+    public static final class ContentRootListener implements ModuleRootListener {
+        @Override
+        public void rootsChanged(@NotNull ModuleRootEvent event) {
+            forEachInstance(IndexFilter::reloadProjects);
+        }
+    }
+
+    /**
+     * File type rules depend on the file type associations, which the per file stamps do not catch.
+     */
+    public static final class FileTypeInvalidationListener implements FileTypeListener {
+        @Override
+        public void fileTypesChanged(@NotNull FileTypeEvent event) {
+            forEachInstance(IndexFilter::invalidateFileTypeVerdicts);
         }
     }
 }
@@ -0,0 +1,203 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures the index storage on disk, one directory per index under the index root, named after the index in lower
+ * case (stub indexes all live under the Stubs index). Combined with the filter statistics it estimates how much of
+ * each index belongs to files the rules already match, which is what excluding that index from them would reclaim.
+ * <p>
+ * Walking the index root takes a while on big indexes, so the editors share one measurement of the sizes on disk per
+ * session, taken in the background and dropped when indexing finishes or the filter requests a reindex. The statistics
+ * keep changing meanwhile, the reclaimable sizes and the ranking are estimated from the caller's on every call.
+ **/
+public class IndexStorageAnalyzer {
+    private static final Logger LOGGER = Logger.getInstance(IndexStorageAnalyzer.class);
+    //Bytes and number of files per index name, null until measured, or once the indexes changed since.
+    private static final AtomicReference<CompletableFuture<Map<String, long[]>>> MEASURED = new AtomicReference<>();
+
+    private IndexStorageAnalyzer() {
+    }
+
+    /**
+     * Measures the index storage under the index root in a pooled thread, unless a measurement of this session covering
+     * the indexes is still current.
+     * @param metrics statistics to estimate the reclaimable size from, or null if unknown
+     * @return the usage of each index as {@link #analyze} ranks it, completed once measured.
+     */
+    public static CompletableFuture<List<IndexUsage>> measure(Collection<String> indexNames,
+                                                              @Nullable FilterMetrics metrics) {
+        return measureSizes(indexNames).thenApply(sizes -> rank(sizes, indexNames, metrics));
+    }
+
+    private static CompletableFuture<Map<String, long[]>> measureSizes(Collection<String> indexNames) {
+        while (true) {
+            CompletableFuture<Map<String, long[]>> measured = MEASURED.get();
+            if (measured != null && !measured.isCompletedExceptionally()) {
+                //A measurement still running may be for fewer indexes, checked once it completes.
+                if (!measured.isDone()) return measured.thenCompose(sizes -> sizes.keySet().containsAll(indexNames) ?
+                        CompletableFuture.completedFuture(sizes) : measureSizes(indexNames));
+                if (measured.join().keySet().containsAll(indexNames)) return measured;
+            }
+            CompletableFuture<Map<String, long[]>> measuring = new CompletableFuture<>();
+            if (!MEASURED.compareAndSet(measured, measuring)) continue;
+            AppExecutorUtil.getAppExecutorService().execute(() -> {
+                try {
+                    measuring.complete(measureSizes(Paths.get(PathManager.getIndexRoot().getPath()), indexNames));
+                } catch (Throwable e) {
+                    LOGGER.debug("Could not measure the index storage", e);
+                    measuring.completeExceptionally(e);
+                }
+            });
+            return measuring;
+        }
+    }
+
+    /**
+     * Drops the measurement of this session, the next {@link #measure} measures again. A measurement still running
+     * completes for whoever waits on it.
+     */
+    static void invalidate() {
+        MEASURED.set(null);
+    }
+
+    /**
+     * @param metrics statistics to estimate the reclaimable size from, or null if unknown
+     * @return the usage of each index, ranked by reclaimable size and then by size on disk.
+     */
+    public static List<IndexUsage> analyze(Path indexRoot, Collection<String> indexNames, @Nullable FilterMetrics metrics) {
+        return rank(measureSizes(indexRoot, indexNames), indexNames, metrics);
+    }
+
+    /**
+     * @return the bytes and the number of files of each index.
+     */
+    private static Map<String, long[]> measureSizes(Path indexRoot, Collection<String> indexNames) {
+        Map<String, long[]> sizes = new HashMap<>();
+        for (String name : indexNames) {
+            ProgressManager.checkCanceled();
+            sizes.put(name, measure(indexRoot.resolve(name.toLowerCase(Locale.US))));
+        }
+        return sizes;
+    }
+
+    private static List<IndexUsage> rank(Map<String, long[]> sizes, Collection<String> indexNames,
+                                         @Nullable FilterMetrics metrics) {
+        Map<String, FilterMetrics.IndexStats> stats = new HashMap<>();
+        if (metrics != null) {
+            for (FilterMetrics.IndexStats index : metrics.getIndexStats()) {
+                stats.put(index.getIndex(), index);
+            }
+        }
+        List<IndexUsage> result = new ArrayList<>();
+        for (String name : indexNames) {
+            long[] size = sizes.get(name);
+            FilterMetrics.IndexStats index = stats.get(name);
+            long reclaimable = index == null || index.getCalls() == 0 ? -1 :
+                    (long) ((double) size[0] * index.getCoveredIncluded() / index.getCalls());
+            result.add(new IndexUsage(name, size[0], (int) size[1], reclaimable));
+        }
+        result.sort(Comparator.comparingLong(IndexUsage::getReclaimableBytes)
+                .thenComparingLong(IndexUsage::getBytes).reversed());
+        return result;
+    }
+
+    /**
+     * @return the bytes and the number of files under the directory, zeros if it does not exist.
+     */
+    private static long[] measure(Path directory) {
+        long[] size = new long[2];
+        if (!Files.isDirectory(directory)) return size;
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    size[0] += attrs.size();
+                    size[1]++;
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    //Index files come and go while indexing runs.
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.debug("Could not measure " + directory, e);
+        }
+        return size;
+    }
+
+    /**
+     * Disk usage of one index.
+     */
+    public static final class IndexUsage {
+        private final String index;
+        private final long bytes;
+        private final int files;
+        private final long reclaimableBytes;
+
+        IndexUsage(String index, long bytes, int files, long reclaimableBytes) {
+            this.index = index;
+            this.bytes = bytes;
+            this.files = files;
+            this.reclaimableBytes = reclaimableBytes;
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return number of storage files of the index.
+         */
+        public int getFiles() {
+            return files;
+        }
+
+        /**
+         * @return estimated bytes held for files the rules match but which are still indexed, or -1 if no decisions
+         * were recorded for this index yet.
+         */
+        public long getReclaimableBytes() {
+            return reclaimableBytes;
+        }
+    }
+
+    /**
+     * Index storage changes once indexing is done.
+     */
+    public static final class ReindexListener implements DumbService.DumbModeListener {
+        @Override
+        public void exitDumbMode() {
+            invalidate();
+        }
+    }
+}
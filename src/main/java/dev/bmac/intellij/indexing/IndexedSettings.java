@@ -0,0 +1,169 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.openapi.diagnostic.Logger;
+import dev.bmac.intellij.settings.IndexExclusion;
+import dev.bmac.intellij.settings.IndexFamily;
+import dev.bmac.intellij.settings.PluginSettings;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Version of the settings the indexes were last brought up to date with, and the indexes the filter affected so far,
+ * persisted next to the verdict store.
+ * <p>
+ * Settings changes are reindexed by the {@link ReindexPlanner}, which only knows the settings before and after the
+ * change. Settings changed while the IDE was closed, or a planner cut off by an IDE exit, leave the indexes out of date
+ * with nothing to plan from on the next start. Those are caught at startup by the version not matching, and fall back
+ * to bumping the generation the filter version is derived from, which rebuilds the filtered indexes.
+ * <p>
+ * The filter version is part of the version of every index the filter affects, so an index going from affected to
+ * unaffected or back would be rebuilt as a whole on the next start. Indexes once affected therefore stay affected.
+ **/
+final class IndexedSettings {
+    private static final Logger LOGGER = Logger.getInstance(IndexedSettings.class);
+    private static final String FILE = "indexed-settings";
+
+    private final Path file;
+    private final int generation;
+    private final Set<String> affectedIndexes;
+    private long version;
+
+    private IndexedSettings(Path file, int generation, long version, Set<String> affectedIndexes) {
+        this.file = file;
+        this.generation = generation;
+        this.version = version;
+        this.affectedIndexes = affectedIndexes;
+    }
+
+    /**
+     * Compares the settings with the ones last reindexed, bumping the generation if they differ. A directory without a
+     * recorded version is taken to be up to date with the settings.
+     */
+    static IndexedSettings load(Path directory, PluginSettings settings) {
+        Path file = directory.resolve(FILE);
+        long version = version(settings);
+        int generation = 0;
+        Set<String> affectedIndexes = ConcurrentHashMap.newKeySet();
+        try {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            generation = Integer.parseInt(lines.get(0).trim());
+            for (String index : lines.subList(2, lines.size())) {
+                if (!index.isEmpty()) {
+                    affectedIndexes.add(index);
+                }
+            }
+            if (Long.parseUnsignedLong(lines.get(1).trim(), 16) == version) {
+                return new IndexedSettings(file, generation, version, affectedIndexes);
+            }
+            LOGGER.info("Index exclusion settings changed without reindexing, rebuilding the filtered indexes");
+            generation++;
+        } catch (NoSuchFileException e) {
+            //First start with this plugin version.
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Could not read " + file + ", rebuilding the filtered indexes", e);
+            generation++;
+        }
+        IndexedSettings indexed = new IndexedSettings(file, generation, version, affectedIndexes);
+        indexed.reindexed(version);
+        return indexed;
+    }
+
+    /**
+     * @return the number of times the filtered indexes had to be rebuilt for unplanned settings changes.
+     */
+    int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Records that the indexes are up to date with the settings of the given {@link #version}.
+     */
+    synchronized void reindexed(long version) {
+        this.version = version;
+        write();
+    }
+
+    /**
+     * @return true if the filter affected the index before, under any settings.
+     */
+    boolean wasAffected(String index) {
+        return affectedIndexes.contains(index);
+    }
+
+    /**
+     * Records that the filter affects the index, from now on for good.
+     */
+    void affected(String index) {
+        if (affectedIndexes.contains(index)) return;
+        synchronized (this) {
+            if (affectedIndexes.add(index)) {
+                write();
+            }
+        }
+    }
+
+    private void write() {
+        StringBuilder content = new StringBuilder().append(generation).append('\n')
+                .append(Long.toHexString(version)).append('\n');
+        new TreeSet<>(affectedIndexes).forEach(index -> content.append(index).append('\n'));
+        try {
+            Files.createDirectories(file.getParent());
+            Files.write(file, content.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            LOGGER.warn("Could not record the reindexed index exclusion settings in " + file, e);
+        }
+    }
+
+    /**
+     * @return the version of what the indexes hold under the settings: the whole index switches, the generated content
+     * switch and its indexes, and the rules with their indexes, in order.
+     */
+    static long version(PluginSettings settings) {
+        //FNV-1a like the verdict store version, independent of how the settings classes implement hashCode().
+        long hash = 0xcbf29ce484222325L;
+        hash = hash(hash, settings.isTODOIndexDisabled() ? "todo" : "");
+        for (IndexFamily family : settings.getIndexFamilies()) {
+            if (!family.isEnabled()) continue;
+            hash = hash(hash, family.getPatterns());
+        }
+        hash = hash(hash, settings.isSkipGeneratedContent() ? "generated" : "");
+        if (settings.isSkipGeneratedContent()) {
+            hash = hash(hash, settings.getGeneratedContentExclusion());
+        }
+        for (IndexExclusion rule : settings.getIndexPathExclude()) {
+            hash = hash(hash, rule.getSyntax().name());
+            hash = hash(hash, rule.getPath());
+            hash = hash(hash, Long.toString(rule.getSizeThreshold()));
+            hash = hash(hash, rule.getIndexerNameExclusion());
+        }
+        return hash;
+    }
+
+    private static long hash(long hash, IndexExclusion.IndexNameExclusion indexes) {
+        hash = hash(hash, indexes.isExcludeIfNotIn() ? "not in" : "in");
+        return hash(hash, indexes.getIndexerNames());
+    }
+
+    private static long hash(long hash, List<String> values) {
+        for (String value : values == null ? Collections.<String>emptyList() : values) {
+            hash = hash(hash, value);
+        }
+        return hash(hash, "");
+    }
+
+    private static long hash(long hash, String value) {
+        for (int i = 0; value != null && i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return (hash ^ 0xFFFF) * 0x100000001b3L;
+    }
+}
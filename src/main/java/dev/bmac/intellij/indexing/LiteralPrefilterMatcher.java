@@ -0,0 +1,80 @@
+package dev.bmac.intellij.indexing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Matches all rules using one scan of the path for every rule's fuzzy literal. Only rules whose literal was found
+ * (or which have no literal at all) are checked with their regular expression, in the order of an
+ * {@link AdaptiveRuleOrder}. Rules whose literal is all they need match without any check.
+ **/
+class LiteralPrefilterMatcher implements PathMatcher {
+    private final FuzzyRegex[] rules;
+    private final AhoCorasick literals;
+    private final boolean[] hasLiteral;
+    //Bitset of the rules matching as soon as their literal is found.
+    private final long[] literalOnly;
+    //Rules needing their regular expression checked.
+    private final AdaptiveRuleOrder order;
+    //Per thread bitset of the literals found in the current path.
+    private final ThreadLocal<long[]> found;
+
+    LiteralPrefilterMatcher(List<String> patterns) {
+        this.rules = patterns.stream().map(FuzzyRegex::new).toArray(FuzzyRegex[]::new);
+        this.hasLiteral = new boolean[rules.length];
+        int words = (rules.length + 63) >>> 6;
+        this.literalOnly = new long[words];
+        List<Integer> checked = new ArrayList<>();
+        for (int i = 0; i < rules.length; i++) {
+            hasLiteral[i] = rules[i].getFuzzyMatch() != null;
+            if (hasLiteral[i] && !rules[i].requiresPatternMatch()) {
+                literalOnly[i >>> 6] |= 1L << i;
+            } else {
+                checked.add(i);
+            }
+        }
+        this.order = new AdaptiveRuleOrder(checked.stream().mapToInt(Integer::intValue).toArray(), rules.length);
+        this.literals = new AhoCorasick(Arrays.stream(rules).map(FuzzyRegex::getFuzzyMatch).collect(Collectors.toList()));
+        this.found = ThreadLocal.withInitial(() -> new long[words]);
+    }
+
+    @Override
+    public int firstMatch(CharSequence path) {
+        long[] found = this.found.get();
+        Arrays.fill(found, 0);
+        literals.findAll(path, found);
+        int best = -1;
+        for (int word = 0; word < found.length && best < 0; word++) {
+            long matched = found[word] & literalOnly[word];
+            if (matched != 0) {
+                best = word * 64 + Long.numberOfTrailingZeros(matched);
+            }
+        }
+        int[] order = this.order.order();
+        if (order.length == 0) return best;
+        boolean sampled = this.order.sample();
+        for (int i : order) {
+            //First match in the settings wins, rules after the best match so far cannot change the result.
+            if (best >= 0 && i > best) continue;
+            if (hasLiteral[i] && (found[i >>> 6] & (1L << i)) == 0) continue;
+            boolean matched;
+            if (sampled) {
+                long start = System.nanoTime();
+                matched = rules[i].matchesPattern(path);
+                this.order.record(i, matched, System.nanoTime() - start);
+            } else {
+                matched = rules[i].matchesPattern(path);
+            }
+            if (matched) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    AdaptiveRuleOrder getOrder() {
+        return order;
+    }
+}
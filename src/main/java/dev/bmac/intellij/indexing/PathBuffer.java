@@ -0,0 +1,105 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Reusable per thread char buffer holding a file path, built from the VFS name chain the same way
+ * {@link VirtualFile#getPath()} builds it, but without creating a new String for every file.
+ * Only valid until the next {@link #fill(VirtualFile)} on the same thread.
+ **/
+final class PathBuffer implements CharSequence {
+    private static final ThreadLocal<PathBuffer> BUFFERS = ThreadLocal.withInitial(PathBuffer::new);
+
+    private char[] chars = new char[256];
+    private int length;
+
+    private PathBuffer() {
+    }
+
+    /**
+     * @return this thread's buffer, holding the path of the given file.
+     */
+    static PathBuffer of(VirtualFile file) {
+        PathBuffer buffer = BUFFERS.get();
+        buffer.fill(file);
+        return buffer;
+    }
+
+    /**
+     * @return this thread's buffer, holding the path of the given file relative to an ancestor directory, starting
+     * with '/'. Rules anchored at the ancestor can then match from the start of the path.
+     */
+    static PathBuffer relative(VirtualFile file, VirtualFile ancestor) {
+        PathBuffer buffer = BUFFERS.get();
+        buffer.length = 0;
+        buffer.append(file, ancestor);
+        return buffer;
+    }
+
+    void fill(VirtualFile file) {
+        length = 0;
+        append(file, null);
+    }
+
+    private void append(VirtualFile file, VirtualFile ancestor) {
+        if (file.equals(ancestor)) return;
+        VirtualFile parent = file.getParent();
+        if (parent == null) {
+            //Roots keep their path, including any trailing separator ("/", "C:/", "foo.jar!/").
+            append(file.getPath());
+            return;
+        }
+        append(parent, ancestor);
+        if (length == 0 || chars[length - 1] != '/') {
+            ensureCapacity(length + 1);
+            chars[length++] = '/';
+        }
+        append(file.getNameSequence());
+    }
+
+    private void append(CharSequence sequence) {
+        int size = sequence.length();
+        ensureCapacity(length + size);
+        for (int i = 0; i < size; i++) {
+            chars[length + i] = sequence.charAt(i);
+        }
+        length += size;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(capacity, chars.length * 2));
+        }
+    }
+
+    /**
+     * @return the backing array, only the first {@link #length()} chars are part of the path.
+     */
+    char[] array() {
+        return chars;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return chars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new String(chars, start, end - start);
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+}
@@ -0,0 +1,12 @@
+package dev.bmac.intellij.indexing;
+
+/**
+ * Compiled form of the path exclusion rules. Rules are referred to by their position in the settings list.
+ **/
+interface PathMatcher {
+
+    /**
+     * @return the index of the first rule (in settings order) matching the path, or -1 if none match.
+     */
+    int firstMatch(CharSequence path);
+}
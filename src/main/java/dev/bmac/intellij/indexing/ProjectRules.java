@@ -0,0 +1,113 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileWithId;
+import com.intellij.util.indexing.IndexId;
+import dev.bmac.intellij.settings.IndexExclusion;
+import dev.bmac.intellij.settings.PluginSettings;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Compiled exclusions of one project, matched against paths relative to the content root holding the file.
+ * Verdicts are cached per file id like the application ones, in a cache of the project's own.
+ * Size exclusions are only supported in the application exclusions.
+ **/
+final class ProjectRules {
+    final Project project;
+    //Deep copy, the settings editor keeps editing the exclusions it handed to the settings.
+    final List<IndexExclusion> rules;
+    private final FileRuleMatcher matcher;
+    private final List<Predicate<String>> indexes;
+    private final IndexDecisionTable decisionTable;
+    private final VerdictCache verdictCache;
+
+    ProjectRules(Project project, List<IndexExclusion> rules, PluginSettings settings) {
+        this.project = project;
+        this.rules = rules.stream().map(IndexExclusion::copy).collect(Collectors.toList());
+        this.matcher = new FileRuleMatcher(settings.getMatcherEngine(), this.rules);
+        this.indexes = this.rules.stream().map(IndexExclusion::getIndexerNameExclusion)
+                .map(IndexDecisionTable::toPredicate).collect(Collectors.toList());
+        this.decisionTable = new IndexDecisionTable(indexes);
+        this.verdictCache = new VerdictCache(settings.getVerdictCacheSize());
+    }
+
+    /**
+     * @return the name predicates of the indexes each rule excludes.
+     */
+    List<Predicate<String>> getIndexes() {
+        return indexes;
+    }
+
+    /**
+     * @param root content root of the project holding the file
+     * @return the file's first matching rule, or -1.
+     */
+    int getMatchingRule(VirtualFile file, VirtualFile root) {
+        int fileId = file instanceof VirtualFileWithId ? ((VirtualFileWithId) file).getId() : 0;
+        int rule = fileId > 0 ? verdictCache.get(fileId) : VerdictCache.MISS;
+        if (rule != VerdictCache.MISS) return rule;
+        rule = matcher.firstMatch(file, root);
+        if (fileId > 0) {
+            verdictCache.put(fileId, rule);
+        }
+        return rule;
+    }
+
+    /**
+     * Caches the file's first matching rule, unless it already is.
+     * @param path the file's path relative to its content root, starting with '/'
+     * @return true if the rule had to be computed.
+     */
+    boolean cacheMatchingRule(VirtualFile file, CharSequence path) {
+        int fileId = file instanceof VirtualFileWithId ? ((VirtualFileWithId) file).getId() : 0;
+        if (fileId <= 0 || verdictCache.get(fileId) != VerdictCache.MISS) return false;
+        verdictCache.put(fileId, matcher.firstMatchPath(file, path));
+        return true;
+    }
+
+    boolean isExcluded(int rule, IndexId<?, ?> indexId) {
+        return rule >= 0 && decisionTable.isExcluded(rule, indexId);
+    }
+
+    boolean hasFileTypeRules() {
+        return matcher.hasFileTypeRules();
+    }
+
+    /**
+     * @return whether the first match of a file under the directory may have changed, or null if the project does not
+     * read ignore files of that name.
+     */
+    @Nullable
+    Predicate<VirtualFile> ignoreFileChanged(VirtualFile directory, String fileName) {
+        return matcher.ignoreFileChanged(directory, fileName);
+    }
+
+    void remove(int fileId) {
+        verdictCache.remove(fileId);
+    }
+
+    boolean hasIgnoreFileRules() {
+        return matcher.hasIgnoreFileRules();
+    }
+
+    boolean readsIgnoreFile(String fileName) {
+        return matcher.readsIgnoreFile(fileName);
+    }
+
+    /**
+     * Drops the cached verdicts, the compiled ignore files stay valid.
+     */
+    void invalidateVerdicts() {
+        verdictCache.invalidateAll();
+    }
+
+    void invalidateAll() {
+        verdictCache.invalidateAll();
+        matcher.invalidateAll();
+    }
+}
@@ -0,0 +1,127 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.indexing.IndexId;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * The project exclusions of all open projects, by content root. Which root holds a file is memoized per directory
+ * the way {@link DirectoryVerdicts} memoizes covering rules: a directory's memo is derived from its parent's, so each
+ * directory is resolved once and a file then finds its root, or that it has none, with a single lookup.
+ * Nested content roots win over the roots containing them.
+ **/
+final class ProjectScopes {
+    static final ProjectScopes EMPTY = new ProjectScopes(Collections.emptyMap());
+    private static final Key<Memo> MEMO = Key.create("dev.bmac.indexExclusion.projectScope");
+
+    private final Map<VirtualFile, ProjectRules> roots;
+    private final List<ProjectRules> projects;
+    private final IndexDecisionTable affectedIndexes;
+    private volatile Epoch epoch = new Epoch();
+
+    /**
+     * @param roots content roots and the exclusions of the project they belong to
+     */
+    ProjectScopes(Map<VirtualFile, ProjectRules> roots) {
+        this.roots = new HashMap<>(roots);
+        List<ProjectRules> projects = new ArrayList<>();
+        List<Predicate<String>> indexes = new ArrayList<>();
+        for (ProjectRules rules : roots.values()) {
+            if (projects.contains(rules)) continue;
+            projects.add(rules);
+            indexes.addAll(rules.getIndexes());
+        }
+        this.projects = projects;
+        this.affectedIndexes = new IndexDecisionTable(Collections.<Predicate<String>>singletonList(name ->
+                indexes.stream().anyMatch(index -> index.test(name))));
+    }
+
+    boolean isEmpty() {
+        return roots.isEmpty();
+    }
+
+    Collection<ProjectRules> getProjects() {
+        return projects;
+    }
+
+    /**
+     * @return false if no project exclusion can exclude a file from the index.
+     */
+    boolean affectsIndex(IndexId<?, ?> indexId) {
+        return !roots.isEmpty() && affectedIndexes.isExcluded(0, indexId);
+    }
+
+    /**
+     * @return the content root holding the file and its project's exclusions, or null if no project with exclusions
+     * holds the file.
+     */
+    @Nullable
+    Scope find(VirtualFile file) {
+        if (roots.isEmpty()) return null;
+        VirtualFile parent = file.getParent();
+        return parent == null ? null : memo(parent, epoch).scope;
+    }
+
+    private Memo memo(VirtualFile directory, Epoch epoch) {
+        Memo memo = directory.getUserData(MEMO);
+        if (memo != null && memo.epoch == epoch) return memo;
+        ProjectRules rules = roots.get(directory);
+        if (rules != null) {
+            memo = new Memo(epoch, new Scope(directory, rules));
+        } else {
+            VirtualFile parent = directory.getParent();
+            memo = parent == null ? epoch.outside : memo(parent, epoch);
+        }
+        directory.putUserData(MEMO, memo);
+        return memo;
+    }
+
+    /**
+     * Drops every memo and cached verdict, needed once directories were renamed or moved.
+     */
+    void invalidateAll() {
+        epoch = new Epoch();
+        projects.forEach(ProjectRules::invalidateAll);
+    }
+
+    void remove(int fileId) {
+        projects.forEach(rules -> rules.remove(fileId));
+    }
+
+    /**
+     * A content root and the exclusions of its project.
+     */
+    static final class Scope {
+        final VirtualFile root;
+        final ProjectRules rules;
+
+        private Scope(VirtualFile root, ProjectRules rules) {
+            this.root = root;
+            this.rules = rules;
+        }
+    }
+
+    private static final class Epoch {
+        private final Memo outside = new Memo(this, null);
+    }
+
+    private static final class Memo {
+        private final Epoch epoch;
+        @Nullable
+        private final Scope scope;
+
+        private Memo(Epoch epoch, @Nullable Scope scope) {
+            this.epoch = epoch;
+            this.scope = scope;
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.JDOMUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileWithId;
+import com.intellij.util.indexing.IndexId;
+import com.intellij.util.xmlb.XmlSerializer;
+import dev.bmac.intellij.settings.PluginSettings;
+import org.jdom.JDOMException;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records the queries {@link IndexFilter} decides to a compact binary trace, to replay real indexing sessions against
+ * matcher changes outside the IDE (see TraceReplay in the jmh source set).
+ * <p>
+ * Deciding threads claim a slot of a ring buffer with a compare and set, store the file, index, verdict and latency in
+ * it and publish it, nothing is locked or allocated. A single writer thread drains the slots in order, resolves the
+ * paths and writes gzipped records, each path as the length of the prefix it shares with the previous path plus the
+ * rest. Queries arriving while the writer is a whole ring behind are dropped and counted rather than stalling the
+ * indexer.
+ * <p>
+ * The trace starts with the settings the filter decides with, settings reloaded while recording are written inline.
+ **/
+public final class QueryTrace {
+    private static final Logger LOGGER = Logger.getInstance(QueryTrace.class);
+    private static final int MAGIC = 0x49584654;
+    private static final int FORMAT = 1;
+    private static final int CAPACITY = 1 << 16;
+    private static final long IDLE_NANOS = 1_000_000;
+    //Record flags, a query combines the first four.
+    private static final int EXCLUDED = 1;
+    private static final int PROJECT = 2;
+    private static final int DIRECTORY = 4;
+    private static final int NEW_INDEX = 8;
+    private static final int SETTINGS = 16;
+    private static final int END = 32;
+
+    private final Path file;
+    private final DataOutputStream out;
+    //Per slot: the file, or the serialized settings of a settings record.
+    private final Object[] subjects = new Object[CAPACITY];
+    private final IndexId<?, ?>[] indexes = new IndexId<?, ?>[CAPACITY];
+    private final long[] nanos = new long[CAPACITY];
+    private final int[] flags = new int[CAPACITY];
+    //Per slot: the sequence number after the one last published in it.
+    private final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+    private final AtomicLong next = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private volatile long drained;
+    private volatile boolean closed;
+
+    //Only touched by the writer thread.
+    private final Map<String, Integer> indexNumbers = new HashMap<>();
+    private String previousPath = "";
+    private long recorded;
+
+    private QueryTrace(Path file, DataOutputStream out) {
+        this.file = file;
+        this.out = out;
+        this.writer = new Thread(this::drain, "Index filter query trace writer");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Creates the trace file, writes the settings to it and starts the writer thread.
+     */
+    static QueryTrace start(Path file, PluginSettings settings) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(file), 1 << 16), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(System.currentTimeMillis());
+            writeBytes(out, serialize(settings));
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+        QueryTrace trace = new QueryTrace(file, out);
+        trace.writer.start();
+        return trace;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the queries written, final once recording stopped.
+     */
+    public long getRecorded() {
+        return recorded;
+    }
+
+    /**
+     * @return the queries dropped because the writer fell behind.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @param project true if a project exclusion decided, those are not replayed
+     */
+    void record(VirtualFile file, IndexId<?, ?> indexId, boolean excluded, boolean project, long nanos) {
+        long sequence = claim(false);
+        if (sequence < 0) return;
+        int slot = (int) sequence & (CAPACITY - 1);
+        subjects[slot] = file;
+        indexes[slot] = indexId;
+        this.nanos[slot] = nanos;
+        flags[slot] = (excluded ? EXCLUDED : 0) | (project ? PROJECT : 0);
+        published.set(slot, sequence + 1);
+    }
+
+    /**
+     * Records the settings the following queries are decided with. Waits for room rather than dropping them.
+     */
+    void settingsChanged(PluginSettings settings) {
+        byte[] serialized = serialize(settings);
+        long sequence = claim(true);
+        if (sequence < 0) return;
+        int slot = (int) sequence & (CAPACITY - 1);
+        subjects[slot] = serialized;
+        flags[slot] = SETTINGS;
+        published.set(slot, sequence + 1);
+    }
+
+    /**
+     * @param wait true to wait for the writer to free a slot, false to give up on a full ring
+     * @return the claimed sequence number, or -1.
+     */
+    private long claim(boolean wait) {
+        while (!closed) {
+            long sequence = next.get();
+            if (sequence - drained >= CAPACITY) {
+                if (!wait) {
+                    dropped.increment();
+                    return -1;
+                }
+                LockSupport.parkNanos(IDLE_NANOS);
+            } else if (next.compareAndSet(sequence, sequence + 1)) {
+                return sequence;
+            }
+        }
+        return -1;
+    }
+
+    private void drain() {
+        try (DataOutputStream out = this.out) {
+            while (true) {
+                long sequence = drained;
+                int slot = (int) sequence & (CAPACITY - 1);
+                if (published.get(slot) != sequence + 1) {
+                    if (closed && next.get() == sequence) break;
+                    LockSupport.parkNanos(IDLE_NANOS);
+                    continue;
+                }
+                write(out, slot);
+                subjects[slot] = null;
+                indexes[slot] = null;
+                drained = sequence + 1;
+            }
+            out.writeByte(END);
+            out.writeLong(recorded);
+            out.writeLong(dropped.sum());
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Could not write the index filter query trace " + file, e);
+            closed = true;
+        }
+    }
+
+    private void write(DataOutputStream out, int slot) throws IOException {
+        int flags = this.flags[slot];
+        if (flags == SETTINGS) {
+            out.writeByte(SETTINGS);
+            writeBytes(out, (byte[]) subjects[slot]);
+            return;
+        }
+        VirtualFile file = (VirtualFile) subjects[slot];
+        String indexName = indexes[slot].getName();
+        Integer index = indexNumbers.get(indexName);
+        if (index == null) {
+            index = indexNumbers.size();
+            indexNumbers.put(indexName, index);
+            flags |= NEW_INDEX;
+        }
+        boolean directory = file.isDirectory();
+        out.writeByte(flags | (directory ? DIRECTORY : 0));
+        if ((flags & NEW_INDEX) != 0) {
+            out.writeUTF(indexName);
+        }
+        writeVarLong(out, index);
+        writeVarLong(out, file instanceof VirtualFileWithId ? ((VirtualFileWithId) file).getId() : 0);
+        String path = file.getPath();
+        int shared = 0;
+        int max = Math.min(path.length(), previousPath.length());
+        while (shared < max && path.charAt(shared) == previousPath.charAt(shared)) {
+            shared++;
+        }
+        writeVarLong(out, shared);
+        out.writeUTF(path.substring(shared));
+        previousPath = path;
+        writeVarLong(out, directory || !file.isValid() ? 0 : file.getLength());
+        writeVarLong(out, nanos[slot]);
+        recorded++;
+    }
+
+    /**
+     * Stops recording, waits for the writer to write what was queued and closes the file.
+     */
+    void close() {
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[] serialize(PluginSettings settings) {
+        return JDOMUtil.writeElement(XmlSerializer.serialize(settings)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static PluginSettings deserialize(byte[] settings) throws IOException {
+        PluginSettings result = new PluginSettings();
+        try {
+            XmlSerializer.deserializeInto(result, JDOMUtil.load(new String(settings, StandardCharsets.UTF_8)));
+        } catch (JDOMException e) {
+            throw new IOException("Broken settings in trace", e);
+        }
+        return result;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) readVarLong(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+
+    /**
+     * Reads a trace back one record at a time.
+     */
+    static final class Reader implements Closeable {
+        private final DataInputStream in;
+        private final long startMillis;
+        private final List<String> indexNames = new ArrayList<>();
+        private boolean ended;
+        private long recorded = -1;
+        private long dropped = -1;
+
+        //The current record.
+        @Nullable
+        private PluginSettings settings;
+        private String indexName;
+        private int fileId;
+        private String path = "";
+        private boolean directory;
+        private long length;
+        private boolean excluded;
+        private boolean project;
+        private long nanos;
+
+        Reader(Path file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file),
+                    1 << 16), 1 << 16));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+                    throw new IOException(file + " is not an index filter query trace of this version");
+                }
+                this.startMillis = in.readLong();
+                this.settings = deserialize(readBytes(in));
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        long getStartMillis() {
+            return startMillis;
+        }
+
+        /**
+         * Moves to the next record, a query or the settings its following queries were decided with. A trace cut
+         * short, by the IDE stopping while recording, ends at its last complete record.
+         * @return false at the end of the trace.
+         */
+        boolean next() throws IOException {
+            if (ended) return false;
+            try {
+                int flags = in.readUnsignedByte();
+                if (flags == END) {
+                    recorded = in.readLong();
+                    dropped = in.readLong();
+                    ended = true;
+                    return false;
+                }
+                if (flags == SETTINGS) {
+                    settings = deserialize(readBytes(in));
+                    return true;
+                }
+                settings = null;
+                if ((flags & NEW_INDEX) != 0) {
+                    indexNames.add(in.readUTF());
+                }
+                indexName = indexNames.get((int) readVarLong(in));
+                fileId = (int) readVarLong(in);
+                int shared = (int) readVarLong(in);
+                path = path.substring(0, shared) + in.readUTF();
+                length = readVarLong(in);
+                nanos = readVarLong(in);
+                directory = (flags & DIRECTORY) != 0;
+                excluded = (flags & EXCLUDED) != 0;
+                project = (flags & PROJECT) != 0;
+                return true;
+            } catch (EOFException e) {
+                ended = true;
+                return false;
+            }
+        }
+
+        /**
+         * @return the settings the following queries are decided with if the current record is a settings record,
+         * otherwise null. Before the first {@link #next()}, the settings the trace started with.
+         */
+        @Nullable
+        PluginSettings getSettings() {
+            return settings;
+        }
+
+        String getIndexName() {
+            return indexName;
+        }
+
+        int getFileId() {
+            return fileId;
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        boolean isDirectory() {
+            return directory;
+        }
+
+        long getLength() {
+            return length;
+        }
+
+        boolean isExcluded() {
+            return excluded;
+        }
+
+        /**
+         * @return true if a project exclusion decided the query, the trace does not hold the project exclusions.
+         */
+        boolean isProject() {
+            return project;
+        }
+
+        long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return the queries dropped while recording, or -1 if the trace was cut short.
+         */
+        long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * @return the queries the trace holds, or -1 if it was cut short.
+         */
+        long getRecorded() {
+            return recorded;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
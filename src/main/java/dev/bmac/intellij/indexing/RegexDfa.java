@@ -0,0 +1,585 @@
+package dev.bmac.intellij.indexing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Union of many case insensitive regular expressions compiled into one deterministic automaton. Input is scanned
+ * once, in linear time and without backtracking, and the automaton reports every rule that matched the whole input.
+ * Input is folded to lower case as it is scanned, so both cases of a letter share their transitions.
+ * <p>
+ * Determinization is done lazily: a DFA state is only built the first time the scan reaches it, and at most
+ * {@link #MAX_CACHED_STATES} states are kept. Past that, transitions are computed on the fly from the NFA so the
+ * result stays correct while memory stays bounded. States are immutable once published, so scanning needs no locks.
+ * <p>
+ * Only a subset of the regex syntax is supported: literals, '.', character classes, the \d \w \s shorthands,
+ * groups, alternation and greedy or lazy quantifiers. Patterns using anything else (backreferences, lookaround,
+ * boundaries, inline flags...) are reported through {@link #getUnsupportedReason(int)} and left out of the automaton.
+ **/
+class RegexDfa {
+    private static final int MAX_CACHED_STATES = 4096;
+    private static final int MAX_NFA_STATES_PER_RULE = 5000;
+    private static final int[] NO_RULES = new int[0];
+
+    //NFA, a state is either a char state (nfaChar set), a split (nfaAlt set) or a match state (nfaRule set).
+    private final CharClass[] nfaChar;
+    private final int[] nfaNext;
+    private final int[] nfaAlt;
+    private final int[] nfaRule;
+
+    private final String[] unsupportedReasons;
+    private final ConcurrentHashMap<StateKey, DfaState> states = new ConcurrentHashMap<>();
+    private final DfaState start;
+
+    /**
+     * @param patterns patterns to compile, a rule's id is its index in the list. Null entries are skipped.
+     */
+    RegexDfa(List<String> patterns) {
+        NfaBuilder builder = new NfaBuilder();
+        List<Integer> entries = new ArrayList<>();
+        unsupportedReasons = new String[patterns.size()];
+        for (int rule = 0; rule < patterns.size(); rule++) {
+            String pattern = patterns.get(rule);
+            if (pattern == null) continue;
+            try {
+                Node node = new Parser(pattern).parse();
+                if (node.size() > MAX_NFA_STATES_PER_RULE) {
+                    throw new UnsupportedPatternException("expands to too many states");
+                }
+                entries.add(builder.compile(node, builder.add(null, -1, -1, rule)));
+            } catch (UnsupportedPatternException e) {
+                unsupportedReasons[rule] = e.getMessage();
+            }
+        }
+        int size = builder.chars.size();
+        nfaChar = builder.chars.toArray(new CharClass[0]);
+        nfaNext = new int[size];
+        nfaAlt = new int[size];
+        nfaRule = new int[size];
+        for (int i = 0; i < size; i++) {
+            nfaNext[i] = builder.next.get(i);
+            nfaAlt[i] = builder.alt.get(i);
+            nfaRule[i] = builder.rule.get(i);
+        }
+        start = intern(closure(entries.stream().mapToInt(Integer::intValue).toArray()));
+    }
+
+    /**
+     * @return null if the rule is part of the automaton, otherwise why it could not be compiled.
+     */
+    String getUnsupportedReason(int rule) {
+        return unsupportedReasons[rule];
+    }
+
+    /**
+     * @return the lowest id of the rules matching the whole input, or -1 if none do.
+     */
+    int firstMatch(CharSequence input) {
+        int[] accepts = matchAll(input);
+        return accepts.length == 0 ? -1 : accepts[0];
+    }
+
+    /**
+     * @return ids of every rule matching the whole input, in ascending order.
+     */
+    int[] matchAll(CharSequence input) {
+        DfaState state = start;
+        for (int i = 0; i < input.length() && state.nfaStates.length > 0; i++) {
+            char c = Character.toLowerCase(input.charAt(i));
+            DfaState next = c < 128 ? state.ascii[c] : state.wideTransition(c);
+            state = next == null ? computeStep(state, c) : next;
+        }
+        return state.accepts;
+    }
+
+    private DfaState computeStep(DfaState state, char c) {
+        int[] targets = new int[state.nfaStates.length];
+        int count = 0;
+        for (int s : state.nfaStates) {
+            if (nfaChar[s] != null && nfaChar[s].matches(c)) {
+                targets[count++] = nfaNext[s];
+            }
+        }
+        DfaState next = intern(closure(Arrays.copyOf(targets, count)));
+        if (next.cached) {
+            if (c < 128) {
+                state.ascii[c] = next;
+            } else {
+                state.addWideTransition(c, next);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * @return sorted char and match states reachable from the seeds through splits.
+     */
+    private int[] closure(int[] seeds) {
+        BitSet seen = new BitSet(nfaChar.length);
+        BitSet result = new BitSet(nfaChar.length);
+        int[] stack = new int[nfaChar.length];
+        int top = 0;
+        for (int seed : seeds) {
+            if (!seen.get(seed)) {
+                seen.set(seed);
+                stack[top++] = seed;
+            }
+        }
+        while (top > 0) {
+            int s = stack[--top];
+            if (nfaAlt[s] < 0) {
+                result.set(s);
+                continue;
+            }
+            for (int target : new int[]{nfaNext[s], nfaAlt[s]}) {
+                if (!seen.get(target)) {
+                    seen.set(target);
+                    stack[top++] = target;
+                }
+            }
+        }
+        return result.stream().toArray();
+    }
+
+    private DfaState intern(int[] nfaStates) {
+        StateKey key = new StateKey(nfaStates);
+        DfaState state = states.get(key);
+        if (state != null) return state;
+        int[] accepts = Arrays.stream(nfaStates).filter(s -> nfaRule[s] >= 0).map(s -> nfaRule[s]).sorted().distinct().toArray();
+        if (states.size() >= MAX_CACHED_STATES) {
+            return new DfaState(nfaStates, accepts, false);
+        }
+        DfaState existing = states.putIfAbsent(key, state = new DfaState(nfaStates, accepts, true));
+        return existing == null ? state : existing;
+    }
+
+    private static final class DfaState {
+        private final int[] nfaStates;
+        private final int[] accepts;
+        private final boolean cached;
+        //Transitions are filled in racily, a reader seeing null just computes the (identical) target itself.
+        private final DfaState[] ascii = new DfaState[128];
+        //Transitions on other chars, replaced as a whole so lookups need no boxing or locking.
+        private volatile WideTransitions wide = WideTransitions.EMPTY;
+
+        private DfaState(int[] nfaStates, int[] accepts, boolean cached) {
+            this.nfaStates = nfaStates;
+            this.accepts = accepts.length == 0 ? NO_RULES : accepts;
+            this.cached = cached;
+        }
+
+        private DfaState wideTransition(char c) {
+            WideTransitions wide = this.wide;
+            int i = Arrays.binarySearch(wide.chars, c);
+            return i < 0 ? null : wide.targets[i];
+        }
+
+        private synchronized void addWideTransition(char c, DfaState target) {
+            WideTransitions wide = this.wide;
+            int i = Arrays.binarySearch(wide.chars, c);
+            if (i >= 0) return;
+            int at = -i - 1;
+            char[] chars = new char[wide.chars.length + 1];
+            DfaState[] targets = new DfaState[chars.length];
+            System.arraycopy(wide.chars, 0, chars, 0, at);
+            System.arraycopy(wide.targets, 0, targets, 0, at);
+            chars[at] = c;
+            targets[at] = target;
+            System.arraycopy(wide.chars, at, chars, at + 1, wide.chars.length - at);
+            System.arraycopy(wide.targets, at, targets, at + 1, wide.targets.length - at);
+            this.wide = new WideTransitions(chars, targets);
+        }
+    }
+
+    private static final class WideTransitions {
+        private static final WideTransitions EMPTY = new WideTransitions(new char[0], new DfaState[0]);
+        //Sorted chars and the target state of each.
+        private final char[] chars;
+        private final DfaState[] targets;
+
+        private WideTransitions(char[] chars, DfaState[] targets) {
+            this.chars = chars;
+            this.targets = targets;
+        }
+    }
+
+    private static final class StateKey {
+        private final int[] nfaStates;
+        private final int hash;
+
+        private StateKey(int[] nfaStates) {
+            this.nfaStates = nfaStates;
+            this.hash = Arrays.hashCode(nfaStates);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StateKey && Arrays.equals(nfaStates, ((StateKey) o).nfaStates);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class NfaBuilder {
+        private final List<CharClass> chars = new ArrayList<>();
+        private final List<Integer> next = new ArrayList<>();
+        private final List<Integer> alt = new ArrayList<>();
+        private final List<Integer> rule = new ArrayList<>();
+
+        private int add(CharClass c, int next, int alt, int rule) {
+            chars.add(c);
+            this.next.add(next);
+            this.alt.add(alt);
+            this.rule.add(rule);
+            return chars.size() - 1;
+        }
+
+        private int split(int first, int second) {
+            return add(null, first, second, -1);
+        }
+
+        /**
+         * Compiles the node so that a successful match continues at {@code continuation}.
+         * @return the entry state of the node.
+         */
+        private int compile(Node node, int continuation) {
+            if (node instanceof Atom) {
+                return add(((Atom) node).chars, continuation, -1, -1);
+            } else if (node instanceof Sequence) {
+                List<Node> items = ((Sequence) node).items;
+                int entry = continuation;
+                for (int i = items.size() - 1; i >= 0; i--) {
+                    entry = compile(items.get(i), entry);
+                }
+                return entry;
+            } else if (node instanceof Alternation) {
+                List<Node> options = ((Alternation) node).options;
+                int entry = compile(options.get(options.size() - 1), continuation);
+                for (int i = options.size() - 2; i >= 0; i--) {
+                    entry = split(compile(options.get(i), continuation), entry);
+                }
+                return entry;
+            }
+            Repeat repeat = (Repeat) node;
+            int entry = continuation;
+            if (repeat.max < 0) {
+                int loop = split(-1, continuation);
+                next.set(loop, compile(repeat.node, loop));
+                entry = loop;
+            } else {
+                for (int i = repeat.min; i < repeat.max; i++) {
+                    entry = split(compile(repeat.node, entry), continuation);
+                }
+            }
+            for (int i = 0; i < repeat.min; i++) {
+                entry = compile(repeat.node, entry);
+            }
+            return entry;
+        }
+    }
+
+    private abstract static class Node {
+        /**
+         * @return an upper bound of the number of NFA states the node compiles to.
+         */
+        abstract long size();
+    }
+
+    private static final class Atom extends Node {
+        private final CharClass chars;
+
+        private Atom(CharClass chars) {
+            this.chars = chars;
+        }
+
+        @Override
+        long size() {
+            return 1;
+        }
+    }
+
+    private static final class Sequence extends Node {
+        private final List<Node> items;
+
+        private Sequence(List<Node> items) {
+            this.items = items;
+        }
+
+        @Override
+        long size() {
+            return items.stream().mapToLong(Node::size).sum();
+        }
+    }
+
+    private static final class Alternation extends Node {
+        private final List<Node> options;
+
+        private Alternation(List<Node> options) {
+            this.options = options;
+        }
+
+        @Override
+        long size() {
+            return options.stream().mapToLong(Node::size).sum() + options.size();
+        }
+    }
+
+    private static final class Repeat extends Node {
+        private final Node node;
+        private final int min;
+        private final int max;
+
+        private Repeat(Node node, int min, int max) {
+            this.node = node;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        long size() {
+            return (node.size() + 1) * Math.max(1, Math.max(min, max));
+        }
+    }
+
+    /**
+     * Set of chars built from ranges, matched ignoring case like the jregex patterns it replaces.
+     */
+    private static final class CharClass {
+        private static final CharClass DOT = new CharClass(new int[]{'\n', '\n'}, true);
+        private final int[] ranges;
+        private final boolean negated;
+
+        private CharClass(int[] ranges, boolean negated) {
+            this.ranges = ranges;
+            this.negated = negated;
+        }
+
+        /**
+         * @param c a char folded to lower case
+         */
+        private boolean matches(char c) {
+            boolean found = contains(c) || contains(Character.toUpperCase(c));
+            return found != negated;
+        }
+
+        private boolean contains(char c) {
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (c >= ranges[i] && c <= ranges[i + 1]) return true;
+            }
+            return false;
+        }
+    }
+
+    static final class UnsupportedPatternException extends Exception {
+        UnsupportedPatternException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Recursive descent parser for the supported regex subset.
+     */
+    private static final class Parser {
+        private static final int[] DIGIT = {'0', '9'};
+        private static final int[] WORD = {'a', 'z', 'A', 'Z', '0', '9', '_', '_'};
+        private static final int[] SPACE = {' ', ' ', '\t', '\r'};
+
+        private final String pattern;
+        private int pos;
+
+        private Parser(String pattern) {
+            this.pattern = pattern;
+        }
+
+        private Node parse() throws UnsupportedPatternException {
+            Node node = alternation();
+            if (pos != pattern.length()) {
+                throw new UnsupportedPatternException("unbalanced ')' at " + pos);
+            }
+            return node;
+        }
+
+        private Node alternation() throws UnsupportedPatternException {
+            List<Node> options = new ArrayList<>();
+            options.add(sequence());
+            while (pos < pattern.length() && pattern.charAt(pos) == '|') {
+                pos++;
+                options.add(sequence());
+            }
+            return options.size() == 1 ? options.get(0) : new Alternation(options);
+        }
+
+        private Node sequence() throws UnsupportedPatternException {
+            List<Node> items = new ArrayList<>();
+            while (pos < pattern.length() && pattern.charAt(pos) != '|' && pattern.charAt(pos) != ')') {
+                Node atom = atom();
+                if (atom != null) {
+                    items.add(quantified(atom));
+                }
+            }
+            return new Sequence(items);
+        }
+
+        private Node quantified(Node atom) throws UnsupportedPatternException {
+            if (pos >= pattern.length()) return atom;
+            int min;
+            int max;
+            switch (pattern.charAt(pos)) {
+                case '*': min = 0; max = -1; pos++; break;
+                case '+': min = 1; max = -1; pos++; break;
+                case '?': min = 0; max = 1; pos++; break;
+                case '{': {
+                    int close = pattern.indexOf('}', pos);
+                    String[] bounds = close < 0 ? new String[0] : pattern.substring(pos + 1, close).split(",", -1);
+                    try {
+                        min = Integer.parseInt(bounds[0]);
+                        max = bounds.length == 1 ? min : bounds[1].isEmpty() ? -1 : Integer.parseInt(bounds[1]);
+                    } catch (RuntimeException e) {
+                        throw new UnsupportedPatternException("unsupported '{' at " + pos);
+                    }
+                    if (bounds.length > 2 || max >= 0 && max < min) {
+                        throw new UnsupportedPatternException("invalid repetition at " + pos);
+                    }
+                    pos = close + 1;
+                    break;
+                }
+                default:
+                    return atom;
+            }
+            if (pos < pattern.length() && pattern.charAt(pos) == '?') {
+                //Lazy quantifiers accept the same inputs when the whole input has to match.
+                pos++;
+            } else if (pos < pattern.length() && pattern.charAt(pos) == '+') {
+                throw new UnsupportedPatternException("possessive quantifier at " + pos);
+            }
+            return new Repeat(atom, min, max);
+        }
+
+        /**
+         * @return the next atom, or null for anchors which are implied since the whole input has to match.
+         */
+        private Node atom() throws UnsupportedPatternException {
+            int at = pos;
+            char c = pattern.charAt(pos++);
+            switch (c) {
+                case '(':
+                    if (pattern.startsWith("?:", pos)) {
+                        pos += 2;
+                    } else if (pos < pattern.length() && pattern.charAt(pos) == '?') {
+                        throw new UnsupportedPatternException("lookaround or inline flags at " + at);
+                    }
+                    Node group = alternation();
+                    if (pos >= pattern.length() || pattern.charAt(pos) != ')') {
+                        throw new UnsupportedPatternException("unclosed group at " + at);
+                    }
+                    pos++;
+                    return group;
+                case '[':
+                    return new Atom(charClass());
+                case '.':
+                    return new Atom(CharClass.DOT);
+                case '\\':
+                    return new Atom(escape(false));
+                case '^':
+                    if (at == 0) return null;
+                    throw new UnsupportedPatternException("'^' not at the start at " + at);
+                case '$':
+                    if (pos == pattern.length()) return null;
+                    throw new UnsupportedPatternException("'$' not at the end at " + at);
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    throw new UnsupportedPatternException("dangling '" + c + "' at " + at);
+                default:
+                    return new Atom(new CharClass(new int[]{c, c}, false));
+            }
+        }
+
+        private CharClass charClass() throws UnsupportedPatternException {
+            int at = pos - 1;
+            boolean negated = pos < pattern.length() && pattern.charAt(pos) == '^';
+            if (negated) pos++;
+            List<Integer> ranges = new ArrayList<>();
+            boolean first = true;
+            while (true) {
+                if (pos >= pattern.length()) {
+                    throw new UnsupportedPatternException("unclosed class at " + at);
+                }
+                char c = pattern.charAt(pos);
+                if (c == ']' && !first) {
+                    pos++;
+                    break;
+                }
+                if (c == '[' || c == ']' || pattern.startsWith("&&", pos)) {
+                    throw new UnsupportedPatternException("nested class at " + pos);
+                }
+                first = false;
+                pos++;
+                int[] item = c == '\\' ? escape(true).ranges : new int[]{c, c};
+                if (item.length == 2 && item[0] == item[1] && pos + 1 < pattern.length() && pattern.charAt(pos) == '-'
+                        && pattern.charAt(pos + 1) != ']') {
+                    pos++;
+                    char end = pattern.charAt(pos++);
+                    int[] endItem = end == '\\' ? escape(true).ranges : new int[]{end, end};
+                    if (endItem.length != 2 || endItem[0] != endItem[1] || endItem[0] < item[0]) {
+                        throw new UnsupportedPatternException("invalid range at " + pos);
+                    }
+                    item = new int[]{item[0], endItem[0]};
+                }
+                for (int i : item) {
+                    ranges.add(i);
+                }
+            }
+            return new CharClass(ranges.stream().mapToInt(Integer::intValue).toArray(), negated);
+        }
+
+        private CharClass escape(boolean inClass) throws UnsupportedPatternException {
+            if (pos >= pattern.length()) {
+                throw new UnsupportedPatternException("trailing '\\'");
+            }
+            int at = pos - 1;
+            char c = pattern.charAt(pos++);
+            switch (c) {
+                case 'd': return new CharClass(DIGIT, false);
+                case 'w': return new CharClass(WORD, false);
+                case 's': return new CharClass(SPACE, false);
+                case 'D':
+                case 'W':
+                case 'S':
+                    if (inClass) throw new UnsupportedPatternException("negated shorthand in class at " + at);
+                    return new CharClass(c == 'D' ? DIGIT : c == 'W' ? WORD : SPACE, true);
+                case 't': return literal('\t');
+                case 'n': return literal('\n');
+                case 'r': return literal('\r');
+                case 'f': return literal('\f');
+                case 'x':
+                case 'u': {
+                    int length = c == 'x' ? 2 : 4;
+                    try {
+                        char value = (char) Integer.parseInt(pattern.substring(pos, pos + length), 16);
+                        pos += length;
+                        return literal(value);
+                    } catch (RuntimeException e) {
+                        throw new UnsupportedPatternException("invalid hex escape at " + at);
+                    }
+                }
+                default:
+                    if (Character.isLetterOrDigit(c)) {
+                        throw new UnsupportedPatternException("unsupported escape '\\" + c + "' at " + at);
+                    }
+                    return literal(c);
+            }
+        }
+
+        private static CharClass literal(char c) {
+            return new CharClass(new int[]{c, c}, false);
+        }
+    }
+}
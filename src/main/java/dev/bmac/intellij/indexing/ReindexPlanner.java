@@ -0,0 +1,216 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileBasedIndexExtension;
+import com.intellij.util.indexing.ID;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Works out what has to be reindexed when the filter settings change, instead of bumping the filter version and
+ * rebuilding every index for every file.
+ * <p>
+ * Indexes switched on or off as a whole (the TODO toggle and index families) are rebuilt. For the path rules, only files
+ * whose verdict flips for at least one index are reindexed. The platform can only reindex a file for all of its
+ * indexes, so the flipped indexes are not tracked further than that.
+ **/
+class ReindexPlanner {
+    private static final Logger LOGGER = Logger.getInstance(ReindexPlanner.class);
+
+    private final FilterSnapshot before;
+    private final FilterSnapshot after;
+    private final List<ID<?, ?>> rebuiltIndexes = new ArrayList<>();
+    private final List<ID<?, ?>> fileIndexes = new ArrayList<>();
+
+    ReindexPlanner(FilterSnapshot before, FilterSnapshot after, List<ID<?, ?>> indexes) {
+        this.before = before;
+        this.after = after;
+        for (ID<?, ?> index : indexes) {
+            if (before.excludesWholeIndex(index) != after.excludesWholeIndex(index)) {
+                rebuiltIndexes.add(index);
+            } else if (!after.excludesWholeIndex(index) && (before.affectsIndex(index) || after.affectsIndex(index))) {
+                fileIndexes.add(index);
+            }
+        }
+    }
+
+    static List<ID<?, ?>> registeredIndexes() {
+        return FileBasedIndexExtension.EXTENSION_POINT_NAME.getExtensionList().stream()
+                .map(FileBasedIndexExtension::getName).collect(Collectors.toList());
+    }
+
+    /**
+     * @return the indexes to rebuild for all files.
+     */
+    List<ID<?, ?>> getRebuiltIndexes() {
+        return rebuiltIndexes;
+    }
+
+    /**
+     * @return true if path rules, the generated content switch or the indexes generated content is excluded from
+     * changed, and files may need to be reindexed.
+     */
+    boolean hasPathChanges() {
+        return !before.rules.equals(after.rules) ||
+                !Objects.equals(before.generatedContentSelection, after.generatedContentSelection);
+    }
+
+    /**
+     * @return true if the file is in or out of an index it was not before, apart from the rebuilt indexes.
+     */
+    boolean needsReindex(VirtualFile file) {
+        int ruleBefore = before.findRule(file);
+        int ruleAfter = after.findRule(file);
+        if (ruleBefore < 0 && ruleAfter < 0 && !before.hasContentRules() && !after.hasContentRules()) return false;
+        for (ID<?, ?> index : fileIndexes) {
+            if (before.isExcluded(file, ruleBefore, index) != after.isExcluded(file, ruleAfter, index)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Requests the rebuilds right away and collects the files to reindex in a background task, over the indexable
+     * files of every open project.
+     * @param reindexed run once every reindex was requested, not if the task was cancelled
+     */
+    void schedule(Runnable reindexed) {
+        FileBasedIndex fileBasedIndex = FileBasedIndex.getInstance();
+        for (ID<?, ?> index : rebuiltIndexes) {
+            LOGGER.info("Rebuilding index " + index.getName() + " after index exclusion settings changed");
+            fileBasedIndex.requestRebuild(index);
+            IndexStorageAnalyzer.invalidate();
+        }
+        if (!hasPathChanges()) {
+            reindexed.run();
+            return;
+        }
+        reindexFlipped(Arrays.asList(ProjectManager.getInstance().getOpenProjects()), this::needsReindex, reindexed);
+    }
+
+    /**
+     * Reindexes what a change of a project's exclusions flips, in the same way as for the application exclusions.
+     * Files no exclusion of the project matches, before or after, keep the verdict of the application exclusions.
+     */
+    static void scheduleProject(FilterSnapshot snapshot, ProjectScopes before, ProjectScopes after, Project project,
+                                List<ID<?, ?>> indexes) {
+        List<ID<?, ?>> affected = indexes.stream()
+                .filter(index -> before.affectsIndex(index) || after.affectsIndex(index)).collect(Collectors.toList());
+        if (affected.isEmpty()) return;
+        reindexFlipped(Collections.singletonList(project), file -> {
+            ProjectScopes.Scope scopeBefore = before.find(file);
+            ProjectScopes.Scope scopeAfter = after.find(file);
+            int ruleBefore = scopeBefore == null ? -1 : scopeBefore.rules.getMatchingRule(file, scopeBefore.root);
+            int ruleAfter = scopeAfter == null ? -1 : scopeAfter.rules.getMatchingRule(file, scopeAfter.root);
+            if (ruleBefore < 0 && ruleAfter < 0) return false;
+            int rule = snapshot.findRule(file);
+            for (ID<?, ?> index : affected) {
+                boolean excludedBefore = ruleBefore >= 0 ? scopeBefore.rules.isExcluded(ruleBefore, index) :
+                        snapshot.isExcluded(file, rule, index);
+                boolean excludedAfter = ruleAfter >= 0 ? scopeAfter.rules.isExcluded(ruleAfter, index) :
+                        snapshot.isExcluded(file, rule, index);
+                if (excludedBefore != excludedAfter) return true;
+            }
+            return false;
+        }, null);
+    }
+
+    /**
+     * Reindexes the files under directories whose ignore files changed, in a background task, if the change flips
+     * them. Only the subtree of a changed ignore file can be affected, so the rest of the projects is not visited.
+     * @param directories directories of the changed ignore files, with whether a file under them flipped
+     * @param flippedFile called with every flipped file and directory before any reindex is requested, to drop their
+     * cached verdicts
+     */
+    static void scheduleIgnoreFiles(Map<VirtualFile, Predicate<VirtualFile>> directories,
+                                    Consumer<VirtualFile> flippedFile) {
+        FileBasedIndex fileBasedIndex = FileBasedIndex.getInstance();
+        ProgressManager.getInstance().run(new Task.Backgroundable(null, "Finding files affected by ignore files", true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                Set<VirtualFile> files = new LinkedHashSet<>();
+                directories.forEach((directory, flipped) -> {
+                    if (!directory.isValid()) return;
+                    VfsUtilCore.iterateChildrenRecursively(directory, null, file -> {
+                        indicator.checkCanceled();
+                        if (!files.contains(file) && flipped.test(file)) {
+                            flippedFile.accept(file);
+                            if (!file.isDirectory()) {
+                                files.add(file);
+                            }
+                        }
+                        return true;
+                    });
+                });
+                LOGGER.info("Reindexing " + files.size() + " files after ignore files changed in " +
+                        directories.size() + " directories");
+                for (VirtualFile file : files) {
+                    fileBasedIndex.requestReindex(file);
+                }
+                if (!files.isEmpty()) {
+                    IndexStorageAnalyzer.invalidate();
+                }
+            }
+        });
+    }
+
+    /**
+     * Collects the files to reindex in a background task, over the indexable files of the projects. Files only
+     * indexed by projects that are not open keep their old verdicts.
+     * @param reindexed run once every reindex was requested, or null
+     */
+    private static void reindexFlipped(Collection<Project> projects, Predicate<VirtualFile> flipped,
+                                       @Nullable Runnable reindexed) {
+        FileBasedIndex fileBasedIndex = FileBasedIndex.getInstance();
+        ProgressManager.getInstance().run(new Task.Backgroundable(null, "Finding files affected by index exclusions", true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                Set<VirtualFile> files = new LinkedHashSet<>();
+                int[] checked = {0};
+                for (Project project : projects) {
+                    if (project.isDisposed()) continue;
+                    fileBasedIndex.iterateIndexableFiles(file -> {
+                        indicator.checkCanceled();
+                        if (file.isDirectory()) return true;
+                        checked[0]++;
+                        if (!files.contains(file) && flipped.test(file)) {
+                            files.add(file);
+                        }
+                        return true;
+                    }, project, indicator);
+                }
+                LOGGER.info("Reindexing " + files.size() + " of " + checked[0] +
+                        " files after index exclusion rules changed");
+                for (VirtualFile file : files) {
+                    fileBasedIndex.requestReindex(file);
+                }
+                if (!files.isEmpty()) {
+                    IndexStorageAnalyzer.invalidate();
+                }
+                if (reindexed != null) {
+                    reindexed.run();
+                }
+            }
+        });
+    }
+}
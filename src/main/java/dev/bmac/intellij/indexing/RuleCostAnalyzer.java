@@ -0,0 +1,431 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.util.text.StringUtil;
+import dev.bmac.intellij.settings.IndexExclusion;
+import jregex.PatternSyntaxException;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Works out what a path regex will cost the filter before it is saved: which path of {@link FuzzyRegex} it takes,
+ * constructs prone to catastrophic backtracking, and the time it takes over a sample of real project paths.
+ * Suggests an equivalent faster form where one is known, checked to match the same sample paths.
+ **/
+public class RuleCostAnalyzer {
+    //Paths a suggestion is checked to match like the pattern on.
+    private static final int EQUIVALENCE_SAMPLES = 20;
+    //Timing stops after this long, a pattern this slow on a sample is reported from the paths timed so far.
+    private static final long TIMING_BUDGET_NANOS = 2_000_000_000L;
+    private static final Pattern EXTENSIONS = Pattern.compile("\\.\\*\\\\\\.(?:([a-z0-9]+(?:\\\\\\.[a-z0-9]+)*)|" +
+            "\\(((?:\\?:)?[a-z0-9]+(?:\\|[a-z0-9]+)*)\\))", Pattern.CASE_INSENSITIVE);
+    private static final Pattern FILE_NAME = Pattern.compile("\\.\\*/((?:[a-z0-9_-]|\\\\\\.)+)", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * How a rule is evaluated by {@link FuzzyRegex}, cheapest first.
+     */
+    public enum CostClass {
+        LITERAL("Literal fast path, no regular expression runs"),
+        PREFILTERED("Fuzzy prefiltered, the regular expression only runs on paths containing its literal"),
+        FULL_REGEX("Full regular expression on every path");
+
+        private final String description;
+
+        CostClass(String description) {
+            this.description = description;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    /**
+     * @param paths sample paths to time the pattern on, see {@link #samplePaths}
+     */
+    public static Report analyze(String pattern, List<String> paths) {
+        FuzzyRegex rule;
+        try {
+            rule = new FuzzyRegex(pattern);
+        } catch (PatternSyntaxException | IllegalArgumentException e) {
+            return new Report(pattern, e.getMessage());
+        }
+        Report report = new Report(pattern, null);
+        report.costClass = costClass(rule);
+        report.hazards = findHazards(pattern);
+        report.dfaFallbackReason = new RegexDfa(Collections.singletonList(pattern)).getUnsupportedReason(0);
+        //A hazard can make a single match run for minutes, with no way to interrupt jregex. Such patterns are not run.
+        if (report.hazards.isEmpty()) {
+            time(rule, paths, report);
+        }
+        report.suggestion = suggest(pattern, report.costClass, report.hazards, paths);
+        return report;
+    }
+
+    private static CostClass costClass(FuzzyRegex rule) {
+        if (!rule.requiresPatternMatch()) return CostClass.LITERAL;
+        return rule.getFuzzyMatch() != null ? CostClass.PREFILTERED : CostClass.FULL_REGEX;
+    }
+
+    /**
+     * Times the rule on the paths, within {@link #TIMING_BUDGET_NANOS} and cancellable between paths. Only for
+     * patterns without backtracking hazards, the time of a single match is not bounded.
+     */
+    private static void time(FuzzyRegex rule, List<String> paths, Report report) {
+        if (paths.isEmpty()) return;
+        long deadline = System.nanoTime() + TIMING_BUDGET_NANOS;
+        //Once untimed, so the thread local matcher is created and the code warm.
+        for (int i = 0; i < paths.size() && i < EQUIVALENCE_SAMPLES; i++) {
+            ProgressManager.checkCanceled();
+            rule.matches(paths.get(i));
+        }
+        long total = 0;
+        int samples = 0;
+        for (String path : paths) {
+            ProgressManager.checkCanceled();
+            if (System.nanoTime() > deadline) break;
+            long start = System.nanoTime();
+            rule.matches(path);
+            long elapsed = System.nanoTime() - start;
+            total += elapsed;
+            if (elapsed > report.slowestNanos) {
+                report.slowestNanos = elapsed;
+                report.slowestPath = path;
+            }
+            samples++;
+        }
+        report.samples = samples;
+        report.nanosPerPath = samples == 0 ? 0 : total / (double) samples;
+    }
+
+    /**
+     * Scans the pattern for nested unbounded quantifiers, such as (a+)+, alternations under an unbounded quantifier,
+     * such as (a|ab)*, and consecutive wildcards, such as .*.*, which make a backtracking matcher retry the same input
+     * in exponentially or polynomially many ways when a path does not match.
+     */
+    static List<String> findHazards(String pattern) {
+        List<String> hazards = new ArrayList<>();
+        Deque<Group> groups = new ArrayDeque<>();
+        Group top = new Group(0);
+        Group closed = null;
+        int previousWildcardStart = -1;
+        int previousWildcardEnd = -1;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            int atomStart = i;
+            Group atomGroup = null;
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                i = classEnd(pattern, i);
+            } else if (c == '(') {
+                groups.push(top);
+                top = new Group(i);
+                continue;
+            } else if (c == ')') {
+                if (groups.isEmpty()) continue;
+                closed = top;
+                top = groups.pop();
+                top.unbounded |= closed.unbounded;
+                atomGroup = closed;
+            } else if (c == '|') {
+                top.alternation = true;
+                continue;
+            }
+            int quantifierEnd = unboundedQuantifierEnd(pattern, i + 1);
+            if (quantifierEnd < 0) continue;
+            if (atomGroup != null && atomGroup.unbounded) {
+                hazards.add("Nested quantifier " + pattern.substring(atomGroup.start, quantifierEnd));
+            } else if (atomGroup != null && atomGroup.alternation) {
+                hazards.add("Alternation under a quantifier " + pattern.substring(atomGroup.start, quantifierEnd));
+            }
+            if (c == '.' && atomStart == i) {
+                if (atomStart == previousWildcardEnd) {
+                    hazards.add("Consecutive wildcards " + pattern.substring(previousWildcardStart, quantifierEnd));
+                }
+                previousWildcardStart = atomStart;
+                previousWildcardEnd = quantifierEnd;
+            }
+            top.unbounded = true;
+            i = quantifierEnd - 1;
+        }
+        return hazards;
+    }
+
+    private static int classEnd(String pattern, int start) {
+        int i = start + 1;
+        if (i < pattern.length() && pattern.charAt(i) == '^') i++;
+        //A leading ] is literal.
+        if (i < pattern.length() && pattern.charAt(i) == ']') i++;
+        while (i < pattern.length() && pattern.charAt(i) != ']') {
+            if (pattern.charAt(i) == '\\') i++;
+            i++;
+        }
+        return Math.min(i, pattern.length() - 1);
+    }
+
+    /**
+     * @return the end of a *, + or {n,} quantifier starting at the position, including a lazy or possessive suffix,
+     * or -1 if there is none.
+     */
+    private static int unboundedQuantifierEnd(String pattern, int start) {
+        if (start >= pattern.length()) return -1;
+        int end;
+        char c = pattern.charAt(start);
+        if (c == '*' || c == '+') {
+            end = start + 1;
+        } else if (c == '{') {
+            int close = pattern.indexOf('}', start);
+            if (close < 0 || !pattern.substring(start + 1, close).matches("\\d+,")) return -1;
+            end = close + 1;
+        } else {
+            return -1;
+        }
+        if (end < pattern.length() && (pattern.charAt(end) == '?' || pattern.charAt(end) == '+')) end++;
+        return end;
+    }
+
+    /**
+     * @return a faster form matching the same sample paths, or null if none is known.
+     */
+    @Nullable
+    private static Suggestion suggest(String pattern, CostClass costClass, List<String> hazards, List<String> paths) {
+        Matcher extensions = EXTENSIONS.matcher(pattern);
+        if (extensions.matches()) {
+            String list = extensions.group(1) != null ? extensions.group(1).replace("\\.", ".") :
+                    StringUtil.trimStart(extensions.group(2), "?:").replace("|", ", ");
+            return new Suggestion(IndexExclusion.Syntax.EXTENSION, list.toLowerCase(Locale.US),
+                    "Extensions are a hash lookup on the file name, ignoring case");
+        }
+        Matcher fileName = FILE_NAME.matcher(pattern);
+        if (fileName.matches() && costClass != CostClass.LITERAL) {
+            return new Suggestion(IndexExclusion.Syntax.GLOB, "**/" + fileName.group(1).replace("\\.", "."),
+                    "Globs are matched segment by segment without backtracking, but they are case sensitive");
+        }
+        String simplified = simplify(pattern);
+        if (simplified.equals(pattern)) return null;
+        FuzzyRegex faster;
+        FuzzyRegex original;
+        try {
+            faster = new FuzzyRegex(simplified);
+            original = new FuzzyRegex(pattern);
+        } catch (PatternSyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+        CostClass fasterClass = costClass(faster);
+        boolean cheaper = fasterClass.compareTo(costClass) < 0;
+        boolean safer = findHazards(simplified).size() < hazards.size();
+        if (fasterClass.compareTo(costClass) > 0 || !cheaper && !safer) return null;
+        List<String> samples = paths.subList(0, Math.min(EQUIVALENCE_SAMPLES, paths.size()));
+        if (hazards.isEmpty()) {
+            for (String path : samples) {
+                ProgressManager.checkCanceled();
+                if (faster.matches(path) != original.matches(path)) return null;
+            }
+        } else if (!matchSameWithoutBacktracking(pattern, simplified, samples)) {
+            return null;
+        }
+        return new Suggestion(IndexExclusion.Syntax.REGEX, simplified,
+                cheaper ? fasterClass.toString() : "Same matches without the repeated backtracking");
+    }
+
+    /**
+     * Compares the matches of two patterns with the DFA, in linear time whatever the hazards of the patterns.
+     * @return false if they differ on a path, or the DFA cannot express one of them.
+     */
+    private static boolean matchSameWithoutBacktracking(String pattern, String other, List<String> paths) {
+        RegexDfa dfa = new RegexDfa(Arrays.asList(pattern, other));
+        if (dfa.getUnsupportedReason(0) != null || dfa.getUnsupportedReason(1) != null) return false;
+        for (String path : paths) {
+            ProgressManager.checkCanceled();
+            int[] matches = dfa.matchAll(path);
+            if (matches.length == 1) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Drops what does not change a whole path match: anchors, capturing groups around wildcards and repeated
+     * wildcards.
+     */
+    static String simplify(String pattern) {
+        String simplified = pattern;
+        if (simplified.startsWith("^")) {
+            simplified = simplified.substring(1);
+        }
+        if (simplified.endsWith("$") && !simplified.endsWith("\\$")) {
+            simplified = simplified.substring(0, simplified.length() - 1);
+        }
+        simplified = simplified.replace("(?:.*)", ".*").replace("(.*)", ".*");
+        while (simplified.contains(".*.*")) {
+            simplified = simplified.replace(".*.*", ".*");
+        }
+        return simplified;
+    }
+
+    /**
+     * @return up to limit paths of files in the content of the projects, sampled evenly from the first 50 times as
+     * many files.
+     */
+    public static List<String> samplePaths(Collection<Project> projects, int limit, ProgressIndicator indicator) {
+        List<String> sample = new ArrayList<>();
+        Random random = new Random(0);
+        int[] seen = {0};
+        for (Project project : projects) {
+            if (project.isDisposed()) continue;
+            ReadAction.run(() -> ProjectFileIndex.getInstance(project).iterateContent(file -> {
+                indicator.checkCanceled();
+                if (file.isDirectory()) return true;
+                //Reservoir sampling, every file seen has the same chance to be in the sample.
+                int index = seen[0]++;
+                if (index < limit) {
+                    sample.add(file.getPath());
+                } else {
+                    int slot = random.nextInt(index + 1);
+                    if (slot < limit) {
+                        sample.set(slot, file.getPath());
+                    }
+                }
+                return seen[0] < limit * 50;
+            }));
+        }
+        return sample;
+    }
+
+    private static final class Group {
+        private final int start;
+        private boolean unbounded;
+        private boolean alternation;
+
+        private Group(int start) {
+            this.start = start;
+        }
+    }
+
+    /**
+     * A faster exclusion matching the same paths.
+     */
+    public static final class Suggestion {
+        private final IndexExclusion.Syntax syntax;
+        private final String path;
+        private final String reason;
+
+        private Suggestion(IndexExclusion.Syntax syntax, String path, String reason) {
+            this.syntax = syntax;
+            this.path = path;
+            this.reason = reason;
+        }
+
+        public IndexExclusion.Syntax getSyntax() {
+            return syntax;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    public static final class Report {
+        private final String pattern;
+        @Nullable
+        private final String error;
+        private CostClass costClass;
+        private List<String> hazards = Collections.emptyList();
+        @Nullable
+        private String dfaFallbackReason;
+        private int samples;
+        private double nanosPerPath;
+        private long slowestNanos;
+        @Nullable
+        private String slowestPath;
+        @Nullable
+        private Suggestion suggestion;
+
+        private Report(String pattern, @Nullable String error) {
+            this.pattern = pattern;
+            this.error = error;
+        }
+
+        public String getPattern() {
+            return pattern;
+        }
+
+        /**
+         * @return why the pattern does not compile, or null if it does.
+         */
+        @Nullable
+        public String getError() {
+            return error;
+        }
+
+        public CostClass getCostClass() {
+            return costClass;
+        }
+
+        public List<String> getHazards() {
+            return hazards;
+        }
+
+        /**
+         * @return why the DFA engine falls back to jregex for the pattern, or null if it compiles into the DFA.
+         */
+        @Nullable
+        public String getDfaFallbackReason() {
+            return dfaFallbackReason;
+        }
+
+        /**
+         * @return the paths the pattern was timed on. 0 for patterns with backtracking hazards, which are too slow to
+         * measure safely.
+         */
+        public int getSamples() {
+            return samples;
+        }
+
+        public double getNanosPerPath() {
+            return nanosPerPath;
+        }
+
+        public long getSlowestNanos() {
+            return slowestNanos;
+        }
+
+        @Nullable
+        public String getSlowestPath() {
+            return slowestPath;
+        }
+
+        @Nullable
+        public Suggestion getSuggestion() {
+            return suggestion;
+        }
+
+        /**
+         * @return true if there is nothing to warn about: the pattern compiles, takes the literal fast path and has
+         * no hazards.
+         */
+        public boolean isFast() {
+            return error == null && costClass == CostClass.LITERAL && hazards.isEmpty() && suggestion == null;
+        }
+    }
+}
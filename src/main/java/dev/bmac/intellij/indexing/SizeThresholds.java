@@ -0,0 +1,81 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.indexing.IndexId;
+import dev.bmac.intellij.settings.IndexExclusion;
+import dev.bmac.intellij.settings.PluginSettings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Exclusions applying only to files above a size, checked on top of the first matching path exclusion.
+ * <p>
+ * A file's size changes with its content, so these are never part of the cached path verdict. They are checked on
+ * each decision instead, cheaply: the length is a cached VFS attribute and files below the smallest threshold stop
+ * there. The index selection is a bit test, and the optional path of the exclusion is only matched for the few files
+ * that are large enough.
+ **/
+class SizeThresholds {
+    //Settings position of each size exclusion.
+    private final int[] rules;
+    private final long[] thresholds;
+    private final long smallest;
+    private final IndexDecisionTable indexes;
+    //Files each size exclusion is limited to, or null for any file.
+    private final List<Predicate<VirtualFile>> scopes = new ArrayList<>();
+
+    SizeThresholds(PluginSettings.MatcherEngine engine, List<IndexExclusion> exclusions) {
+        List<Integer> rules = new ArrayList<>();
+        List<Predicate<String>> indexes = new ArrayList<>();
+        long smallest = Long.MAX_VALUE;
+        for (int rule = 0; rule < exclusions.size(); rule++) {
+            IndexExclusion exclusion = exclusions.get(rule);
+            if (!exclusion.hasSizeThreshold()) continue;
+            rules.add(rule);
+            indexes.add(IndexDecisionTable.toPredicate(exclusion.getIndexerNameExclusion()));
+            smallest = Math.min(smallest, exclusion.getSizeThreshold());
+            scopes.add(scope(engine, exclusion));
+        }
+        this.rules = rules.stream().mapToInt(Integer::intValue).toArray();
+        this.thresholds = rules.stream().mapToLong(rule -> exclusions.get(rule).getSizeThreshold()).toArray();
+        this.smallest = smallest;
+        this.indexes = new IndexDecisionTable(indexes);
+    }
+
+    private static Predicate<VirtualFile> scope(PluginSettings.MatcherEngine engine, IndexExclusion exclusion) {
+        if (StringUtil.isEmptyOrSpaces(exclusion.getPath())) return null;
+        IndexExclusion scope = exclusion.copy();
+        scope.setSizeThreshold(0);
+        List<IndexExclusion> scopes = Collections.singletonList(scope);
+        if (!scope.getSyntax().isPath()) {
+            FileRuleMatcher kinds = new FileRuleMatcher(engine, scopes);
+            return file -> kinds.firstMatch(file, null) >= 0;
+        }
+        PathMatcher matcher = IndexFilter.createPathMatcher(engine, scopes);
+        return file -> matcher.firstMatch(PathBuffer.of(file)) >= 0;
+    }
+
+    boolean isEmpty() {
+        return rules.length == 0;
+    }
+
+    /**
+     * @return the first size exclusion excluding the file from the index, or -1.
+     */
+    int firstExcluding(VirtualFile file, IndexId<?, ?> indexId) {
+        if (rules.length == 0 || file.isDirectory()) return -1;
+        long length = file.getLength();
+        if (length <= smallest) return -1;
+        for (int i = 0; i < rules.length; i++) {
+            if (length > thresholds[i] && indexes.isExcluded(i, indexId) &&
+                    (scopes.get(i) == null || scopes.get(i).test(file))) {
+                return rules[i];
+            }
+        }
+        return -1;
+    }
+}
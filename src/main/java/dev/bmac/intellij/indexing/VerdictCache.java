@@ -0,0 +1,137 @@
+package dev.bmac.intellij.indexing;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded cache from a VFS file id to an int verdict (the matching rule index, or -1 for no match).
+ * <p>
+ * Entries are packed into a single long (id in the high half, verdict in the low half) and stored in striped
+ * open addressing tables, so an entry costs 8 bytes plus the table's free slots and lookups never allocate.
+ * Reads are lock free, writes lock only their stripe. When a stripe is full it is cleared rather than evicting
+ * single entries, which keeps both the bound and the write path trivial.
+ **/
+class VerdictCache {
+    static final int MISS = Integer.MIN_VALUE;
+    private static final int STRIPES = 64;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    VerdictCache(int maxEntries) {
+        int perStripe = Math.max(1, maxEntries / STRIPES);
+        int capacity = Integer.highestOneBit(Math.max(2, (int) (perStripe / LOAD_FACTOR)) - 1) << 1;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(capacity, perStripe);
+        }
+    }
+
+    /**
+     * @return the cached verdict, or {@link #MISS}.
+     */
+    int get(int fileId) {
+        int hash = mix(fileId);
+        return stripes[hash & (STRIPES - 1)].get(fileId, hash >>> 6);
+    }
+
+    void put(int fileId, int verdict) {
+        int hash = mix(fileId);
+        stripes[hash & (STRIPES - 1)].put(fileId, hash >>> 6, verdict);
+    }
+
+    /**
+     * Forgets the verdict of a single file, for example after it was renamed or moved.
+     */
+    void remove(int fileId) {
+        put(fileId, MISS);
+    }
+
+    void invalidateAll() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    /**
+     * @return the number of cached verdicts.
+     */
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size;
+        }
+        return size;
+    }
+
+    /**
+     * @return bytes currently allocated for the tables.
+     */
+    long allocatedBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            AtomicLongArray slots = stripe.slots;
+            bytes += slots == null ? 0 : 8L * slots.length();
+        }
+        return bytes;
+    }
+
+    private static int mix(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Stripe {
+        private final int capacity;
+        private final int maxEntries;
+        //Allocated on first write so an unused filter costs nothing.
+        private volatile AtomicLongArray slots;
+        private int size;
+
+        private Stripe(int capacity, int maxEntries) {
+            this.capacity = capacity;
+            this.maxEntries = maxEntries;
+        }
+
+        private int get(int fileId, int hash) {
+            AtomicLongArray slots = this.slots;
+            if (slots == null) return MISS;
+            int mask = capacity - 1;
+            for (int i = 0, slot = hash & mask; i < capacity; i++, slot = (slot + 1) & mask) {
+                long entry = slots.get(slot);
+                if (entry == 0) return MISS;
+                if ((int) (entry >>> 32) == fileId) return (int) entry;
+            }
+            return MISS;
+        }
+
+        private synchronized void put(int fileId, int hash, int verdict) {
+            if (slots == null) {
+                slots = new AtomicLongArray(capacity);
+            } else if (size >= maxEntries) {
+                clear();
+            }
+            int mask = capacity - 1;
+            long entry = ((long) fileId << 32) | (verdict & 0xFFFFFFFFL);
+            for (int i = 0, slot = hash & mask; i < capacity; i++, slot = (slot + 1) & mask) {
+                long existing = slots.get(slot);
+                if (existing == 0) {
+                    size++;
+                    slots.set(slot, entry);
+                    return;
+                }
+                if ((int) (existing >>> 32) == fileId) {
+                    slots.set(slot, entry);
+                    return;
+                }
+            }
+        }
+
+        private synchronized void clear() {
+            AtomicLongArray slots = this.slots;
+            if (slots == null) return;
+            for (int i = 0; i < slots.length(); i++) {
+                slots.lazySet(i, 0);
+            }
+            size = 0;
+        }
+    }
+}
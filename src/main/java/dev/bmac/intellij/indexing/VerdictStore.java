@@ -0,0 +1,230 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.openapi.diagnostic.Logger;
+import dev.bmac.intellij.settings.IndexExclusion;
+import dev.bmac.intellij.settings.PluginSettings;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Verdicts persisted in a memory mapped file, so a restart does not have to match every file again.
+ * <p>
+ * The file is an array of 8 byte entries indexed by VFS file id, after a header holding the version of the rules the
+ * verdicts were computed with and the current epoch. Each entry packs a stamp of the file's name and parent (catching
+ * ids reused by another file, or files moved while the IDE was closed) with the epoch it was written in and the
+ * verdict. Opening maps the file as is, nothing is parsed or copied. A file written for other rules, or with a broken
+ * header, is deleted and started over.
+ * <p>
+ * Forgetting every verdict only bumps the epoch, entries of older epochs read as misses and are overwritten as files
+ * are decided again.
+ * <p>
+ * Every rule set gets its own file name, a filter still finishing decisions with the previous rules can never write
+ * into the file of the new ones.
+ **/
+class VerdictStore {
+    private static final Logger LOGGER = Logger.getInstance(VerdictStore.class);
+    static final int MISS = VerdictCache.MISS;
+    private static final int MAGIC = 0x49584644;
+    private static final int FORMAT = 4;
+    private static final int HEADER_BYTES = 32;
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    private static final int EPOCH_OFFSET = 20;
+    //Entries hold the epoch and the verdict in 16 bits each, rules past this are not persisted.
+    private static final int MAX_VERDICT = 0xFFFE;
+    //File ids above this are not persisted, it bounds the file to 128MB (sparse on most file systems).
+    static final int MAX_CAPACITY = 1 << 24;
+    private static final String PREFIX = "verdicts-";
+    private static final String SUFFIX = ".dat";
+
+    private final Path file;
+    private final long version;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private volatile int epoch;
+    private volatile LongBuffer entries;
+
+    private VerdictStore(Path file, long version, FileChannel channel, MappedByteBuffer header, LongBuffer entries) {
+        this.file = file;
+        this.version = version;
+        this.channel = channel;
+        this.header = header;
+        this.epoch = header.getInt(EPOCH_OFFSET) & 0xFFFF;
+        this.entries = entries;
+    }
+
+    /**
+     * Opens the store of the given rules in the directory, deleting the stores of any other rules.
+     * @return the store, or null if it could not be opened, verdicts are then only cached in memory.
+     */
+    static VerdictStore open(Path directory, PluginSettings.MatcherEngine engine, List<IndexExclusion> rules) {
+        long version = version(engine, rules);
+        Path file = directory.resolve(PREFIX + Long.toHexString(version) + SUFFIX);
+        try {
+            Files.createDirectories(directory);
+            deleteOtherStores(directory, file);
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            int capacity = readCapacity(channel, version);
+            if (capacity < 0) {
+                if (channel.size() > 0) {
+                    LOGGER.info("Discarding persisted index exclusion verdicts in " + file);
+                }
+                channel.truncate(0);
+                capacity = INITIAL_CAPACITY;
+                writeHeader(channel, version, capacity);
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.order(ByteOrder.nativeOrder());
+            return new VerdictStore(file, version, channel, header, map(channel, capacity));
+        } catch (IOException e) {
+            LOGGER.warn("Could not open persisted index exclusion verdicts in " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the version of the verdicts for the rules. Verdicts only depend on the matcher engine, the rule paths,
+     * their syntax, whether they are size exclusions and their order, the excluded indexes are looked up on every
+     * decision.
+     */
+    static long version(PluginSettings.MatcherEngine engine, List<IndexExclusion> rules) {
+        //FNV-1a over the rule text, so the version does not depend on how the settings classes implement hashCode().
+        long hash = 0xcbf29ce484222325L ^ FORMAT;
+        hash = (hash ^ engine.ordinal()) * 0x100000001b3L;
+        for (IndexExclusion rule : rules) {
+            hash = (hash ^ rule.getSyntax().ordinal()) * 0x100000001b3L;
+            if (rule.hasSizeThreshold()) {
+                hash = (hash ^ 0xFFFE) * 0x100000001b3L;
+            }
+            String path = rule.getPath();
+            for (int i = 0; i < path.length(); i++) {
+                hash = (hash ^ path.charAt(i)) * 0x100000001b3L;
+            }
+            hash = (hash ^ 0xFFFF) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static void deleteOtherStores(Path directory, Path keep) throws IOException {
+        try (DirectoryStream<Path> stores = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path store : stores) {
+                if (store.equals(keep)) continue;
+                try {
+                    Files.deleteIfExists(store);
+                } catch (IOException e) {
+                    //Still mapped by this process (on Windows), cleaned up on a later start.
+                    LOGGER.debug("Could not delete " + store, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the capacity recorded in a valid header for the version, or -1 if the file has to be started over.
+     */
+    private static int readCapacity(FileChannel channel, long version) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_BYTES) return -1;
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+        header.order(ByteOrder.nativeOrder());
+        int capacity = header.getInt(16);
+        boolean valid = header.getInt(0) == MAGIC && header.getInt(4) == FORMAT && header.getLong(8) == version &&
+                capacity >= INITIAL_CAPACITY && capacity <= MAX_CAPACITY && Integer.bitCount(capacity) == 1 &&
+                header.getLong(24) == checksum(version, capacity) && size == HEADER_BYTES + 8L * capacity;
+        return valid ? capacity : -1;
+    }
+
+    private static void writeHeader(FileChannel channel, long version, int capacity) throws IOException {
+        //Extends the file first, the header only becomes valid once the whole file exists.
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + 8L * capacity);
+        mapped.order(ByteOrder.nativeOrder());
+        mapped.putInt(0, MAGIC);
+        mapped.putInt(4, FORMAT);
+        mapped.putLong(8, version);
+        mapped.putInt(16, capacity);
+        mapped.putLong(24, checksum(version, capacity));
+    }
+
+    private static long checksum(long version, int capacity) {
+        return (version * 31 + capacity) ^ MAGIC;
+    }
+
+    private static LongBuffer map(FileChannel channel, int capacity) throws IOException {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES, 8L * capacity);
+        return mapped.order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+
+    /**
+     * @param stamp hash of the file's name and parent, see {@link IndexFilter}
+     * @return the persisted verdict, or {@link #MISS}.
+     */
+    int get(int fileId, int stamp) {
+        LongBuffer entries = this.entries;
+        if (fileId >= entries.capacity()) return MISS;
+        long entry = entries.get(fileId);
+        if (entry == 0 || (int) (entry >>> 32) != stamp || ((int) entry >>> 16) != epoch) return MISS;
+        return ((int) entry & 0xFFFF) - 1;
+    }
+
+    void put(int fileId, int stamp, int verdict) {
+        if (fileId >= MAX_CAPACITY || verdict >= MAX_VERDICT) return;
+        LongBuffer entries = this.entries;
+        if (fileId >= entries.capacity()) {
+            entries = grow(fileId);
+            if (entries == null) return;
+        }
+        //Verdicts are -1 or a rule, stored shifted so an empty entry never reads as a verdict.
+        entries.put(fileId, ((long) stamp << 32) | ((long) epoch << 16) | (verdict + 1));
+    }
+
+    private synchronized LongBuffer grow(int fileId) {
+        LongBuffer entries = this.entries;
+        if (fileId < entries.capacity()) return entries;
+        int capacity = Math.min(MAX_CAPACITY, Integer.highestOneBit(fileId) << 1);
+        try {
+            writeHeader(channel, version, capacity);
+            return this.entries = map(channel, capacity);
+        } catch (IOException e) {
+            LOGGER.warn("Could not grow persisted index exclusion verdicts in " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Closes the file, the mapping stays valid for decisions still running with it but the store can no longer grow.
+     */
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.debug("Could not close " + file, e);
+        }
+    }
+
+    /**
+     * Forgets every verdict, for example after a directory was renamed or moved. Runs on the EDT, so it only moves to
+     * the next epoch. Only once the epochs wrap around are the entries cleared, so none of a previous round come back.
+     */
+    synchronized void invalidateAll() {
+        int epoch = (this.epoch + 1) & 0xFFFF;
+        if (epoch == 0) {
+            LongBuffer entries = this.entries;
+            for (int i = 0; i < entries.capacity(); i++) {
+                if (entries.get(i) != 0) {
+                    entries.put(i, 0);
+                }
+            }
+        }
+        header.putInt(EPOCH_OFFSET, epoch);
+        this.epoch = epoch;
+    }
+}
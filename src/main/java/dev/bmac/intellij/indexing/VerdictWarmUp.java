@@ -0,0 +1,150 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.concurrency.JobLauncher;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.vfs.VFileProperty;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.TimeoutUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Walks the content roots of a project when it opens and computes the verdicts of its files with
+ * {@link IndexFilter#evaluateChildren(VirtualFile)}, so the indexing threads mostly find them cached.
+ * <p>
+ * Directories are shared out through a queue, so a single large root is split between the workers as well. Workers
+ * back off while every core is busy: the warm-up only pays off as long as it does not slow down the indexing it runs
+ * ahead of.
+ **/
+final class VerdictWarmUp extends Task.Backgroundable {
+    private static final Logger LOGGER = Logger.getInstance(VerdictWarmUp.class);
+    private static final long BUSY_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final long BACK_OFF_MILLIS = 50;
+    private static final double BUSY_CPU_LOAD = 0.9;
+
+    private final IndexFilter filter;
+    private final Project project;
+    private final Queue<VirtualFile> directories = new ConcurrentLinkedQueue<>();
+    //Directories queued or being evaluated, the walk is done once none are left.
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger computed = new AtomicInteger();
+    private final AtomicInteger visited = new AtomicInteger();
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    private volatile long busyCheckedAt;
+    private volatile boolean busy;
+
+    VerdictWarmUp(IndexFilter filter, Project project) {
+        super(project, "Computing index exclusion verdicts", true);
+        this.filter = filter;
+        this.project = project;
+    }
+
+    @Override
+    public void run(@NotNull ProgressIndicator indicator) {
+        long start = System.nanoTime();
+        VirtualFile[] roots = ReadAction.compute(() -> project.isDisposed() ? VirtualFile.EMPTY_ARRAY :
+                ProjectRootManager.getInstance(project).getContentRoots());
+        for (VirtualFile root : roots) {
+            //Nested roots are reached from the root holding them.
+            if (!isNested(roots, root)) {
+                enqueue(root);
+            }
+        }
+        int workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        List<Integer> ids = IntStream.range(0, workers).boxed().collect(Collectors.toList());
+        JobLauncher.getInstance().invokeConcurrentlyUnderProgress(ids, indicator, worker -> {
+            work(indicator);
+            return true;
+        });
+        LOGGER.info("Computed " + computed.get() + " index exclusion verdicts in " + visited.get() + " directories of " +
+                project.getName() + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+
+    private static boolean isNested(VirtualFile[] roots, VirtualFile root) {
+        for (VirtualFile other : roots) {
+            if (VfsUtilCore.isAncestor(other, root, true)) return true;
+        }
+        return false;
+    }
+
+    private void enqueue(VirtualFile directory) {
+        pending.incrementAndGet();
+        directories.add(directory);
+    }
+
+    private void work(ProgressIndicator indicator) {
+        while (pending.get() > 0) {
+            indicator.checkCanceled();
+            if (project.isDisposed()) return;
+            VirtualFile directory = directories.poll();
+            if (directory == null) {
+                //Other workers are still listing the directories which will refill the queue.
+                TimeoutUtil.sleep(1);
+                continue;
+            }
+            try {
+                if (isBusy()) {
+                    TimeoutUtil.sleep(BACK_OFF_MILLIS);
+                }
+                evaluate(directory);
+            } finally {
+                pending.decrementAndGet();
+            }
+        }
+    }
+
+    private void evaluate(VirtualFile directory) {
+        if (!directory.isValid()) return;
+        visited.incrementAndGet();
+        computed.addAndGet(filter.evaluateChildren(directory));
+        List<VirtualFile> subdirectories = ReadAction.compute(() -> {
+            List<VirtualFile> content = new ArrayList<>();
+            if (project.isDisposed()) return content;
+            ProjectFileIndex fileIndex = ProjectFileIndex.getInstance(project);
+            for (VirtualFile child : directory.getChildren()) {
+                //Excluded directories are not indexed, symbolic links may lead back up the tree.
+                if (child.isDirectory() && !child.is(VFileProperty.SYMLINK) &&
+                        fileIndex.isInContent(child)) {
+                    content.add(child);
+                }
+            }
+            return content;
+        });
+        subdirectories.forEach(this::enqueue);
+    }
+
+    /**
+     * @return true if every core is busy, sampled at most every {@link #BUSY_CHECK_NANOS}.
+     */
+    private boolean isBusy() {
+        long now = System.nanoTime();
+        if (now - busyCheckedAt > BUSY_CHECK_NANOS) {
+            busyCheckedAt = now;
+            if (os instanceof com.sun.management.OperatingSystemMXBean) {
+                busy = ((com.sun.management.OperatingSystemMXBean) os).getSystemCpuLoad() >= BUSY_CPU_LOAD;
+            } else {
+                //Negative where the load average is not available, the warm-up then never backs off.
+                double load = os.getSystemLoadAverage();
+                busy = load >= 0 && load >= os.getAvailableProcessors();
+            }
+        }
+        return busy;
+    }
+}
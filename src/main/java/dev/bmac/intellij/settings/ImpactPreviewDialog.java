@@ -0,0 +1,56 @@
+package dev.bmac.intellij.settings;
+
+import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.ui.JBSplitter;
+import com.intellij.ui.components.JBLabel;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.table.JBTable;
+import dev.bmac.intellij.indexing.ImpactAnalyzer;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Shows what a candidate rule set would keep out of the indexes, without applying it.
+ **/
+public class ImpactPreviewDialog extends DialogWrapper {
+    private final ImpactAnalyzer.Report report;
+    private final long millis;
+
+    public ImpactPreviewDialog(Component parent, ImpactAnalyzer.Report report, long millis) {
+        super(parent, false);
+        this.report = report;
+        this.millis = millis;
+        setTitle("Index Exclusion Impact");
+        init();
+    }
+
+    @Nullable
+    @Override
+    protected JComponent createCenterPanel() {
+        List<ImpactAnalyzer.Row> indexes = report.getIndexes().stream().filter(row -> row.getFiles() > 0)
+                .collect(Collectors.toList());
+        JBTable ruleTable = new JBTable(new ImpactTableModel("Path", report.getRules()));
+        JBTable indexTable = new JBTable(new ImpactTableModel("Index", indexes));
+        ruleTable.setAutoCreateRowSorter(true);
+        indexTable.setAutoCreateRowSorter(true);
+        indexTable.getEmptyText().setText("No index would skip any file");
+
+        JBSplitter splitter = new JBSplitter(true, 0.5f);
+        splitter.setFirstComponent(new JBScrollPane(ruleTable));
+        splitter.setSecondComponent(new JBScrollPane(indexTable));
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.add(new JBLabel(report.getFiles() + " files checked in " + millis + "ms"), BorderLayout.NORTH);
+        panel.add(splitter, BorderLayout.CENTER);
+        panel.setPreferredSize(new Dimension(700, 500));
+        return panel;
+    }
+
+    @Override
+    protected Action[] createActions() {
+        return new Action[]{getOKAction()};
+    }
+}
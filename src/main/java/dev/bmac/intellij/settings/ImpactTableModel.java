@@ -0,0 +1,58 @@
+package dev.bmac.intellij.settings;
+
+import com.intellij.openapi.util.text.StringUtil;
+import dev.bmac.intellij.indexing.ImpactAnalyzer;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.List;
+
+/**
+ * Model for the rows of an impact preview, per rule or per index.
+ **/
+public class ImpactTableModel extends AbstractTableModel {
+    private final String labelColumn;
+    private final List<ImpactAnalyzer.Row> rows;
+
+    public ImpactTableModel(String labelColumn, List<ImpactAnalyzer.Row> rows) {
+        this.labelColumn = labelColumn;
+        this.rows = rows;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return 4;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        switch (column) {
+            case 0: return labelColumn;
+            case 1: return "Files";
+            case 2: return "Size";
+            case 3: return "Skipped (file, index) pairs";
+        }
+        return "";
+    }
+
+    @Override
+    public Class<?> getColumnClass(int columnIndex) {
+        return columnIndex == 0 || columnIndex == 2 ? String.class : Long.class;
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        ImpactAnalyzer.Row row = rows.get(rowIndex);
+        switch (columnIndex) {
+            case 0: return row.getLabel();
+            case 1: return row.getFiles();
+            case 2: return StringUtil.formatFileSize(row.getBytes());
+            case 3: return row.getPairs();
+        }
+        return "";
+    }
+}
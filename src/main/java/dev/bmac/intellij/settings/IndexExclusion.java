@@ -12,6 +12,8 @@ import java.util.Objects;
  **/
 public class IndexExclusion {
     private String path;
+    private Syntax syntax = Syntax.REGEX;
+    private long sizeThreshold;
     private IndexNameExclusion indexerNameExclusion;
 
     public IndexExclusion() {
@@ -23,6 +25,12 @@ public class IndexExclusion {
         this.indexerNameExclusion = indexerNameExclusion;
     }
 
+    public IndexExclusion(String path, Syntax syntax, IndexNameExclusion indexerNameExclusion) {
+        this.path = path;
+        this.syntax = syntax;
+        this.indexerNameExclusion = indexerNameExclusion;
+    }
+
     public String getPath() {
         return path;
     }
@@ -31,6 +39,34 @@ public class IndexExclusion {
         this.path = path;
     }
 
+    public Syntax getSyntax() {
+        return syntax;
+    }
+
+    public void setSyntax(Syntax syntax) {
+        this.syntax = syntax;
+    }
+
+    /**
+     * @return the size in bytes a file has to exceed for this exclusion to apply, or 0 for files of any size.
+     */
+    public long getSizeThreshold() {
+        return sizeThreshold;
+    }
+
+    public void setSizeThreshold(long sizeThreshold) {
+        this.sizeThreshold = sizeThreshold;
+    }
+
+    /**
+     * @return true if this exclusion only applies to files above a size. The path is then optional and limits it to
+     * matching files, and the exclusion applies on top of the first matching path exclusion.
+     */
+    @JsonIgnore
+    public boolean hasSizeThreshold() {
+        return sizeThreshold > 0;
+    }
+
     public IndexNameExclusion getIndexerNameExclusion() {
         return indexerNameExclusion;
     }
@@ -39,18 +75,77 @@ public class IndexExclusion {
         this.indexerNameExclusion = indexerNameExclusion;
     }
 
+    /**
+     * @return a deep copy, unaffected by later edits of this exclusion.
+     */
+    public IndexExclusion copy() {
+        IndexNameExclusion names = new IndexNameExclusion();
+        names.setIndexerNames(Lists.newArrayList(indexerNameExclusion.getIndexerNames()));
+        names.setExcludeIfNotIn(indexerNameExclusion.isExcludeIfNotIn());
+        IndexExclusion copy = new IndexExclusion(path, syntax, names);
+        copy.setSizeThreshold(sizeThreshold);
+        return copy;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         IndexExclusion that = (IndexExclusion) o;
         return path.equals(that.path) &&
+                syntax == that.syntax &&
+                sizeThreshold == that.sizeThreshold &&
                 indexerNameExclusion.equals(that.indexerNameExclusion);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(path, indexerNameExclusion);
+        return Objects.hash(path, syntax, sizeThreshold, indexerNameExclusion);
+    }
+
+    /**
+     * How the path of an exclusion is written, or what it holds instead of a path.
+     */
+    public enum Syntax {
+        /**
+         * Regular expression matched against the whole path, ignoring case.
+         */
+        REGEX("Regex"),
+        /**
+         * Glob over path segments, such as **{@code /node_modules/**}.
+         */
+        GLOB("Glob"),
+        /**
+         * Comma separated file extensions, such as {@code min.js, map}, matched against the end of the file name.
+         */
+        EXTENSION("Extension"),
+        /**
+         * Comma separated file type names, such as {@code JSON}.
+         */
+        FILE_TYPE("File type"),
+        /**
+         * Name of ignore files, such as {@code .gitignore}, whose patterns exclude the files they ignore. Ignore files
+         * are read wherever they are in the file tree and apply to their directory.
+         */
+        IGNORE_FILE("Ignore file");
+
+        private final String displayName;
+
+        Syntax(String displayName) {
+            this.displayName = displayName;
+        }
+
+        /**
+         * @return true if the exclusion is matched against the file's path.
+         */
+        public boolean isPath() {
+            return this == REGEX || this == GLOB;
+        }
+
+        @Override
+        public String toString() {
+            return displayName;
+        }
     }
 
     public static class IndexNameExclusion {
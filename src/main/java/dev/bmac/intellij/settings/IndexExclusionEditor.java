@@ -1,32 +1,56 @@
 package dev.bmac.intellij.settings;
 
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.ui.CheckBoxList;
 import com.intellij.ui.CheckBoxListListener;
 import com.intellij.ui.JBColor;
 import com.intellij.util.indexing.FileBasedIndexExtension;
+import dev.bmac.intellij.indexing.IndexFilter;
+import dev.bmac.intellij.indexing.IndexStorageAnalyzer;
+import dev.bmac.intellij.indexing.RuleCostAnalyzer;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 /**
  * Editor dialog to edit the index exclusion list.
  */
 public class IndexExclusionEditor extends JDialog {
+    private static final int COST_SAMPLES = 2000;
+
     private JPanel contentPane;
     private JButton buttonOK;
     private JButton buttonCancel;
     private JCheckBox inverseSelection;
     private JPanel indexerNameSelector;
     private JTextField path;
+    private JLabel pathLabel;
+    private JComboBox<IndexExclusion.Syntax> syntax;
+    private JFormattedTextField sizeThreshold;
     private JLabel deselectAll;
     private CheckBoxList<String> indexerList;
     private IndexExclusion exclusion;
 
     private List<String> indexerNames = FileBasedIndexExtension.EXTENSION_POINT_NAME.getExtensionList().stream()
             .map(item -> item.getName().getName()).collect(Collectors.toList());
+    private Map<String, IndexStorageAnalyzer.IndexUsage> indexUsage = new HashMap<>();
+    //True until the index storage measurement arrives.
+    private boolean measuring;
 
     private final Runnable onOk;
 
@@ -49,7 +73,12 @@ public class IndexExclusionEditor extends JDialog {
             }
         });
 
-        indexerList.setItems(indexerNames, null);
+        CompletableFuture<List<IndexStorageAnalyzer.IndexUsage>> usage = measureIndexes();
+        measuring = !usage.isDone();
+        if (!measuring && !usage.isCompletedExceptionally()) {
+            rankIndexes(usage.join());
+        }
+        indexerList.setItems(indexerNames, this::describeIndex);
         List<String> indexExclusionList = this.exclusion.getIndexerNameExclusion().getIndexerNames();
         this.indexerNames.forEach(i -> {
             if (exclusion.getIndexerNameExclusion().isExcludeIfNotIn()) {
@@ -63,6 +92,11 @@ public class IndexExclusionEditor extends JDialog {
             }
         });
         this.path.setText(exclusion.getPath());
+        syntax.setModel(new DefaultComboBoxModel<>(IndexExclusion.Syntax.values()));
+        syntax.setSelectedItem(exclusion.getSyntax());
+        syntax.addItemListener(e -> updatePathLabel());
+        updatePathLabel();
+        sizeThreshold.setValue((int) Math.min(Integer.MAX_VALUE, exclusion.getSizeThreshold() / 1024));
 
         buttonOK.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
@@ -109,10 +143,83 @@ public class IndexExclusionEditor extends JDialog {
         indexerNameSelector.setLayout(new BorderLayout());
         indexerNameSelector.add(new JScrollPane(indexerList));
 
+        if (measuring) {
+            usage.whenComplete((result, error) -> ApplicationManager.getApplication().invokeLater(
+                    () -> showUsage(result), ModalityState.any()));
+        }
+    }
+
+    /**
+     * Measures the index storage in the background, or reuses the measurement of this session.
+     */
+    private CompletableFuture<List<IndexStorageAnalyzer.IndexUsage>> measureIndexes() {
+        IndexFilter filter = IndexFilter.getInstance();
+        return IndexStorageAnalyzer.measure(indexerNames, filter == null ? null : filter.getMetrics());
+    }
+
+    /**
+     * Ranks the index list by what excluding them could reclaim, biggest first.
+     */
+    private void rankIndexes(List<IndexStorageAnalyzer.IndexUsage> usage) {
+        indexerNames = usage.stream().map(IndexStorageAnalyzer.IndexUsage::getIndex).collect(Collectors.toList());
+        usage.forEach(index -> indexUsage.put(index.getIndex(), index));
+    }
+
+    /**
+     * Re-ranks the list once the measurement arrived, keeping what was checked in the meantime.
+     * @param usage the measurement, or null if it failed
+     */
+    private void showUsage(List<IndexStorageAnalyzer.IndexUsage> usage) {
+        measuring = false;
+        if (usage == null) {
+            indexerList.repaint();
+            return;
+        }
+        Set<String> selected = indexerNames.stream().filter(indexerList::isItemSelected).collect(Collectors.toSet());
+        rankIndexes(usage);
+        indexerList.setItems(indexerNames, this::describeIndex);
+        selected.forEach(name -> indexerList.setItemSelected(name, true));
+        indexerList.repaint();
+    }
+
+    private String describeIndex(String name) {
+        if (measuring) return name + " (measuring\u2026)";
+        IndexStorageAnalyzer.IndexUsage usage = indexUsage.get(name);
+        if (usage == null || usage.getFiles() == 0) return name;
+        String description = name + " (" + StringUtil.formatFileSize(usage.getBytes()) + " in " + usage.getFiles() +
+                " files";
+        if (usage.getReclaimableBytes() > 0) {
+            description += ", ~" + StringUtil.formatFileSize(usage.getReclaimableBytes()) + " for matched paths";
+        }
+        return description + ")";
+    }
+
+    private void createUIComponents() {
+        sizeThreshold = PluginSettingsUIConfigurable.createNumberField();
+    }
+
+    private void updatePathLabel() {
+        IndexExclusion.Syntax selected = (IndexExclusion.Syntax) syntax.getSelectedItem();
+        if (selected == IndexExclusion.Syntax.EXTENSION) {
+            pathLabel.setText("Extensions:");
+        } else if (selected == IndexExclusion.Syntax.FILE_TYPE) {
+            pathLabel.setText("File types:");
+        } else if (selected == IndexExclusion.Syntax.IGNORE_FILE) {
+            pathLabel.setText("Ignore file name:");
+        } else {
+            pathLabel.setText("Path:");
+        }
     }
 
     private void onOK() {
+        if (syntax.getSelectedItem() == IndexExclusion.Syntax.REGEX && !StringUtil.isEmptyOrSpaces(path.getText()) &&
+                (exclusion.getSyntax() != IndexExclusion.Syntax.REGEX || !path.getText().equals(exclusion.getPath())) &&
+                !confirmCost()) {
+            return;
+        }
         exclusion.setPath(path.getText());
+        exclusion.setSyntax((IndexExclusion.Syntax) syntax.getSelectedItem());
+        exclusion.setSizeThreshold(((Number) sizeThreshold.getValue()).longValue() * 1024);
         IndexExclusion.IndexNameExclusion indexNameExclusion = exclusion.getIndexerNameExclusion();
         indexNameExclusion.setExcludeIfNotIn(inverseSelection.isSelected());
         indexNameExclusion.setIndexerNames(indexerNames.stream().filter(i -> {
@@ -123,6 +230,58 @@ public class IndexExclusionEditor extends JDialog {
         dispose();
     }
 
+    /**
+     * Analyzes the cost of the regex being saved over a sample of the open projects' paths. Invalid patterns are
+     * refused, slow or hazardous ones are shown with their analysis and a faster form when one is known.
+     * @return true to save the exclusion as it is now in the fields, false to keep editing.
+     */
+    private boolean confirmCost() {
+        String pattern = path.getText();
+        RuleCostAnalyzer.Report report;
+        try {
+            report = ProgressManager.getInstance().runProcessWithProgressSynchronously(() -> {
+                ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+                return RuleCostAnalyzer.analyze(pattern, RuleCostAnalyzer.samplePaths(
+                        Arrays.asList(ProjectManager.getInstance().getOpenProjects()), COST_SAMPLES, indicator));
+            }, "Analyzing Exclusion Cost", true, null);
+        } catch (ProcessCanceledException e) {
+            return true;
+        }
+        if (report.getError() != null) {
+            Messages.showErrorDialog(contentPane, "Invalid regular expression: " + report.getError(),
+                    "Index Exclusion");
+            return false;
+        }
+        if (report.isFast()) return true;
+        StringBuilder message = new StringBuilder(report.getCostClass().toString()).append(".");
+        if (report.getDfaFallbackReason() != null) {
+            message.append("\nThe DFA engine runs it with jregex: ").append(report.getDfaFallbackReason()).append(".");
+        }
+        for (String hazard : report.getHazards()) {
+            message.append("\nBacktracking hazard: ").append(hazard).append(".");
+        }
+        if (report.getSamples() > 0) {
+            message.append(String.format("\n%.0f ns per path over %d project paths, slowest %d ns on %s.",
+                    report.getNanosPerPath(), report.getSamples(), report.getSlowestNanos(), report.getSlowestPath()));
+        } else if (!report.getHazards().isEmpty()) {
+            message.append("\nToo slow to measure, a single non matching path can take minutes to decide.");
+        }
+        RuleCostAnalyzer.Suggestion suggestion = report.getSuggestion();
+        if (suggestion == null) {
+            return Messages.showDialog(contentPane, message.toString(), "Exclusion Cost",
+                    new String[]{"Save", "Edit"}, 0, Messages.getWarningIcon()) == 0;
+        }
+        message.append("\n\nFaster equivalent: ").append(suggestion.getSyntax()).append(" ")
+                .append(suggestion.getPath()).append("\n").append(suggestion.getReason()).append(".");
+        int choice = Messages.showDialog(contentPane, message.toString(), "Exclusion Cost",
+                new String[]{"Use Suggestion", "Save As Is", "Edit"}, 0, Messages.getWarningIcon());
+        if (choice == 0) {
+            path.setText(suggestion.getPath());
+            syntax.setSelectedItem(suggestion.getSyntax());
+        }
+        return choice == 0 || choice == 1;
+    }
+
     private void onCancel() {
         // add your code here if necessary
         dispose();
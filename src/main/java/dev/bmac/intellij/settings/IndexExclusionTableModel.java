@@ -1,5 +1,6 @@
 package dev.bmac.intellij.settings;
 
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.ui.ItemRemovable;
 
 import javax.swing.table.AbstractTableModel;
@@ -23,7 +24,7 @@ public class IndexExclusionTableModel extends AbstractTableModel implements Item
 
     @Override
     public int getColumnCount() {
-        return 2;
+        return 3;
     }
 
     @Override
@@ -31,6 +32,7 @@ public class IndexExclusionTableModel extends AbstractTableModel implements Item
         switch (column) {
             case 0: return "Path";
             case 1: return "Indexer exclusion";
+            case 2: return "Syntax";
         }
         return "";
     }
@@ -40,9 +42,13 @@ public class IndexExclusionTableModel extends AbstractTableModel implements Item
         IndexExclusion indexExclusion = indexExclusionList.get(rowIndex);
         switch (columnIndex) {
             case 0:
-                return indexExclusion.getPath();
+                if (!indexExclusion.hasSizeThreshold()) return indexExclusion.getPath();
+                return StringUtil.notNullize(indexExclusion.getPath()) + " (larger than " +
+                        StringUtil.formatFileSize(indexExclusion.getSizeThreshold()) + ")";
             case 1:
                 return indexExclusion.getIndexerNameExclusion().isDefault() ? "Default" : "Custom";
+            case 2:
+                return indexExclusion.getSyntax().toString();
         }
         return "";
     }
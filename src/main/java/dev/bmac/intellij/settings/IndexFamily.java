@@ -0,0 +1,102 @@
+package dev.bmac.intellij.settings;
+
+import com.google.common.collect.Lists;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * POJO to store a named family of indexes which can be disabled together, for example all frontend indexes.
+ * Indexes are selected by name patterns, where * matches any run of characters, ignoring case.
+ **/
+public class IndexFamily {
+    public static final String FRONTEND = "Frontend (html, css, js)";
+
+    private String name;
+    private List<String> patterns;
+    private boolean enabled;
+
+    public IndexFamily() {
+        this.name = "";
+        this.patterns = Lists.newArrayList();
+    }
+
+    public IndexFamily(String name, List<String> patterns) {
+        this.name = name;
+        this.patterns = patterns;
+    }
+
+    /**
+     * @return the families offered out of the box, all disabled.
+     */
+    public static List<IndexFamily> presets() {
+        List<IndexFamily> presets = new ArrayList<>();
+        presets.add(new IndexFamily(FRONTEND,
+                Lists.newArrayList("js.*", "angularjs.*", "css.*", "CssIndex", "html5.*", "HtmlTagIdIndex", "dom.*")));
+        presets.add(new IndexFamily("XML", Lists.newArrayList("xml*", "SchemaTypeInheritance", "dom.*")));
+        presets.add(new IndexFamily("Spelling", Lists.newArrayList("*spell*", "*dictionary*")));
+        presets.add(new IndexFamily("Stubs (all stub indexes of every language)", Lists.newArrayList("Stubs")));
+        return presets;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public List<String> getPatterns() {
+        return patterns;
+    }
+
+    public void setPatterns(List<String> patterns) {
+        this.patterns = patterns;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return a matcher of index names for the patterns of this family. Meant to be resolved once per index, it is
+     * not cheap.
+     */
+    public Pattern toNamePattern() {
+        return Pattern.compile(patterns.stream()
+                .map(pattern -> Pattern.quote(pattern).replace("*", "\\E.*\\Q"))
+                .collect(Collectors.joining("|")), Pattern.CASE_INSENSITIVE);
+    }
+
+    /**
+     * @return a deep copy, unaffected by later edits of this family.
+     */
+    public IndexFamily copy() {
+        IndexFamily copy = new IndexFamily(name, Lists.newArrayList(patterns));
+        copy.setEnabled(enabled);
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        IndexFamily that = (IndexFamily) o;
+        return enabled == that.enabled &&
+                name.equals(that.name) &&
+                patterns.equals(that.patterns);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, patterns, enabled);
+    }
+}
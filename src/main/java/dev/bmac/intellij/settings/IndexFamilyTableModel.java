@@ -0,0 +1,86 @@
+package dev.bmac.intellij.settings;
+
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.ui.ItemRemovable;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Model for the columns in the index family list, edited in place. Patterns are shown comma separated.
+ **/
+public class IndexFamilyTableModel extends AbstractTableModel implements ItemRemovable {
+    private final List<IndexFamily> indexFamilies;
+
+    public IndexFamilyTableModel(List<IndexFamily> indexFamilies) {
+        this.indexFamilies = indexFamilies;
+    }
+
+    @Override
+    public int getRowCount() {
+        return indexFamilies.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return 3;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        switch (column) {
+            case 0: return "Disabled";
+            case 1: return "Family";
+            case 2: return "Index name patterns";
+        }
+        return "";
+    }
+
+    @Override
+    public Class<?> getColumnClass(int columnIndex) {
+        return columnIndex == 0 ? Boolean.class : String.class;
+    }
+
+    @Override
+    public boolean isCellEditable(int rowIndex, int columnIndex) {
+        return true;
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        IndexFamily indexFamily = indexFamilies.get(rowIndex);
+        switch (columnIndex) {
+            case 0:
+                return indexFamily.isEnabled();
+            case 1:
+                return indexFamily.getName();
+            case 2:
+                return String.join(", ", indexFamily.getPatterns());
+        }
+        return "";
+    }
+
+    @Override
+    public void setValueAt(Object value, int rowIndex, int columnIndex) {
+        IndexFamily indexFamily = indexFamilies.get(rowIndex);
+        switch (columnIndex) {
+            case 0:
+                indexFamily.setEnabled((Boolean) value);
+                break;
+            case 1:
+                indexFamily.setName(((String) value).trim());
+                break;
+            case 2:
+                indexFamily.setPatterns(StringUtil.split((String) value, ",").stream().map(String::trim)
+                        .filter(pattern -> !pattern.isEmpty()).collect(Collectors.toList()));
+                break;
+        }
+        fireTableCellUpdated(rowIndex, columnIndex);
+    }
+
+    @Override
+    public void removeRow(int idx) {
+        indexFamilies.remove(idx);
+    }
+}
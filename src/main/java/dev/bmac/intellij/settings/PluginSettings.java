@@ -1,8 +1,11 @@
 package dev.bmac.intellij.settings;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.*;
 import com.intellij.util.xmlb.XmlSerializerUtil;
+import dev.bmac.intellij.indexing.IndexFilter;
 import org.apache.commons.compress.utils.Lists;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
@@ -20,19 +23,43 @@ public class PluginSettings implements PersistentStateComponent<PluginSettings>
     private boolean frontEndIndex = false;
     private boolean TODOIndex = false;
     private List<IndexExclusion> indexPathExclude = Lists.newArrayList();
+    private List<IndexFamily> indexFamilies = IndexFamily.presets();
+    private MatcherEngine matcherEngine = MatcherEngine.LITERAL_PREFILTER;
+    private int verdictCacheSize = 500_000;
+    private int timingSampleRate = 64;
+    private int decisionEventSampleRate = 1024;
+    private boolean skipGeneratedContent = false;
+    private boolean warmUpVerdicts = true;
+    private IndexExclusion.IndexNameExclusion generatedContentExclusion = new IndexExclusion.IndexNameExclusion();
 
     public static PluginSettings getInstance() {
         return ServiceManager.getService(PluginSettings.class);
     }
 
+    /**
+     * @deprecated only read from settings saved before index families, see {@link IndexFamily#FRONTEND}.
+     */
+    @Deprecated
     public boolean isFrontEndIndexDisabled() {
         return frontEndIndex;
     }
 
+    /**
+     * @deprecated only read from settings saved before index families, see {@link IndexFamily#FRONTEND}.
+     */
+    @Deprecated
     public void setFrontEndIndexDisabled(boolean frontEndIndex) {
         this.frontEndIndex = frontEndIndex;
     }
 
+    public List<IndexFamily> getIndexFamilies() {
+        return indexFamilies;
+    }
+
+    public void setIndexFamilies(List<IndexFamily> indexFamilies) {
+        this.indexFamilies = indexFamilies;
+    }
+
     public boolean isTODOIndexDisabled() {
         return TODOIndex;
     }
@@ -49,6 +76,83 @@ public class PluginSettings implements PersistentStateComponent<PluginSettings>
         this.TODOIndex = TODOIndex;
     }
 
+    public MatcherEngine getMatcherEngine() {
+        return matcherEngine;
+    }
+
+    public void setMatcherEngine(MatcherEngine matcherEngine) {
+        this.matcherEngine = matcherEngine;
+    }
+
+    /**
+     * @return the maximum number of file verdicts kept in memory.
+     */
+    public int getVerdictCacheSize() {
+        return verdictCacheSize;
+    }
+
+    public void setVerdictCacheSize(int verdictCacheSize) {
+        this.verdictCacheSize = verdictCacheSize;
+    }
+
+    /**
+     * @return one in how many filter decisions is timed for the statistics, 0 to disable timing.
+     */
+    public int getTimingSampleRate() {
+        return timingSampleRate;
+    }
+
+    public void setTimingSampleRate(int timingSampleRate) {
+        this.timingSampleRate = timingSampleRate;
+    }
+
+    /**
+     * @return one in how many filter decisions is recorded as a Java Flight Recorder event while a recording enables
+     * it, 0 to record none.
+     */
+    public int getDecisionEventSampleRate() {
+        return decisionEventSampleRate;
+    }
+
+    public void setDecisionEventSampleRate(int decisionEventSampleRate) {
+        this.decisionEventSampleRate = decisionEventSampleRate;
+    }
+
+    /**
+     * @return true if files looking generated or minified by their content are excluded from the
+     * {@link #getGeneratedContentExclusion() generated content indexes}.
+     */
+    public boolean isSkipGeneratedContent() {
+        return skipGeneratedContent;
+    }
+
+    public void setSkipGeneratedContent(boolean skipGeneratedContent) {
+        this.skipGeneratedContent = skipGeneratedContent;
+    }
+
+    /**
+     * @return true if the verdicts of a project's files are computed in the background when it opens, ahead of the
+     * indexer asking for them.
+     */
+    public boolean isWarmUpVerdicts() {
+        return warmUpVerdicts;
+    }
+
+    public void setWarmUpVerdicts(boolean warmUpVerdicts) {
+        this.warmUpVerdicts = warmUpVerdicts;
+    }
+
+    /**
+     * @return the indexes generated content is excluded from, by default all but the file name index.
+     */
+    public IndexExclusion.IndexNameExclusion getGeneratedContentExclusion() {
+        return generatedContentExclusion;
+    }
+
+    public void setGeneratedContentExclusion(IndexExclusion.IndexNameExclusion generatedContentExclusion) {
+        this.generatedContentExclusion = generatedContentExclusion;
+    }
+
     @Nullable
     @Override
     @JsonIgnore
@@ -60,5 +164,46 @@ public class PluginSettings implements PersistentStateComponent<PluginSettings>
     @JsonIgnore
     public void loadState(@NotNull PluginSettings state) {
         XmlSerializerUtil.copyBean(state, this);
+        if (frontEndIndex) {
+            //The frontend switch became the frontend family.
+            indexFamilies.stream().filter(family -> family.getName().equals(IndexFamily.FRONTEND))
+                    .forEach(family -> family.setEnabled(true));
+            frontEndIndex = false;
+        }
+        //Settings sync, an import or an edited settings file replaced the settings without the settings page.
+        Application application = ApplicationManager.getApplication();
+        if (application != null) {
+            application.invokeLater(() -> {
+                IndexFilter filter = IndexFilter.getInstance();
+                if (filter != null) {
+                    filter.reload(this);
+                }
+            });
+        }
+    }
+
+    /**
+     * How path exclusion regular expressions are evaluated.
+     */
+    public enum MatcherEngine {
+        /**
+         * One literal scan picks candidate rules, which are then checked with jregex.
+         */
+        LITERAL_PREFILTER("Literal prefilter"),
+        /**
+         * All rules compiled into one deterministic automaton, jregex is only used for rules it cannot express.
+         */
+        DFA("Deterministic automaton");
+
+        private final String displayName;
+
+        MatcherEngine(String displayName) {
+            this.displayName = displayName;
+        }
+
+        @Override
+        public String toString() {
+            return displayName;
+        }
     }
 }
@@ -1,11 +1,21 @@
 package dev.bmac.intellij.settings;
 
+import com.intellij.icons.AllIcons;
+import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.options.Configurable;
 import com.intellij.openapi.options.ConfigurationException;
 import com.intellij.openapi.options.SearchableConfigurable;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.ui.AnActionButton;
 import com.intellij.ui.DoubleClickListener;
 import com.intellij.ui.ToolbarDecorator;
 import com.intellij.ui.table.JBTable;
+import dev.bmac.intellij.indexing.ImpactAnalyzer;
+import dev.bmac.intellij.indexing.IndexFilter;
 import org.apache.commons.compress.utils.Lists;
 import org.jetbrains.annotations.Nls;
 import org.jetbrains.annotations.NotNull;
@@ -19,6 +29,7 @@ import java.awt.*;
 import java.awt.event.MouseEvent;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -28,31 +39,43 @@ public class PluginSettingsUIConfigurable implements SearchableConfigurable, Con
 
     private JPanel myPanel;
 
-    private JCheckBox frontEndIndex;
     private JCheckBox todoIndex;
+    private JCheckBox skipGeneratedContent;
+    private JComboBox<PluginSettings.MatcherEngine> matcherEngine;
+    private JFormattedTextField verdictCacheSize;
+    private JFormattedTextField timingSampleRate;
+    private JFormattedTextField decisionEventSampleRate;
+    private JCheckBox warmUpVerdicts;
     private JPanel indexPaths;
+    private JPanel indexFamilies;
 
     private IndexExclusionTableModel tableModel;
+    private IndexFamilyTableModel familyTableModel;
     private JBTable table;
     private List<IndexExclusion> indexExcludeList;
+    private List<IndexFamily> indexFamilyList;
 
     private PluginSettings pluginSettings = PluginSettings.getInstance();
 
     public PluginSettingsUIConfigurable() {
-        indexExcludeList = new ArrayList<>(pluginSettings.getIndexPathExclude());
-        frontEndIndex.setSelected(pluginSettings.isFrontEndIndexDisabled());
-        todoIndex.setSelected(pluginSettings.isTODOIndexDisabled());
+        //Copied, the rule editor edits the exclusions in place and isModified() compares against the settings.
+        indexExcludeList = copyExclusions(pluginSettings.getIndexPathExclude());
+        indexFamilyList = copyFamilies(pluginSettings.getIndexFamilies());
+        matcherEngine.setModel(new DefaultComboBoxModel<>(PluginSettings.MatcherEngine.values()));
+        resetFields();
         tableModel = new IndexExclusionTableModel(indexExcludeList);
         table = new JBTable(tableModel);
         table.getEmptyText().setText("Add paths to be excluded from indexing");
-        TableColumn tableColumn = table.getColumnModel().getColumn(1);
         JTableHeader tableHeader = table.getTableHeader();
         FontMetrics headerFontMetrics = tableHeader.getFontMetrics(tableHeader.getFont());
-        int width = headerFontMetrics.stringWidth(table.getColumnName(1)) + 50;
-        tableColumn.setMinWidth(width);
-        tableColumn.setPreferredWidth(width);
+        for (int column = 1; column < table.getColumnCount(); column++) {
+            TableColumn tableColumn = table.getColumnModel().getColumn(column);
+            int width = headerFontMetrics.stringWidth(table.getColumnName(column)) + 50;
+            tableColumn.setMinWidth(width);
+            tableColumn.setPreferredWidth(width);
+        }
 
-        tableColumn = table.getColumnModel().getColumn(0);
+        TableColumn tableColumn = table.getColumnModel().getColumn(0);
         tableColumn.setPreferredWidth(tableColumn.getMaxWidth());
 
         indexPaths.setLayout(new BorderLayout());
@@ -73,6 +96,27 @@ public class PluginSettingsUIConfigurable implements SearchableConfigurable, Con
                     int i = table.getSelectedRow();
                     indexExcludeList.remove(i);
                     tableModel.fireTableRowsDeleted(i, i);
+                }).addExtraAction(new AnActionButton("Preview Impact", AllIcons.Actions.Preview) {
+                    @Override
+                    public void actionPerformed(@NotNull AnActionEvent e) {
+                        previewImpact();
+                    }
+                }).createPanel(), BorderLayout.CENTER);
+
+        familyTableModel = new IndexFamilyTableModel(indexFamilyList);
+        JBTable familyTable = new JBTable(familyTableModel);
+        familyTable.getEmptyText().setText("Add families of indexes to disable together");
+        TableColumn enabledColumn = familyTable.getColumnModel().getColumn(0);
+        int enabledWidth = headerFontMetrics.stringWidth(familyTable.getColumnName(0)) + 20;
+        enabledColumn.setMinWidth(enabledWidth);
+        enabledColumn.setMaxWidth(enabledWidth);
+        indexFamilies.setLayout(new BorderLayout());
+        indexFamilies.add(ToolbarDecorator.createDecorator(familyTable).disableUpDownActions()
+                .setAddAction(action -> {
+                    indexFamilyList.add(new IndexFamily());
+                    int i = indexFamilyList.size() - 1;
+                    familyTableModel.fireTableRowsInserted(i, i);
+                    familyTable.editCellAt(i, 1);
                 }).createPanel(), BorderLayout.CENTER);
 
         new DoubleClickListener() {
@@ -82,16 +126,40 @@ public class PluginSettingsUIConfigurable implements SearchableConfigurable, Con
                 return true;
             }
         }.installOn(table);
+    }
 
-        NumberFormat format = NumberFormat.getInstance();
-        format.setGroupingUsed(false);
-        NumberFormatter formatter = new NumberFormatter(format);
-        formatter.setValueClass(Integer.class);
-        formatter.setMinimum(0);
-        formatter.setMaximum(Integer.MAX_VALUE);
-        formatter.setAllowsInvalid(false);
-        formatter.setCommitsOnValidEdit(true);
+    /**
+     * Runs the rules as currently edited over the open projects, without applying them.
+     */
+    private void previewImpact() {
+        ImpactAnalyzer analyzer = new ImpactAnalyzer(createCandidateSettings());
+        List<Project> projects = Arrays.asList(ProjectManager.getInstance().getOpenProjects());
+        ProgressManager.getInstance().run(new Task.Modal(null, "Previewing Index Exclusion Impact", true) {
+            private ImpactAnalyzer.Report report;
+            private long millis;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                long start = System.currentTimeMillis();
+                report = analyzer.analyze(projects, indicator);
+                millis = System.currentTimeMillis() - start;
+            }
+
+            @Override
+            public void onSuccess() {
+                new ImpactPreviewDialog(myPanel, report, millis).show();
+            }
+        });
+    }
 
+    private PluginSettings createCandidateSettings() {
+        PluginSettings candidate = new PluginSettings();
+        candidate.setIndexFamilies(indexFamilyList);
+        candidate.setTODOIndexDisabled(todoIndex.isSelected());
+        candidate.setSkipGeneratedContent(skipGeneratedContent.isSelected());
+        candidate.setMatcherEngine((PluginSettings.MatcherEngine) matcherEngine.getSelectedItem());
+        candidate.setIndexPathExclude(indexExcludeList);
+        return candidate;
     }
 
     private void editCurrentItem() {
@@ -127,18 +195,87 @@ public class PluginSettingsUIConfigurable implements SearchableConfigurable, Con
     @Override
     public boolean isModified() {
         return pluginSettings.isTODOIndexDisabled() != todoIndex.isSelected() ||
-                pluginSettings.isFrontEndIndexDisabled() != frontEndIndex.isSelected() ||
+                pluginSettings.isSkipGeneratedContent() != skipGeneratedContent.isSelected() ||
+                !pluginSettings.getIndexFamilies().equals(indexFamilyList) ||
+                pluginSettings.getMatcherEngine() != matcherEngine.getSelectedItem() ||
+                pluginSettings.getVerdictCacheSize() != ((Number) verdictCacheSize.getValue()).intValue() ||
+                pluginSettings.getTimingSampleRate() != ((Number) timingSampleRate.getValue()).intValue() ||
+                pluginSettings.getDecisionEventSampleRate() != ((Number) decisionEventSampleRate.getValue()).intValue() ||
+                pluginSettings.isWarmUpVerdicts() != warmUpVerdicts.isSelected() ||
                 !pluginSettings.getIndexPathExclude().equals(indexExcludeList);
     }
 
     @Override
     public void apply() throws ConfigurationException {
-        pluginSettings.setFrontEndIndexDisabled(frontEndIndex.isSelected());
+        //Copied, so edits made after applying are not live in the settings.
+        pluginSettings.setIndexFamilies(copyFamilies(indexFamilyList));
         pluginSettings.setTODOIndexDisabled(todoIndex.isSelected());
-        pluginSettings.setIndexPathExclude(indexExcludeList);
+        pluginSettings.setSkipGeneratedContent(skipGeneratedContent.isSelected());
+        pluginSettings.setMatcherEngine((PluginSettings.MatcherEngine) matcherEngine.getSelectedItem());
+        pluginSettings.setVerdictCacheSize(((Number) verdictCacheSize.getValue()).intValue());
+        pluginSettings.setTimingSampleRate(((Number) timingSampleRate.getValue()).intValue());
+        pluginSettings.setDecisionEventSampleRate(((Number) decisionEventSampleRate.getValue()).intValue());
+        pluginSettings.setWarmUpVerdicts(warmUpVerdicts.isSelected());
+        pluginSettings.setIndexPathExclude(copyExclusions(indexExcludeList));
+        IndexFilter filter = IndexFilter.getInstance();
+        if (filter != null) {
+            filter.reload(pluginSettings);
+        }
+    }
+
+    @Override
+    public void reset() {
+        indexExcludeList.clear();
+        indexExcludeList.addAll(copyExclusions(pluginSettings.getIndexPathExclude()));
+        tableModel.fireTableDataChanged();
+        indexFamilyList.clear();
+        indexFamilyList.addAll(copyFamilies(pluginSettings.getIndexFamilies()));
+        familyTableModel.fireTableDataChanged();
+        resetFields();
+    }
+
+    private void resetFields() {
+        todoIndex.setSelected(pluginSettings.isTODOIndexDisabled());
+        skipGeneratedContent.setSelected(pluginSettings.isSkipGeneratedContent());
+        matcherEngine.setSelectedItem(pluginSettings.getMatcherEngine());
+        verdictCacheSize.setValue(pluginSettings.getVerdictCacheSize());
+        timingSampleRate.setValue(pluginSettings.getTimingSampleRate());
+        decisionEventSampleRate.setValue(pluginSettings.getDecisionEventSampleRate());
+        warmUpVerdicts.setSelected(pluginSettings.isWarmUpVerdicts());
+    }
+
+    private static List<IndexExclusion> copyExclusions(List<IndexExclusion> exclusions) {
+        List<IndexExclusion> copy = new ArrayList<>();
+        for (IndexExclusion exclusion : exclusions) {
+            copy.add(exclusion.copy());
+        }
+        return copy;
+    }
+
+    private static List<IndexFamily> copyFamilies(List<IndexFamily> families) {
+        List<IndexFamily> copy = new ArrayList<>();
+        for (IndexFamily family : families) {
+            copy.add(family.copy());
+        }
+        return copy;
     }
 
     private void createUIComponents() {
+        verdictCacheSize = createNumberField();
+        timingSampleRate = createNumberField();
+        decisionEventSampleRate = createNumberField();
+    }
+
+    static JFormattedTextField createNumberField() {
+        NumberFormat format = NumberFormat.getInstance();
+        format.setGroupingUsed(false);
+        NumberFormatter formatter = new NumberFormatter(format);
+        formatter.setValueClass(Integer.class);
+        formatter.setMinimum(0);
+        formatter.setMaximum(Integer.MAX_VALUE);
+        formatter.setAllowsInvalid(false);
+        formatter.setCommitsOnValidEdit(true);
+        return new JFormattedTextField(formatter);
     }
 
 }
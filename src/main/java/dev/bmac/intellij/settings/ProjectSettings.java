@@ -0,0 +1,47 @@
+package dev.bmac.intellij.settings;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.intellij.openapi.components.*;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.xmlb.XmlSerializerUtil;
+import org.apache.commons.compress.utils.Lists;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Exclusions stored with a project. Their paths are relative to the content root holding the file and start with '/',
+ * so they are anchored at the root: /build/.* only matches the build directory of the root. Files no project
+ * exclusion matches fall back to the application exclusions in {@link PluginSettings}.
+ */
+@Service
+@State(name = "IndexExclusion", storages = @Storage("indexExclusion.xml"))
+public class ProjectSettings implements PersistentStateComponent<ProjectSettings> {
+    private List<IndexExclusion> indexPathExclude = Lists.newArrayList();
+
+    public static ProjectSettings getInstance(Project project) {
+        return ServiceManager.getService(project, ProjectSettings.class);
+    }
+
+    public List<IndexExclusion> getIndexPathExclude() {
+        return indexPathExclude;
+    }
+
+    public void setIndexPathExclude(List<IndexExclusion> paths) {
+        this.indexPathExclude = paths;
+    }
+
+    @Nullable
+    @Override
+    @JsonIgnore
+    public ProjectSettings getState() {
+        return this;
+    }
+
+    @Override
+    @JsonIgnore
+    public void loadState(@NotNull ProjectSettings state) {
+        XmlSerializerUtil.copyBean(state, this);
+    }
+}
@@ -0,0 +1,118 @@
+package dev.bmac.intellij.settings;
+
+import com.intellij.openapi.options.SearchableConfigurable;
+import com.intellij.openapi.project.Project;
+import com.intellij.ui.DoubleClickListener;
+import com.intellij.ui.ToolbarDecorator;
+import com.intellij.ui.table.JBTable;
+import dev.bmac.intellij.indexing.IndexFilter;
+import org.jetbrains.annotations.Nls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings page of the exclusions stored with a project, relative to its content roots.
+ */
+public class ProjectSettingsConfigurable implements SearchableConfigurable {
+    private final Project project;
+    private final ProjectSettings projectSettings;
+    private final List<IndexExclusion> indexExcludeList;
+    private final IndexExclusionTableModel tableModel;
+    private final JBTable table;
+    private final JPanel myPanel = new JPanel(new BorderLayout());
+
+    public ProjectSettingsConfigurable(Project project) {
+        this.project = project;
+        this.projectSettings = ProjectSettings.getInstance(project);
+        this.indexExcludeList = copy(projectSettings.getIndexPathExclude());
+        this.tableModel = new IndexExclusionTableModel(indexExcludeList);
+        this.table = new JBTable(tableModel);
+        table.getEmptyText().setText("Add paths relative to the content roots, such as /build/.*");
+
+        myPanel.add(new JLabel("Checked before the application exclusions. Paths are relative to the content root " +
+                "and start with /"), BorderLayout.NORTH);
+        myPanel.add(ToolbarDecorator.createDecorator(table).disableUpDownActions()
+                .setEditAction(action -> {
+                    editCurrentItem();
+                }).setAddAction(action -> {
+                    IndexExclusion indexExclusion = new IndexExclusion();
+                    IndexExclusionEditor editor = new IndexExclusionEditor(indexExclusion, () -> {
+                        indexExcludeList.add(indexExclusion);
+                        int i = indexExcludeList.size() - 1;
+                        tableModel.fireTableRowsInserted(i, i);
+                    });
+                    editor.setLocationRelativeTo(myPanel);
+                    editor.pack();
+                    editor.setVisible(true);
+                }).setRemoveAction(action -> {
+                    int i = table.getSelectedRow();
+                    indexExcludeList.remove(i);
+                    tableModel.fireTableRowsDeleted(i, i);
+                }).createPanel(), BorderLayout.CENTER);
+
+        new DoubleClickListener() {
+            @Override
+            protected boolean onDoubleClick(MouseEvent event) {
+                editCurrentItem();
+                return true;
+            }
+        }.installOn(table);
+    }
+
+    private static List<IndexExclusion> copy(List<IndexExclusion> exclusions) {
+        List<IndexExclusion> copy = new ArrayList<>();
+        for (IndexExclusion exclusion : exclusions) {
+            copy.add(exclusion.copy());
+        }
+        return copy;
+    }
+
+    private void editCurrentItem() {
+        int i = table.getSelectedRow();
+        IndexExclusion indexExclusion = indexExcludeList.get(i);
+        IndexExclusionEditor editor = new IndexExclusionEditor(indexExclusion, () -> {
+            tableModel.fireTableRowsUpdated(i, i);
+        });
+        editor.setLocationRelativeTo(myPanel);
+        editor.pack();
+        editor.setVisible(true);
+    }
+
+    @NotNull
+    @Override
+    public String getId() {
+        return "dev.bmac.indexExclusion.project";
+    }
+
+    @Nls(capitalization = Nls.Capitalization.Title)
+    @Override
+    public String getDisplayName() {
+        return "Project Index Exclusion";
+    }
+
+    @Nullable
+    @Override
+    public JComponent createComponent() {
+        return myPanel;
+    }
+
+    @Override
+    public boolean isModified() {
+        return !projectSettings.getIndexPathExclude().equals(indexExcludeList);
+    }
+
+    @Override
+    public void apply() {
+        projectSettings.setIndexPathExclude(copy(indexExcludeList));
+        IndexFilter filter = IndexFilter.getInstance();
+        if (filter != null) {
+            filter.reloadProject(project);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package dev.bmac.intellij.stats;
+
+import com.intellij.openapi.fileChooser.FileChooserFactory;
+import com.intellij.openapi.fileChooser.FileSaverDescriptor;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.vfs.VirtualFileWrapper;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowFactory;
+import com.intellij.ui.JBSplitter;
+import com.intellij.ui.components.JBLabel;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.content.Content;
+import com.intellij.ui.content.ContentFactory;
+import com.intellij.ui.table.JBTable;
+import dev.bmac.intellij.indexing.FilterMetrics;
+import dev.bmac.intellij.indexing.IndexFilter;
+import dev.bmac.intellij.indexing.QueryTrace;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.IOException;
+
+/**
+ * Tool window showing the live index filter statistics, refreshed every second while indexing runs, and recording the
+ * filter's queries to a trace file.
+ **/
+public class FilterStatsToolWindowFactory implements ToolWindowFactory, DumbAware {
+    private static final int REFRESH_MILLIS = 1000;
+
+    @Override
+    public void createToolWindowContent(@NotNull Project project, @NotNull ToolWindow toolWindow) {
+        RuleStatsTableModel ruleModel = new RuleStatsTableModel();
+        IndexStatsTableModel indexModel = new IndexStatsTableModel();
+        JBTable ruleTable = new JBTable(ruleModel);
+        JBTable indexTable = new JBTable(indexModel);
+        ruleTable.setAutoCreateRowSorter(true);
+        indexTable.setAutoCreateRowSorter(true);
+        ruleTable.getEmptyText().setText("No path exclusions configured");
+        indexTable.getEmptyText().setText("No indexing happened yet");
+
+        JBSplitter splitter = new JBSplitter(false, 0.5f);
+        splitter.setFirstComponent(new JBScrollPane(ruleTable));
+        splitter.setSecondComponent(new JBScrollPane(indexTable));
+        JBLabel summary = new JBLabel();
+        JButton record = new JButton("Record Queries...");
+        record.addActionListener(e -> toggleRecording(project, record));
+        JPanel header = new JPanel(new BorderLayout());
+        header.add(summary, BorderLayout.CENTER);
+        header.add(record, BorderLayout.EAST);
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.add(header, BorderLayout.NORTH);
+        panel.add(splitter, BorderLayout.CENTER);
+
+        Timer timer = new Timer(REFRESH_MILLIS, e -> {
+            IndexFilter filter = IndexFilter.getInstance();
+            if (filter == null || !panel.isShowing()) return;
+            FilterMetrics metrics = filter.getMetrics();
+            summary.setText(metrics.toString());
+            ruleModel.setStats(metrics.getRuleStats());
+            indexModel.setStats(metrics.getIndexStats());
+            record.setText(filter.isRecording() ? "Stop Recording" : "Record Queries...");
+        });
+        timer.setInitialDelay(0);
+        timer.start();
+
+        Content content = ContentFactory.SERVICE.getInstance().createContent(panel, "", false);
+        Disposer.register(content, timer::stop);
+        toolWindow.getContentManager().addContent(content);
+    }
+
+    /**
+     * Starts recording the filter's queries to a trace file chosen by the user, or stops the recording in progress.
+     */
+    private static void toggleRecording(Project project, JButton record) {
+        IndexFilter filter = IndexFilter.getInstance();
+        if (filter == null) return;
+        if (filter.isRecording()) {
+            QueryTrace trace = filter.stopRecording();
+            record.setText("Record Queries...");
+            if (trace != null) {
+                Messages.showInfoMessage(project, trace.getRecorded() + " queries recorded to " + trace.getFile() +
+                        (trace.getDropped() > 0 ? ", " + trace.getDropped() + " dropped" : "") +
+                        ".\nReplay them with ./gradlew traceReplay -Ptrace=<file>", "Index Filter Trace");
+            }
+            return;
+        }
+        VirtualFileWrapper file = FileChooserFactory.getInstance().createSaveFileDialog(
+                new FileSaverDescriptor("Record Index Filter Queries", "Trace file to record the queries to", "trace"),
+                project).save(null, "index-filter.trace");
+        if (file == null) return;
+        try {
+            filter.startRecording(file.getFile().toPath());
+            record.setText("Stop Recording");
+        } catch (IOException e) {
+            Messages.showErrorDialog(project, "Could not record to " + file.getFile() + ": " + e.getMessage(),
+                    "Index Filter Trace");
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package dev.bmac.intellij.stats;
+
+import dev.bmac.intellij.indexing.FilterMetrics;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Model for the per index statistics.
+ **/
+public class IndexStatsTableModel extends AbstractTableModel {
+    private List<FilterMetrics.IndexStats> stats = new ArrayList<>();
+
+    public void setStats(List<FilterMetrics.IndexStats> stats) {
+        this.stats = stats;
+        fireTableDataChanged();
+    }
+
+    @Override
+    public int getRowCount() {
+        return stats.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return 6;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        switch (column) {
+            case 0: return "Index";
+            case 1: return "Calls";
+            case 2: return "Excluded";
+            case 3: return "Avg (ns)";
+            case 4: return "Sampled time (ms)";
+            case 5: return "Kept out by size (KB)";
+        }
+        return "";
+    }
+
+    @Override
+    public Class<?> getColumnClass(int columnIndex) {
+        return columnIndex == 0 ? String.class : Long.class;
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        FilterMetrics.IndexStats index = stats.get(rowIndex);
+        switch (columnIndex) {
+            case 0: return index.getIndex();
+            case 1: return index.getCalls();
+            case 2: return index.getExcluded();
+            case 3: return index.getAverageNanos();
+            case 4: return index.getNanos() / 1_000_000;
+            case 5: return index.getExcludedBytes() / 1024;
+        }
+        return "";
+    }
+}
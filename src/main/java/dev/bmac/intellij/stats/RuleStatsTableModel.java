@@ -0,0 +1,57 @@
+package dev.bmac.intellij.stats;
+
+import dev.bmac.intellij.indexing.FilterMetrics;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Model for the per path rule statistics.
+ **/
+public class RuleStatsTableModel extends AbstractTableModel {
+    private List<FilterMetrics.RuleStats> stats = new ArrayList<>();
+
+    public void setStats(List<FilterMetrics.RuleStats> stats) {
+        this.stats = stats;
+        fireTableDataChanged();
+    }
+
+    @Override
+    public int getRowCount() {
+        return stats.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return 4;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        switch (column) {
+            case 0: return "Path";
+            case 1: return "Matches";
+            case 2: return "Excluded";
+            case 3: return "Sampled time (ms)";
+        }
+        return "";
+    }
+
+    @Override
+    public Class<?> getColumnClass(int columnIndex) {
+        return columnIndex == 0 ? String.class : Long.class;
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        FilterMetrics.RuleStats rule = stats.get(rowIndex);
+        switch (columnIndex) {
+            case 0: return rule.getRule();
+            case 1: return rule.getMatches();
+            case 2: return rule.getExclusions();
+            case 3: return rule.getNanos() / 1_000_000;
+        }
+        return "";
+    }
+}
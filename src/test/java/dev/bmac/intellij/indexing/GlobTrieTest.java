@@ -0,0 +1,39 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.testFramework.UsefulTestCase;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class GlobTrieTest extends UsefulTestCase {
+
+    @Test
+    public void testSegments() {
+        GlobTrie trie = new GlobTrie(Arrays.asList("**/node_modules/**", "src/*/generated/**", "/opt/*.jar", "**/?.txt"));
+        assertEquals(0, trie.firstMatch("/home/me/project/node_modules/lib/index.js"));
+        assertEquals("Trailing ** needs at least one segment", -1, trie.firstMatch("/home/me/project/node_modules"));
+        assertEquals(1, trie.firstMatch("/project/src/main/generated/Foo.java"));
+        assertEquals("* does not cross segments", -1, trie.firstMatch("/project/src/main/java/generated/Foo.java"));
+        assertEquals(2, trie.firstMatch("/opt/lib.jar"));
+        assertEquals("Leading / anchors the glob", -1, trie.firstMatch("/home/opt/lib.jar"));
+        assertEquals(3, trie.firstMatch("/a/b/c.txt"));
+        assertEquals(-1, trie.firstMatch("/a/b/cd.txt"));
+        assertEquals("Globs are case sensitive", -1, trie.firstMatch("/project/NODE_MODULES/x"));
+    }
+
+    @Test
+    public void testFirstRuleWins() {
+        GlobTrie trie = new GlobTrie(Arrays.asList(null, "**/*.min.js", "**/build/**"));
+        assertEquals(1, trie.firstMatch("/project/build/app.min.js"));
+        assertEquals(2, trie.firstMatch("/project/build/app.js"));
+    }
+
+    @Test
+    public void testDirectoryLiteral() {
+        assertEquals("/node_modules/", GlobTrie.directoryLiteral("**/node_modules/**"));
+        assertEquals("/a/b/", GlobTrie.directoryLiteral("a/b/**"));
+        assertNull(GlobTrie.directoryLiteral("/a/**"));
+        assertNull(GlobTrie.directoryLiteral("**/a*/**"));
+        assertNull(GlobTrie.directoryLiteral("**/a/*.js"));
+    }
+}
@@ -0,0 +1,64 @@
+package dev.bmac.intellij.indexing;
+
+import com.google.common.collect.Lists;
+import com.intellij.mock.MockVirtualFile;
+import com.intellij.psi.impl.cache.impl.todo.TodoIndex;
+import com.intellij.testFramework.UsefulTestCase;
+import com.intellij.util.indexing.ID;
+import dev.bmac.intellij.settings.IndexExclusion;
+import dev.bmac.intellij.settings.PluginSettings;
+import org.junit.Test;
+
+import java.util.List;
+
+public class ImpactAnalyzerTest extends UsefulTestCase {
+
+    @Test
+    public void testCounts() {
+        ID a = ID.create("a");
+        ID b = ID.create("b");
+        ID c = ID.create("c");
+        List<ID<?, ?>> indexes = Lists.newArrayList(a, b, c);
+        IndexExclusion.IndexNameExclusion excludeAB = new IndexExclusion.IndexNameExclusion();
+        excludeAB.setIndexerNames(Lists.newArrayList("a", "b"));
+        excludeAB.setExcludeIfNotIn(false);
+        PluginSettings settings = new PluginSettings();
+        settings.setIndexPathExclude(Lists.newArrayList(new IndexExclusion(".*/test/.*", excludeAB)));
+        ImpactAnalyzer analyzer = new ImpactAnalyzer(settings, indexes);
+
+        ImpactAnalyzer.Report report = analyzer.newReport();
+        analyzer.analyze(new MockVirtualFile("/p/test/one.txt", "12345"), report);
+        analyzer.analyze(new MockVirtualFile("/p/test/two.txt", "123"), report);
+        analyzer.analyze(new MockVirtualFile("/p/src/three.txt", "1"), report);
+
+        assertEquals(3, report.getFiles());
+        ImpactAnalyzer.Row rule = report.getRules().get(0);
+        assertEquals(2, rule.getFiles());
+        assertEquals(8, rule.getBytes());
+        assertEquals("Expect each file to skip two indexes", 4, rule.getPairs());
+        assertEquals(2, report.getIndexes().get(0).getFiles());
+        assertEquals(0, report.getIndexes().get(2).getFiles());
+    }
+
+    @Test
+    public void testWholeIndexNotCreditedToRule() {
+        ID a = ID.create("a");
+        List<ID<?, ?>> indexes = Lists.newArrayList(a, TodoIndex.NAME);
+        IndexExclusion.IndexNameExclusion excludeAll = new IndexExclusion.IndexNameExclusion();
+        excludeAll.setIndexerNames(Lists.newArrayList());
+        excludeAll.setExcludeIfNotIn(true);
+        PluginSettings settings = new PluginSettings();
+        settings.setTODOIndexDisabled(true);
+        settings.setIndexPathExclude(Lists.newArrayList(new IndexExclusion(".*/test/.*", excludeAll)));
+        ImpactAnalyzer analyzer = new ImpactAnalyzer(settings, indexes);
+
+        ImpactAnalyzer.Report report = analyzer.newReport();
+        analyzer.analyze(new MockVirtualFile("/p/test/one.txt", "12345"), report);
+        analyzer.analyze(new MockVirtualFile("/p/src/two.txt", "123"), report);
+
+        assertEquals("Expect the TODO index to be excluded by the switch, not the rule", 1,
+                report.getRules().get(0).getPairs());
+        assertEquals(1, report.getIndexes().get(0).getFiles());
+        assertEquals(2, report.getIndexes().get(1).getFiles());
+    }
+}
@@ -0,0 +1,108 @@
+package dev.bmac.intellij.indexing;
+
+import com.google.common.collect.Lists;
+import com.intellij.testFramework.UsefulTestCase;
+import com.intellij.util.indexing.ID;
+import dev.bmac.intellij.settings.IndexExclusion;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+public class IndexDecisionTableTest extends UsefulTestCase {
+
+    private static IndexExclusion.IndexNameExclusion indexes(boolean excludeIfNotIn, String... names) {
+        IndexExclusion.IndexNameExclusion exclusion = new IndexExclusion.IndexNameExclusion();
+        exclusion.setIndexerNames(Lists.newArrayList(names));
+        exclusion.setExcludeIfNotIn(excludeIfNotIn);
+        return exclusion;
+    }
+
+    @Test
+    public void testFirstSeenAndCachedIndexes() {
+        AtomicInteger tests = new AtomicInteger();
+        Predicate<String> excludeA = IndexDecisionTable.toPredicate(indexes(false, "table.a"));
+        IndexDecisionTable table = new IndexDecisionTable(Collections.<Predicate<String>>singletonList(name -> {
+            tests.incrementAndGet();
+            return excludeA.test(name);
+        }));
+        ID<?, ?> a = ID.create("table.a");
+        ID<?, ?> b = ID.create("table.b");
+
+        assertTrue("Expect a first seen index to be resolved by name", table.isExcluded(0, a));
+        assertEquals(1, tests.get());
+        assertTrue("Expect a resolved index to be a bit test", table.isExcluded(0, a));
+        assertEquals(1, tests.get());
+        assertFalse(table.isExcluded(0, b));
+        assertFalse(table.isExcluded(0, b));
+        assertEquals("Expect each index to be resolved once", 2, tests.get());
+        assertTrue("Expect resolving another index to keep the earlier ones", table.isExcluded(0, a));
+    }
+
+    @Test
+    public void testExcludeIfNotIn() {
+        IndexDecisionTable table = new IndexDecisionTable(Arrays.asList(
+                IndexDecisionTable.toPredicate(indexes(true, "table.kept")),
+                IndexDecisionTable.toPredicate(indexes(false, "table.kept"))));
+        ID<?, ?> kept = ID.create("table.kept");
+        ID<?, ?> other = ID.create("table.other");
+
+        assertFalse("Expect the listed index to be kept", table.isExcluded(0, kept));
+        assertTrue("Expect every index not listed to be excluded", table.isExcluded(0, other));
+        assertTrue("Expect rules to be resolved independently", table.isExcluded(1, kept));
+        assertFalse(table.isExcluded(1, other));
+    }
+
+    @Test
+    public void testConcurrentFirstLookups() throws Exception {
+        int threads = 8;
+        List<ID<?, ?>> ids = new ArrayList<>();
+        for (int i = 0; i < threads * 16; i++) {
+            ids.add(ID.create("table.concurrent." + i));
+        }
+        ConcurrentHashMap<String, AtomicInteger> tests = new ConcurrentHashMap<>();
+        IndexDecisionTable table = new IndexDecisionTable(Collections.<Predicate<String>>singletonList(name -> {
+            tests.computeIfAbsent(name, n -> new AtomicInteger()).incrementAndGet();
+            return name.hashCode() % 2 == 0;
+        }));
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> lookups = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                int first = thread;
+                lookups.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = first; i < ids.size(); i += threads) {
+                        ID<?, ?> id = ids.get(i);
+                        assertEquals(id.getName().hashCode() % 2 == 0, table.isExcluded(0, id));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> lookup : lookups) {
+                lookup.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (ID<?, ?> id : ids) {
+            assertEquals("Expect no index to be lost to a concurrent first lookup of another",
+                    id.getName().hashCode() % 2 == 0, table.isExcluded(0, id));
+            assertEquals("Expect each index to be resolved once", 1, tests.get(id.getName()).get());
+        }
+    }
+}
@@ -2,13 +2,24 @@ package dev.bmac.intellij.indexing;
 
 import com.google.common.collect.Lists;
 import com.intellij.mock.MockVirtualFile;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileWithId;
 import com.intellij.testFramework.UsefulTestCase;
 import com.intellij.util.indexing.ID;
 import dev.bmac.intellij.settings.IndexExclusion;
+import dev.bmac.intellij.settings.IndexFamily;
 import dev.bmac.intellij.settings.PluginSettings;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.Predicate;
+
 public class IndexFilterTest extends UsefulTestCase {
 
     @Test
@@ -103,4 +114,579 @@ public class IndexFilterTest extends UsefulTestCase {
                 filter.isExcludedFromIndex(new MockVirtualFile("/testing/stuff/path"), a));
 
     }
+
+    @Test
+    public void testFirstMatchingRuleWins() {
+        PluginSettings settings = new PluginSettings();
+        IndexExclusion.IndexNameExclusion excludeA = new IndexExclusion.IndexNameExclusion();
+        excludeA.setIndexerNames(Lists.newArrayList("a"));
+        excludeA.setExcludeIfNotIn(false);
+        IndexExclusion.IndexNameExclusion excludeB = new IndexExclusion.IndexNameExclusion();
+        excludeB.setIndexerNames(Lists.newArrayList("b"));
+        excludeB.setExcludeIfNotIn(false);
+        settings.setIndexPathExclude(Lists.newArrayList(
+                new IndexExclusion(".*/test/.*", excludeA),
+                new IndexExclusion(".*/other/.*", excludeB),
+                new IndexExclusion(".*/test/stuff/.*", excludeB)));
+        IndexFilter filter = new IndexFilter(settings);
+
+        ID a = ID.create("a");
+        ID b = ID.create("b");
+
+        assertTrue("First rule in the list should apply",
+                filter.isExcludedFromIndex(new MockVirtualFile("blah/test/stuff/path"), a));
+        assertFalse("Later matching rules should not apply",
+                filter.isExcludedFromIndex(new MockVirtualFile("blah/test/stuff/path"), b));
+        assertTrue("Rules sharing no literal with the path should still match on their own",
+                filter.isExcludedFromIndex(new MockVirtualFile("blah/other/path"), b));
+        assertFalse("Expect to not filter out requests with a file not matching any rule",
+                filter.isExcludedFromIndex(new MockVirtualFile("blah/stuff/path"), a));
+    }
+
+    @Test
+    public void testDfaEngine() {
+        PluginSettings settings = new PluginSettings();
+        settings.setMatcherEngine(PluginSettings.MatcherEngine.DFA);
+        IndexExclusion.IndexNameExclusion excludeA = new IndexExclusion.IndexNameExclusion();
+        excludeA.setIndexerNames(Lists.newArrayList("a"));
+        excludeA.setExcludeIfNotIn(false);
+        IndexExclusion.IndexNameExclusion excludeB = new IndexExclusion.IndexNameExclusion();
+        excludeB.setIndexerNames(Lists.newArrayList("b"));
+        excludeB.setExcludeIfNotIn(false);
+        settings.setIndexPathExclude(Lists.newArrayList(
+                new IndexExclusion(".*/(\\w+)/\\1/.*", excludeB),
+                new IndexExclusion(".*/test.*/stuff/.*", excludeA),
+                new IndexExclusion(".*\\.(min\\.js|map)", excludeB)));
+        IndexFilter filter = new IndexFilter(settings);
+
+        ID a = ID.create("a");
+        ID b = ID.create("b");
+
+        assertTrue("Filter out path that matches",
+                filter.isExcludedFromIndex(new MockVirtualFile("/testing/stuff/path"), a));
+        assertTrue("Regex rules match ignoring case",
+                filter.isExcludedFromIndex(new MockVirtualFile("/some/app.MIN.js"), b));
+        assertFalse("Should not filter out that which does not match",
+                filter.isExcludedFromIndex(new MockVirtualFile("/some/app.js"), b));
+        assertTrue("Rules the DFA cannot express should still apply, and win when first",
+                filter.isExcludedFromIndex(new MockVirtualFile("/same/same/test/stuff/x"), b));
+        assertFalse("Rules the DFA cannot express should still apply, and win when first",
+                filter.isExcludedFromIndex(new MockVirtualFile("/same/same/test/stuff/x"), a));
+    }
+
+    @Test
+    public void testEnginesAgreeOnCase() {
+        ID a = ID.create("a");
+        for (String rule : new String[]{".*/build/.*", ".*/build/.*\\.java", ".*\\.(min\\.js|map)", ".*/[a-z]+/Gen.*"}) {
+            for (String path : new String[]{"/p/build/Main.java", "/p/BUILD/Main.java", "/p/Build/Main.JAVA",
+                    "/p/web/app.MIN.js", "/p/web/app.min.js", "/p/src/Generated.java", "/p/SRC/gen.java"}) {
+                Boolean expected = null;
+                for (PluginSettings.MatcherEngine engine : PluginSettings.MatcherEngine.values()) {
+                    PluginSettings settings = new PluginSettings();
+                    settings.setMatcherEngine(engine);
+                    settings.setIndexPathExclude(Lists.newArrayList(new IndexExclusion(rule,
+                            new IndexExclusion.IndexNameExclusion())));
+                    boolean excluded = new IndexFilter(settings).isExcludedFromIndex(new MockVirtualFile(path), a);
+                    if (expected == null) {
+                        expected = excluded;
+                    }
+                    assertEquals("Expect " + engine + " to decide " + path + " for " + rule + " like the others",
+                            expected.booleanValue(), excluded);
+                }
+                PluginSettings settings = new PluginSettings();
+                settings.setIndexPathExclude(Lists.newArrayList(new IndexExclusion(rule,
+                        new IndexExclusion.IndexNameExclusion())));
+                assertEquals("Expect " + path + " to be decided for " + rule + " ignoring case", expected.booleanValue(),
+                        new IndexFilter(settings).isExcludedFromIndex(new MockVirtualFile(path.toLowerCase()), a));
+            }
+        }
+    }
+
+    @Test
+    public void testDirectoryRules() {
+        PluginSettings settings = new PluginSettings();
+        IndexExclusion.IndexNameExclusion excludeA = new IndexExclusion.IndexNameExclusion();
+        excludeA.setIndexerNames(Lists.newArrayList("a"));
+        excludeA.setExcludeIfNotIn(false);
+        IndexExclusion.IndexNameExclusion excludeB = new IndexExclusion.IndexNameExclusion();
+        excludeB.setIndexerNames(Lists.newArrayList("b"));
+        excludeB.setExcludeIfNotIn(false);
+        settings.setIndexPathExclude(Lists.newArrayList(
+                new IndexExclusion(".*/node_modules/.*", excludeA),
+                new IndexExclusion(".*\\.min\\.js", excludeB),
+                new IndexExclusion(".*/build/.*", excludeB)));
+        IndexFilter filter = new IndexFilter(settings);
+
+        MockVirtualFile root = new MockVirtualFile(true, "root");
+        MockVirtualFile nodeModules = new MockVirtualFile(true, "node_modules");
+        MockVirtualFile lib = new MockVirtualFile(true, "lib");
+        MockVirtualFile minified = new MockVirtualFile("lib.min.js");
+        MockVirtualFile build = new MockVirtualFile(true, "build");
+        MockVirtualFile buildMinified = new MockVirtualFile("out.min.js");
+        root.addChild(nodeModules);
+        nodeModules.addChild(lib);
+        lib.addChild(minified);
+        root.addChild(build);
+        build.addChild(buildMinified);
+
+        ID a = ID.create("a");
+        ID b = ID.create("b");
+
+        assertTrue("Files under a covered directory should match the directory rule",
+                filter.isExcludedFromIndex(minified, a));
+        assertFalse("Later rules should not apply under a covered directory",
+                filter.isExcludedFromIndex(minified, b));
+        assertFalse("Directory itself is not covered by its own rule",
+                filter.isExcludedFromIndex(nodeModules, a));
+        assertTrue("File name rules before a directory rule should still win",
+                filter.isExcludedFromIndex(buildMinified, b));
+    }
+
+    @Test
+    public void testMetrics() {
+        PluginSettings settings = new PluginSettings();
+        IndexExclusion.IndexNameExclusion indexNameExclusion = new IndexExclusion.IndexNameExclusion();
+        indexNameExclusion.setIndexerNames(Lists.newArrayList("a"));
+        indexNameExclusion.setExcludeIfNotIn(false);
+        IndexExclusion.IndexNameExclusion excludeC = new IndexExclusion.IndexNameExclusion();
+        excludeC.setIndexerNames(Lists.newArrayList("c"));
+        excludeC.setExcludeIfNotIn(false);
+        //The second rule only makes c an affected index, so the filter records decisions for it.
+        settings.setIndexPathExclude(Lists.newArrayList(new IndexExclusion(".*/test/.*", indexNameExclusion),
+                new IndexExclusion(".*/generated/.*", excludeC)));
+        IndexFilter filter = new IndexFilter(settings);
+
+        ID a = ID.create("a");
+        ID c = ID.create("c");
+        filter.isExcludedFromIndex(new MockVirtualFile("blah/test/stuff"), a);
+        filter.isExcludedFromIndex(new MockVirtualFile("blah/test/stuff"), c);
+        filter.isExcludedFromIndex(new MockVirtualFile("some/other/path"), a);
+
+        FilterMetrics metrics = filter.getMetrics();
+        assertEquals(3, metrics.getDecisions());
+        FilterMetrics.RuleStats rule = metrics.getRuleStats().get(0);
+        assertEquals("Expect both decisions on the matching file to count for the rule", 2, rule.getMatches());
+        assertEquals("Expect only the excluded index to count as saved", 1, rule.getExclusions());
+        long excludedFromA = metrics.getIndexStats().stream().filter(i -> i.getIndex().equals("a"))
+                .mapToLong(FilterMetrics.IndexStats::getExcluded).sum();
+        assertEquals(1, excludedFromA);
+        long coveredInC = metrics.getIndexStats().stream().filter(i -> i.getIndex().equals("c"))
+                .mapToLong(FilterMetrics.IndexStats::getCoveredIncluded).sum();
+        assertEquals("Expect the matched file still indexed by c to count as reclaimable", 1, coveredInC);
+    }
+
+    @Test
+    public void testMetricsCreditExcludingRule() {
+        PluginSettings settings = new PluginSettings();
+        IndexExclusion.IndexNameExclusion excludeA = new IndexExclusion.IndexNameExclusion();
+        excludeA.setIndexerNames(Lists.newArrayList("a"));
+        excludeA.setExcludeIfNotIn(false);
+        IndexExclusion.IndexNameExclusion excludeC = new IndexExclusion.IndexNameExclusion();
+        excludeC.setIndexerNames(Lists.newArrayList("c"));
+        excludeC.setExcludeIfNotIn(false);
+        IndexExclusion anyLargeFile = new IndexExclusion("", excludeC);
+        anyLargeFile.setSizeThreshold(10);
+        settings.setIndexPathExclude(Lists.newArrayList(new IndexExclusion(".*/test/.*", excludeA), anyLargeFile));
+        IndexFilter filter = new IndexFilter(settings);
+
+        MockVirtualFile large = new MockVirtualFile("/p/test/large.txt", "0123456789abcdef");
+        assertTrue(filter.isExcludedFromIndex(large, ID.create("a")));
+        assertTrue(filter.isExcludedFromIndex(large, ID.create("c")));
+
+        FilterMetrics.RuleStats path = filter.getMetrics().getRuleStats().get(0);
+        assertEquals(2, path.getMatches());
+        assertEquals("Expect the path rule to only be credited with its own exclusion", 1, path.getExclusions());
+        FilterMetrics.RuleStats size = filter.getMetrics().getRuleStats().get(1);
+        assertEquals(1, size.getMatches());
+        assertEquals("Expect the size exclusion to be credited with what it kept out", 1, size.getExclusions());
+    }
+
+    @Test
+    public void testPathBuffer() {
+        MockVirtualFile root = new MockVirtualFile(true, "root");
+        MockVirtualFile dir = new MockVirtualFile(true, "dir");
+        MockVirtualFile file = new MockVirtualFile("file.txt");
+        root.addChild(dir);
+        dir.addChild(file);
+
+        assertEquals(file.getPath(), PathBuffer.of(file).toString());
+        assertEquals("Expect the buffer to be reused without leftovers", root.getPath(), PathBuffer.of(root).toString());
+        assertEquals(dir.getPath().length(), PathBuffer.of(dir).length());
+    }
+
+    @Test
+    public void testGlobRules() {
+        PluginSettings settings = new PluginSettings();
+        IndexExclusion.IndexNameExclusion excludeA = new IndexExclusion.IndexNameExclusion();
+        excludeA.setIndexerNames(Lists.newArrayList("a"));
+        excludeA.setExcludeIfNotIn(false);
+        IndexExclusion.IndexNameExclusion excludeB = new IndexExclusion.IndexNameExclusion();
+        excludeB.setIndexerNames(Lists.newArrayList("b"));
+        excludeB.setExcludeIfNotIn(false);
+        settings.setIndexPathExclude(Lists.newArrayList(
+                new IndexExclusion(".*\\.min\\.js", excludeB),
+                new IndexExclusion("**/node_modules/**", IndexExclusion.Syntax.GLOB, excludeA)));
+        IndexFilter filter = new IndexFilter(settings);
+
+        ID a = ID.create("a");
+        ID b = ID.create("b");
+        assertTrue(filter.isExcludedFromIndex(new MockVirtualFile("/p/node_modules/lib/index.js"), a));
+        assertFalse(filter.isExcludedFromIndex(new MockVirtualFile("/p/src/index.js"), a));
+        assertTrue("Regex rules before a glob should still win",
+                filter.isExcludedFromIndex(new MockVirtualFile("/p/node_modules/lib/index.min.js"), b));
+        assertFalse(filter.isExcludedFromIndex(new MockVirtualFile("/p/node_modules/lib/index.min.js"), a));
+    }
+
+    @Test
+    public void testIndexFamilies() {
+        PluginSettings settings = new PluginSettings();
+        IndexFilter filter = new IndexFilter(settings);
+        ID jsIndex = ID.create("js.test.family.index");
+        assertFalse("Expect presets to be disabled by default", filter.isExcludedFromIndex(new MockVirtualFile("/a.js"), jsIndex));
+
+        PluginSettings saved = new PluginSettings();
+        saved.setFrontEndIndexDisabled(true);
+        settings.loadState(saved);
+        assertTrue("Expect the old frontend switch to enable the frontend family",
+                settings.getIndexFamilies().stream().anyMatch(f -> f.getName().equals(IndexFamily.FRONTEND) && f.isEnabled()));
+        filter = new IndexFilter(settings);
+        assertTrue(filter.isExcludedFromIndex(new MockVirtualFile("/a.js"), jsIndex));
+        assertFalse(filter.isExcludedFromIndex(new MockVirtualFile("/a.js"), ID.create("java.test.family.index")));
+    }
+
+    @Test
+    public void testAffectsIndex() {
+        PluginSettings settings = new PluginSettings();
+        IndexExclusion.IndexNameExclusion excludeA = new IndexExclusion.IndexNameExclusion();
+        excludeA.setIndexerNames(Lists.newArrayList("a"));
+        excludeA.setExcludeIfNotIn(false);
+        settings.setIndexPathExclude(Lists.newArrayList(new IndexExclusion(".*/test/.*", excludeA)));
+        IndexFilter filter = new IndexFilter(settings);
+
+        ID a = ID.create("a");
+        ID b = ID.create("b");
+        assertTrue(filter.affectsIndex(a));
+        assertFalse("Expect indexes no rule excludes to bypass the filter", filter.affectsIndex(b));
+        assertFalse(filter.isExcludedFromIndex(new MockVirtualFile("blah/test/stuff"), b));
+        assertEquals("Expect unaffected indexes not to reach the matcher", 0, filter.getMetrics().getDecisions());
+
+        IndexExclusion.IndexNameExclusion onlyA = new IndexExclusion.IndexNameExclusion();
+        onlyA.setIndexerNames(Lists.newArrayList("a"));
+        onlyA.setExcludeIfNotIn(true);
+        settings.setIndexPathExclude(Lists.newArrayList(new IndexExclusion(".*/test/.*", onlyA)));
+        filter = new IndexFilter(settings);
+        assertFalse("Expect the only index kept by an excludeIfNotIn rule to be unaffected", filter.affectsIndex(a));
+        assertTrue(filter.affectsIndex(b));
+    }
+
+    @Test
+    public void testAffectsIndexStableAcrossEdits() throws IOException {
+        Path directory = FileUtil.createTempDirectory("affected", null).toPath();
+        IndexExclusion.IndexNameExclusion excludeA = new IndexExclusion.IndexNameExclusion();
+        excludeA.setIndexerNames(Lists.newArrayList("a"));
+        excludeA.setExcludeIfNotIn(false);
+        PluginSettings settings = new PluginSettings();
+        settings.setIndexPathExclude(Lists.newArrayList(new IndexExclusion(".*/test/.*", excludeA)));
+        ID a = ID.create("a");
+        ID b = ID.create("b");
+        ID c = ID.create("c");
+        IndexFilter filter = new IndexFilter(settings, directory);
+        assertTrue(filter.affectsIndex(a));
+        assertFalse(filter.affectsIndex(c));
+
+        //Edited and restarted: the rule moved from a to b.
+        settings.getIndexPathExclude().get(0).getIndexerNameExclusion().setIndexerNames(Lists.newArrayList("b"));
+        settings.getIndexPathExclude().get(0).setPath(".*/tests/.*");
+        filter = new IndexFilter(settings, directory);
+        assertTrue(filter.affectsIndex(b));
+        assertTrue("Expect an index once affected to stay affected, not to be rebuilt", filter.affectsIndex(a));
+        assertFalse("Expect the edit not to flip an unrelated index", filter.affectsIndex(c));
+        assertFalse("Expect decisions to still bypass the index no rule excludes",
+                filter.isExcludedFromIndex(new MockVirtualFile("blah/test/stuff"), a));
+    }
+
+    @Test
+    public void testExtensionRules() {
+        PluginSettings settings = new PluginSettings();
+        IndexExclusion.IndexNameExclusion excludeA = new IndexExclusion.IndexNameExclusion();
+        excludeA.setIndexerNames(Lists.newArrayList("a"));
+        excludeA.setExcludeIfNotIn(false);
+        IndexExclusion.IndexNameExclusion excludeB = new IndexExclusion.IndexNameExclusion();
+        excludeB.setIndexerNames(Lists.newArrayList("b"));
+        excludeB.setExcludeIfNotIn(false);
+        settings.setIndexPathExclude(Lists.newArrayList(
+                new IndexExclusion(".*/vendor/.*", excludeB),
+                new IndexExclusion("*.min.js, .MAP", IndexExclusion.Syntax.EXTENSION, excludeA)));
+        IndexFilter filter = new IndexFilter(settings);
+
+        ID a = ID.create("a");
+        ID b = ID.create("b");
+        assertTrue(filter.isExcludedFromIndex(new MockVirtualFile("/p/app.min.js"), a));
+        assertTrue("Expect extensions to match ignoring case", filter.isExcludedFromIndex(new MockVirtualFile("/p/app.js.map"), a));
+        assertFalse(filter.isExcludedFromIndex(new MockVirtualFile("/p/app.js"), a));
+        assertFalse(filter.isExcludedFromIndex(new MockVirtualFile("/p/min.js"), a));
+        assertTrue("Path rules before an extension rule should still win",
+                filter.isExcludedFromIndex(new MockVirtualFile("/p/vendor/lib.min.js"), b));
+        assertFalse(filter.isExcludedFromIndex(new MockVirtualFile("/p/vendor/lib.min.js"), a));
+    }
+
+    @Test
+    public void testSizeThresholds() {
+        PluginSettings settings = new PluginSettings();
+        IndexExclusion.IndexNameExclusion excludeA = new IndexExclusion.IndexNameExclusion();
+        excludeA.setIndexerNames(Lists.newArrayList("a"));
+        excludeA.setExcludeIfNotIn(false);
+        IndexExclusion anyLargeFile = new IndexExclusion("", excludeA);
+        anyLargeFile.setSizeThreshold(10);
+        IndexExclusion.IndexNameExclusion excludeB = new IndexExclusion.IndexNameExclusion();
+        excludeB.setIndexerNames(Lists.newArrayList("b"));
+        excludeB.setExcludeIfNotIn(false);
+        IndexExclusion largeJson = new IndexExclusion("json", IndexExclusion.Syntax.EXTENSION, excludeB);
+        largeJson.setSizeThreshold(10);
+        settings.setIndexPathExclude(Lists.newArrayList(anyLargeFile, largeJson));
+        IndexFilter filter = new IndexFilter(settings);
+
+        ID a = ID.create("a");
+        ID b = ID.create("b");
+        MockVirtualFile large = new MockVirtualFile("/p/fixture.json", "0123456789abcdef");
+        assertTrue(filter.isExcludedFromIndex(large, a));
+        assertTrue(filter.isExcludedFromIndex(large, b));
+        assertFalse(filter.isExcludedFromIndex(new MockVirtualFile("/p/small.json", "0123"), a));
+        assertFalse("Expect the path to limit the size exclusion",
+                filter.isExcludedFromIndex(new MockVirtualFile("/p/large.txt", "0123456789abcdef"), b));
+        long keptOut = filter.getMetrics().getIndexStats().stream().mapToLong(FilterMetrics.IndexStats::getExcludedBytes).sum();
+        assertEquals("Expect the bytes kept out of both indexes to be reported", 32, keptOut);
+
+        MockVirtualFile withId = new IdFile("/p/other.json", "0123456789abcdef", 7);
+        assertTrue(filter.isExcludedFromIndex(withId, a));
+        assertTrue(filter.isExcludedFromIndex(withId, a));
+        keptOut = filter.getMetrics().getIndexStats().stream().mapToLong(FilterMetrics.IndexStats::getExcludedBytes).sum();
+        assertEquals("Expect a file asked for again to be counted once", 48, keptOut);
+    }
+
+    @Test
+    public void testGeneratedContent() {
+        assertTrue(isGenerated("// Code generated by protoc-gen-go. DO NOT EDIT.\npackage foo\n"));
+        assertTrue(isGenerated("/**\n * @generated\n */\nclass A {}\n"));
+        assertTrue(isGenerated("var a=1;\n//# sourceMappingURL=app.js.map\n"));
+        assertTrue("Expect a minified line to be caught",
+                isGenerated(StringUtil.repeat("a=1;", GeneratedContentDetector.MAX_LINE_LENGTH)));
+        assertFalse(isGenerated("package foo;\n\nclass A {\n}\n"));
+        byte[] sample = "x @generated".getBytes(StandardCharsets.US_ASCII);
+        assertFalse("Expect only the sampled prefix to be scanned", GeneratedContentDetector.isGenerated(sample, 5));
+    }
+
+    private static boolean isGenerated(String content) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        return GeneratedContentDetector.isGenerated(bytes, bytes.length);
+    }
+
+    @Test
+    public void testProjectRules() {
+        MockVirtualFile repo = new MockVirtualFile(true, "repo");
+        MockVirtualFile build = new MockVirtualFile(true, "build");
+        MockVirtualFile nested = new MockVirtualFile(true, "build");
+        MockVirtualFile src = new MockVirtualFile(true, "src");
+        MockVirtualFile output = new MockVirtualFile("Main.class");
+        MockVirtualFile nestedOutput = new MockVirtualFile("Util.class");
+        repo.addChild(build);
+        repo.addChild(src);
+        build.addChild(output);
+        src.addChild(nested);
+        nested.addChild(nestedOutput);
+
+        IndexExclusion.IndexNameExclusion excludeA = new IndexExclusion.IndexNameExclusion();
+        excludeA.setIndexerNames(Lists.newArrayList("a"));
+        excludeA.setExcludeIfNotIn(false);
+        ProjectRules rules = new ProjectRules(null,
+                Lists.newArrayList(new IndexExclusion("/build/.*", excludeA)), new PluginSettings());
+        ProjectScopes scopes = new ProjectScopes(Collections.singletonMap(repo, rules));
+
+        ID a = ID.create("a");
+        assertTrue(scopes.affectsIndex(a));
+        ProjectScopes.Scope scope = scopes.find(output);
+        assertNotNull(scope);
+        assertSame(repo, scope.root);
+        assertEquals("/build/Main.class", PathBuffer.relative(output, repo).toString());
+        assertEquals(0, rules.getMatchingRule(output, scope.root));
+        assertTrue(rules.isExcluded(0, a));
+        assertEquals("Expect project rules to be anchored at the content root",
+                -1, rules.getMatchingRule(nestedOutput, scopes.find(nestedOutput).root));
+        assertNull(scopes.find(new MockVirtualFile("/elsewhere/Main.class")));
+    }
+
+    @Test
+    public void testIgnoreFiles() {
+        MockVirtualFile root = new MockVirtualFile(true, "repo");
+        MockVirtualFile build = new MockVirtualFile(true, "build");
+        MockVirtualFile src = new MockVirtualFile(true, "src");
+        MockVirtualFile gen = new MockVirtualFile(true, "gen");
+        MockVirtualFile srcGen = new MockVirtualFile(true, "gen");
+        MockVirtualFile docs = new MockVirtualFile(true, "docs");
+        MockVirtualFile output = new MockVirtualFile("out.txt");
+        MockVirtualFile log = new MockVirtualFile("debug.log");
+        MockVirtualFile kept = new MockVirtualFile("keep.log");
+        MockVirtualFile generated = new MockVirtualFile("Gen.java");
+        MockVirtualFile notGenerated = new MockVirtualFile("Gen.java");
+        MockVirtualFile scratch = new MockVirtualFile("notes.tmp");
+        root.addChild(new MockVirtualFile(".gitignore", "# build output\nbuild/\n*.log\n!keep.log\n"));
+        root.addChild(build);
+        root.addChild(src);
+        root.addChild(gen);
+        root.addChild(docs);
+        root.addChild(log);
+        root.addChild(kept);
+        build.addChild(output);
+        src.addChild(new MockVirtualFile(".gitignore", "/gen\n"));
+        src.addChild(srcGen);
+        srcGen.addChild(generated);
+        gen.addChild(notGenerated);
+        docs.addChild(scratch);
+
+        PluginSettings settings = new PluginSettings();
+        IndexExclusion.IndexNameExclusion excludeA = new IndexExclusion.IndexNameExclusion();
+        excludeA.setIndexerNames(Lists.newArrayList("a"));
+        excludeA.setExcludeIfNotIn(false);
+        IndexExclusion ignoreFile = new IndexExclusion(".gitignore", excludeA);
+        ignoreFile.setSyntax(IndexExclusion.Syntax.IGNORE_FILE);
+        settings.setIndexPathExclude(Lists.newArrayList(ignoreFile));
+        IndexFilter filter = new IndexFilter(settings);
+
+        ID a = ID.create("a");
+        assertTrue("Expect files under an ignored directory to be excluded", filter.isExcludedFromIndex(output, a));
+        assertTrue(filter.isExcludedFromIndex(log, a));
+        assertFalse("Expect ! patterns to re-include", filter.isExcludedFromIndex(kept, a));
+        assertTrue("Expect nested ignore files to apply to their directory", filter.isExcludedFromIndex(generated, a));
+        assertFalse("Expect anchored patterns to be relative to their ignore file",
+                filter.isExcludedFromIndex(notGenerated, a));
+        assertFalse(filter.isExcludedFromIndex(scratch, a));
+
+        IgnoreFileMatcher matcher = new IgnoreFileMatcher(".gitignore");
+        assertFalse(matcher.isIgnored(scratch));
+        docs.addChild(new MockVirtualFile(".gitignore", "*.tmp\n"));
+        Predicate<VirtualFile> flipped = matcher.changed(docs);
+        assertTrue("Expect the new ignore file to be compiled", matcher.isIgnored(scratch));
+        assertTrue(flipped.test(scratch));
+        assertFalse("Expect files outside the directory to keep their verdict", flipped.test(log));
+
+        ((MockVirtualFile) docs.findChild(".gitignore")).setContent(null, "", false);
+        flipped = matcher.changed(docs);
+        assertFalse("Expect the emptied ignore file to stop applying", matcher.isIgnored(scratch));
+        assertTrue("Expect the previous change to be what the edit is compared with", flipped.test(scratch));
+        assertTrue("Expect the other ignore files to stay compiled", matcher.isIgnored(log));
+
+        FileRuleMatcher ruleMatcher = new FileRuleMatcher(settings.getMatcherEngine(), settings.getIndexPathExclude());
+        assertTrue(ruleMatcher.readsIgnoreFile(".gitignore"));
+        assertFalse("Expect events for other files to be dismissed by name", ruleMatcher.readsIgnoreFile("Gen.java"));
+    }
+
+    @Test
+    public void testMatchBuiltPath() {
+        IndexExclusion extension = new IndexExclusion("log", new IndexExclusion.IndexNameExclusion());
+        extension.setSyntax(IndexExclusion.Syntax.EXTENSION);
+        FileRuleMatcher matcher = new FileRuleMatcher(PluginSettings.MatcherEngine.LITERAL_PREFILTER,
+                Lists.newArrayList(new IndexExclusion(".*/test/.*", new IndexExclusion.IndexNameExclusion()), extension));
+        MockVirtualFile root = new MockVirtualFile(true, "root");
+        MockVirtualFile test = new MockVirtualFile(true, "test");
+        MockVirtualFile source = new MockVirtualFile("Test.java");
+        MockVirtualFile log = new MockVirtualFile("debug.log");
+        root.addChild(test);
+        root.addChild(log);
+        test.addChild(source);
+
+        StringBuilder path = new StringBuilder(test.getPath()).append('/');
+        assertEquals("Expect a path built from the directory prefix to match like the file's own path",
+                matcher.firstMatch(source, null), matcher.firstMatchPath(source, path.append(source.getName())));
+        assertEquals(0, matcher.firstMatchPath(source, path));
+        assertEquals(1, matcher.firstMatchPath(log, root.getPath() + "/" + log.getName()));
+    }
+
+    @Test
+    public void testDecisionEvents() {
+        assertNull("Expect no decision events with sampling off", FilterEvents.beginDecision(0));
+        assertNull("Expect no decision events without a recording", FilterEvents.beginDecision(1));
+        PluginSettings settings = new PluginSettings();
+        settings.setDecisionEventSampleRate(1);
+        settings.setIndexPathExclude(Lists.newArrayList(new IndexExclusion(".*/test/.*",
+                new IndexExclusion.IndexNameExclusion())));
+        IndexFilter filter = new IndexFilter(settings);
+        assertTrue(filter.isExcludedFromIndex(new MockVirtualFile("blah/test/stuff"), ID.create("a")));
+    }
+
+    @Test
+    public void testAdaptiveRuleOrder() {
+        AdaptiveRuleOrder order = new AdaptiveRuleOrder(new int[]{0, 1, 2}, 3);
+        for (int i = 0; i < 100; i++) {
+            order.record(0, false, 1000);
+            order.record(1, i % 2 == 0, 1000);
+            order.record(2, true, 10);
+        }
+        order.reorder();
+        assertEquals("Expect cheap, frequently matching rules first", "[2, 1, 0]", Arrays.toString(order.order()));
+
+        LiteralPrefilterMatcher matcher = new LiteralPrefilterMatcher(Lists.newArrayList(
+                ".*/[a-c]/.*", ".*\\.t[a-z]t", ".*/b/.*\\.txt"));
+        for (int i = 0; i < 100; i++) {
+            matcher.getOrder().record(0, false, 1000);
+            matcher.getOrder().record(1, false, 500);
+            matcher.getOrder().record(2, true, 10);
+        }
+        matcher.getOrder().reorder();
+        assertEquals(2, matcher.getOrder().order()[0]);
+        assertEquals("Expect the first rule in the settings to win whatever the order", 0,
+                matcher.firstMatch("/p/b/notes.txt"));
+        assertEquals(1, matcher.firstMatch("/p/d/notes.txt"));
+        assertEquals(-1, matcher.firstMatch("/p/d/notes.md"));
+    }
+
+    @Test
+    public void testQueryTrace() throws IOException {
+        PluginSettings settings = new PluginSettings();
+        settings.setIndexPathExclude(Lists.newArrayList(new IndexExclusion(".*/test/.*",
+                new IndexExclusion.IndexNameExclusion())));
+        IndexFilter filter = new IndexFilter(settings);
+        Path file = FileUtil.createTempFile("queries", ".trace").toPath();
+        filter.startRecording(file);
+        assertTrue(filter.isRecording());
+        ID a = ID.create("a");
+        assertTrue(filter.isExcludedFromIndex(new MockVirtualFile("blah/test/stuff"), a));
+        assertFalse(filter.isExcludedFromIndex(new MockVirtualFile("blah/tests/stuff"), a));
+        QueryTrace trace = filter.stopRecording();
+        assertNotNull(trace);
+        assertFalse(filter.isRecording());
+        assertEquals(2, trace.getRecorded());
+
+        try (QueryTrace.Reader reader = new QueryTrace.Reader(file)) {
+            assertEquals("Expect the trace to start with the settings", ".*/test/.*",
+                    reader.getSettings().getIndexPathExclude().get(0).getPath());
+            assertTrue(reader.next());
+            assertNull(reader.getSettings());
+            assertEquals("a", reader.getIndexName());
+            assertEquals("blah/test/stuff", reader.getPath());
+            assertTrue(reader.isExcluded());
+            assertTrue(reader.next());
+            assertEquals("Expect paths to be rebuilt from the shared prefix", "blah/tests/stuff", reader.getPath());
+            assertFalse(reader.isExcluded());
+            assertFalse(reader.next());
+            assertEquals(2, reader.getRecorded());
+            assertEquals(0, reader.getDropped());
+        }
+    }
+
+    /**
+     * Mock file carrying a file id, so the filter caches and dedupes by it like files of the persistent VFS.
+     */
+    private static final class IdFile extends MockVirtualFile implements VirtualFileWithId {
+        private final int id;
+
+        private IdFile(String name, String text, int id) {
+            super(name, text);
+            this.id = id;
+        }
+
+        @Override
+        public int getId() {
+            return id;
+        }
+    }
 }
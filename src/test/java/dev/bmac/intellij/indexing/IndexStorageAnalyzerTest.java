@@ -0,0 +1,47 @@
+package dev.bmac.intellij.indexing;
+
+import com.google.common.collect.Lists;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.UsefulTestCase;
+import com.intellij.util.indexing.ID;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+public class IndexStorageAnalyzerTest extends UsefulTestCase {
+
+    @Test
+    public void testAnalyze() throws IOException {
+        Path indexRoot = FileUtil.createTempDirectory("indexes", null).toPath();
+        Path big = Files.createDirectories(indexRoot.resolve("bigindex").resolve("storage"));
+        Files.write(big.resolve("values"), new byte[300]);
+        Files.write(big.resolve("keys"), new byte[100]);
+        Path small = Files.createDirectories(indexRoot.resolve("smallindex"));
+        Files.write(small.resolve("values"), new byte[200]);
+        List<String> names = Lists.newArrayList("BigIndex", "SmallIndex", "Missing");
+
+        List<IndexStorageAnalyzer.IndexUsage> usage = IndexStorageAnalyzer.analyze(indexRoot, names, null);
+        assertEquals("Expect indexes without statistics to be ranked by size", "BigIndex", usage.get(0).getIndex());
+        assertEquals(400, usage.get(0).getBytes());
+        assertEquals("Expect files in nested directories to be counted", 2, usage.get(0).getFiles());
+        assertEquals(-1, usage.get(0).getReclaimableBytes());
+        assertEquals("SmallIndex", usage.get(1).getIndex());
+        assertEquals("Missing", usage.get(2).getIndex());
+        assertEquals("Expect indexes without storage to be empty", 0, usage.get(2).getBytes());
+
+        FilterMetrics metrics = new FilterMetrics(Collections.singletonList(".*/test/.*"));
+        //Half of the small index's decisions are for files a rule matches but which are still indexed.
+        metrics.record(ID.create("SmallIndex"), 0, false, -1, -1);
+        metrics.record(ID.create("SmallIndex"), -1, false, -1, -1);
+        metrics.record(ID.create("BigIndex"), -1, false, -1, -1);
+        usage = IndexStorageAnalyzer.analyze(indexRoot, names, metrics);
+        assertEquals("Expect the reclaimable size to rank first", "SmallIndex", usage.get(0).getIndex());
+        assertEquals(100, usage.get(0).getReclaimableBytes());
+        assertEquals("BigIndex", usage.get(1).getIndex());
+        assertEquals(0, usage.get(1).getReclaimableBytes());
+    }
+}
@@ -0,0 +1,56 @@
+package dev.bmac.intellij.indexing;
+
+import com.google.common.collect.Lists;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.UsefulTestCase;
+import dev.bmac.intellij.settings.IndexExclusion;
+import dev.bmac.intellij.settings.PluginSettings;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public class IndexedSettingsTest extends UsefulTestCase {
+
+    @Test
+    public void testUnplannedChangeBumpsGeneration() throws IOException {
+        Path directory = FileUtil.createTempDirectory("indexed", null).toPath();
+        PluginSettings settings = new PluginSettings();
+        settings.setIndexPathExclude(Lists.newArrayList(
+                new IndexExclusion(".*/test/.*", new IndexExclusion.IndexNameExclusion())));
+        assertEquals("Expect a first start to take the indexes as up to date", 0,
+                IndexedSettings.load(directory, settings).getGeneration());
+        assertEquals(0, IndexedSettings.load(directory, settings).getGeneration());
+
+        //Edited while the IDE was closed.
+        settings.getIndexPathExclude().get(0).setPath(".*/tests/.*");
+        assertEquals(1, IndexedSettings.load(directory, settings).getGeneration());
+        assertEquals("Expect the rebuild to be recorded", 1, IndexedSettings.load(directory, settings).getGeneration());
+
+        //Changed at runtime and reindexed.
+        IndexedSettings indexed = IndexedSettings.load(directory, settings);
+        settings.setTODOIndexDisabled(true);
+        indexed.reindexed(IndexedSettings.version(settings));
+        assertEquals(1, IndexedSettings.load(directory, settings).getGeneration());
+
+        //Changed at runtime, but the IDE exited before the planner finished.
+        settings.setTODOIndexDisabled(false);
+        assertEquals(2, IndexedSettings.load(directory, settings).getGeneration());
+    }
+
+    @Test
+    public void testVersionCoversIndexSelections() {
+        PluginSettings settings = new PluginSettings();
+        settings.setIndexPathExclude(Lists.newArrayList(
+                new IndexExclusion(".*/test/.*", new IndexExclusion.IndexNameExclusion())));
+        long version = IndexedSettings.version(settings);
+        settings.getIndexPathExclude().get(0).getIndexerNameExclusion().setExcludeIfNotIn(false);
+        assertFalse(version == IndexedSettings.version(settings));
+        long rules = IndexedSettings.version(settings);
+        settings.setSkipGeneratedContent(true);
+        long generated = IndexedSettings.version(settings);
+        assertFalse(rules == generated);
+        settings.getGeneratedContentExclusion().setExcludeIfNotIn(false);
+        assertFalse("Expect the generated content indexes to count", generated == IndexedSettings.version(settings));
+    }
+}
@@ -0,0 +1,120 @@
+package dev.bmac.intellij.indexing;
+
+import com.google.common.collect.Lists;
+import com.intellij.mock.MockVirtualFile;
+import com.intellij.psi.impl.cache.impl.todo.TodoIndex;
+import com.intellij.testFramework.UsefulTestCase;
+import com.intellij.util.indexing.ID;
+import dev.bmac.intellij.settings.IndexExclusion;
+import dev.bmac.intellij.settings.PluginSettings;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class ReindexPlannerTest extends UsefulTestCase {
+
+    private static IndexExclusion exclusion(String path, String... indexes) {
+        IndexExclusion.IndexNameExclusion indexNameExclusion = new IndexExclusion.IndexNameExclusion();
+        indexNameExclusion.setIndexerNames(Lists.newArrayList(indexes));
+        indexNameExclusion.setExcludeIfNotIn(false);
+        return new IndexExclusion(path, indexNameExclusion);
+    }
+
+    @Test
+    public void testOnlyFlippedFilesAreReindexed() {
+        ID a = ID.create("a");
+        ID b = ID.create("b");
+        List<ID<?, ?>> indexes = Lists.newArrayList(a, b);
+        PluginSettings settings = new PluginSettings();
+        settings.setIndexPathExclude(Lists.newArrayList(exclusion(".*/test/.*", "a"), exclusion(".*\\.min\\.js", "b")));
+        FilterSnapshot before = new FilterSnapshot(settings, null);
+        settings.getIndexPathExclude().get(0).getIndexerNameExclusion().setIndexerNames(Lists.newArrayList("a", "b"));
+        FilterSnapshot after = new FilterSnapshot(settings, null);
+
+        ReindexPlanner planner = new ReindexPlanner(before, after, indexes);
+        assertTrue(planner.hasPathChanges());
+        assertEmpty(planner.getRebuiltIndexes());
+        assertTrue("Expect files of the edited rule to flip",
+                planner.needsReindex(new MockVirtualFile("/blah/test/stuff")));
+        assertFalse("Expect files of other rules to keep their verdict",
+                planner.needsReindex(new MockVirtualFile("/blah/app.min.js")));
+        assertFalse("Expect files matching no rule to keep their verdict",
+                planner.needsReindex(new MockVirtualFile("/blah/other/stuff")));
+        assertTrue("Expect only the first matching rule to count, later rules did not exclude it from b before",
+                planner.needsReindex(new MockVirtualFile("/blah/test/app.min.js")));
+    }
+
+    @Test
+    public void testReorderedRules() {
+        ID a = ID.create("a");
+        ID b = ID.create("b");
+        List<ID<?, ?>> indexes = Lists.newArrayList(a, b);
+        PluginSettings settings = new PluginSettings();
+        settings.setIndexPathExclude(Lists.newArrayList(exclusion(".*/test/.*", "a"), exclusion(".*\\.min\\.js", "b")));
+        FilterSnapshot before = new FilterSnapshot(settings, null);
+        Collections.reverse(settings.getIndexPathExclude());
+        FilterSnapshot after = new FilterSnapshot(settings, null);
+
+        ReindexPlanner planner = new ReindexPlanner(before, after, indexes);
+        assertTrue("Expect the first matching rule to change for files matching both",
+                planner.needsReindex(new MockVirtualFile("/blah/test/app.min.js")));
+        assertFalse(planner.needsReindex(new MockVirtualFile("/blah/test/stuff")));
+    }
+
+    @Test
+    public void testWholeIndexToggle() {
+        ID a = ID.create("a");
+        List<ID<?, ?>> indexes = Lists.newArrayList(a, TodoIndex.NAME);
+        PluginSettings settings = new PluginSettings();
+        FilterSnapshot before = new FilterSnapshot(settings, null);
+        settings.setTODOIndexDisabled(true);
+        FilterSnapshot after = new FilterSnapshot(settings, null);
+
+        ReindexPlanner planner = new ReindexPlanner(before, after, indexes);
+        assertFalse("Expect no file to be checked without rule changes", planner.hasPathChanges());
+        assertEquals(Collections.singletonList(TodoIndex.NAME), planner.getRebuiltIndexes());
+    }
+
+    @Test
+    public void testEditedRuleIsReindexed() {
+        ID a = ID.create("a");
+        PluginSettings settings = new PluginSettings();
+        settings.setIndexPathExclude(Lists.newArrayList(exclusion(".*/test/.*", "a")));
+        FilterSnapshot before = new FilterSnapshot(settings, null);
+        //The settings page edits copies of the exclusions, as the rule editor changes them in place.
+        List<IndexExclusion> edited = settings.getIndexPathExclude().stream().map(IndexExclusion::copy)
+                .collect(Collectors.toList());
+        edited.get(0).setPath(".*/tests/.*");
+        assertFalse("Expect the edit to show as a modification", settings.getIndexPathExclude().equals(edited));
+        settings.setIndexPathExclude(edited);
+        FilterSnapshot after = new FilterSnapshot(settings, null);
+
+        ReindexPlanner planner = new ReindexPlanner(before, after, Lists.newArrayList(a));
+        assertTrue(planner.hasPathChanges());
+        assertTrue("Expect files the old rule excluded to be reindexed",
+                planner.needsReindex(new MockVirtualFile("/blah/test/stuff")));
+        assertTrue("Expect files the edited rule excludes to be reindexed",
+                planner.needsReindex(new MockVirtualFile("/blah/tests/stuff")));
+    }
+
+    @Test
+    public void testGeneratedContentIndexesChanged() {
+        ID a = ID.create("a");
+        ID b = ID.create("b");
+        List<ID<?, ?>> indexes = Lists.newArrayList(a, b);
+        PluginSettings settings = new PluginSettings();
+        settings.setSkipGeneratedContent(true);
+        settings.getGeneratedContentExclusion().setIndexerNames(Lists.newArrayList("a"));
+        settings.getGeneratedContentExclusion().setExcludeIfNotIn(false);
+        FilterSnapshot before = new FilterSnapshot(settings, null);
+        assertFalse(new ReindexPlanner(before, new FilterSnapshot(settings, null), indexes).hasPathChanges());
+        settings.getGeneratedContentExclusion().setIndexerNames(Lists.newArrayList("a", "b"));
+        FilterSnapshot after = new FilterSnapshot(settings, null);
+
+        ReindexPlanner planner = new ReindexPlanner(before, after, indexes);
+        assertTrue("Expect generated files to be reindexed for the newly excluded index", planner.hasPathChanges());
+        assertEmpty(planner.getRebuiltIndexes());
+    }
+}
@@ -0,0 +1,63 @@
+package dev.bmac.intellij.indexing;
+
+import com.google.common.collect.Lists;
+import com.intellij.testFramework.UsefulTestCase;
+import dev.bmac.intellij.settings.IndexExclusion;
+import org.junit.Test;
+
+import java.util.List;
+
+public class RuleCostAnalyzerTest extends UsefulTestCase {
+    private static final List<String> PATHS = Lists.newArrayList("/p/src/Main.java", "/p/build/Main.class",
+            "/p/node_modules/lib/index.js", "/p/web/app.min.js", "/p/web/app.js.map", "/p/README.md");
+
+    @Test
+    public void testCostClass() {
+        RuleCostAnalyzer.Report report = RuleCostAnalyzer.analyze(".*/node_modules/.*", PATHS);
+        assertNull(report.getError());
+        assertEquals(RuleCostAnalyzer.CostClass.LITERAL, report.getCostClass());
+        assertTrue(report.isFast());
+        assertEquals(PATHS.size(), report.getSamples());
+        assertEquals(RuleCostAnalyzer.CostClass.FULL_REGEX, RuleCostAnalyzer.analyze(".*\\.[a-z]+", PATHS).getCostClass());
+        assertNotNull("Expect patterns which do not compile to be reported",
+                RuleCostAnalyzer.analyze(".*/[unclosed", PATHS).getError());
+    }
+
+    @Test
+    public void testHazards() {
+        assertEquals(Lists.newArrayList("Nested quantifier (a+)+"), RuleCostAnalyzer.findHazards("(a+)+b"));
+        assertEquals(Lists.newArrayList("Alternation under a quantifier (foo|foobar)*"),
+                RuleCostAnalyzer.findHazards(".*/(foo|foobar)*/x"));
+        assertEquals(Lists.newArrayList("Consecutive wildcards .*.*"), RuleCostAnalyzer.findHazards(".*.*/build/.*"));
+        assertTrue("Expect escaped and class characters to be no hazard",
+                RuleCostAnalyzer.findHazards(".*/\\(a+\\)+/[.*]+").isEmpty());
+        assertTrue(RuleCostAnalyzer.findHazards(".*/build/.*").isEmpty());
+
+        List<String> paths = Lists.newArrayList(PATHS);
+        paths.add("/p/aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaac");
+        RuleCostAnalyzer.Report report = RuleCostAnalyzer.analyze(".*/(a+)+b", paths);
+        assertEquals(1, report.getHazards().size());
+        assertEquals("Expect patterns with hazards not to be run on the sample", 0, report.getSamples());
+        assertFalse(report.isFast());
+    }
+
+    @Test
+    public void testSuggestions() {
+        RuleCostAnalyzer.Suggestion extension = RuleCostAnalyzer.analyze(".*\\.min\\.js", PATHS).getSuggestion();
+        assertNotNull(extension);
+        assertEquals(IndexExclusion.Syntax.EXTENSION, extension.getSyntax());
+        assertEquals("min.js", extension.getPath());
+        assertEquals("js, map", RuleCostAnalyzer.analyze(".*\\.(js|map)", PATHS).getSuggestion().getPath());
+
+        RuleCostAnalyzer.Suggestion anchored = RuleCostAnalyzer.analyze("^.*/build/.*$", PATHS).getSuggestion();
+        assertNotNull(anchored);
+        assertEquals(IndexExclusion.Syntax.REGEX, anchored.getSyntax());
+        assertEquals(".*/build/.*", anchored.getPath());
+        assertEquals(".*/build/.*", RuleCostAnalyzer.analyze(".*.*/build/(.*)", PATHS).getSuggestion().getPath());
+
+        RuleCostAnalyzer.Suggestion fileName = RuleCostAnalyzer.analyze(".*/package-lock\\.json", PATHS).getSuggestion();
+        assertNotNull(fileName);
+        assertEquals(IndexExclusion.Syntax.GLOB, fileName.getSyntax());
+        assertEquals("**/package-lock.json", fileName.getPath());
+    }
+}
@@ -0,0 +1,33 @@
+package dev.bmac.intellij.indexing;
+
+import com.intellij.testFramework.UsefulTestCase;
+import org.junit.Test;
+
+public class VerdictCacheTest extends UsefulTestCase {
+
+    @Test
+    public void testPutAndGet() {
+        VerdictCache cache = new VerdictCache(1000);
+        assertEquals(VerdictCache.MISS, cache.get(42));
+        cache.put(42, 3);
+        cache.put(43, -1);
+        assertEquals(3, cache.get(42));
+        assertEquals("No match is a verdict too", -1, cache.get(43));
+        cache.put(42, 1);
+        assertEquals("Put should replace the previous verdict", 1, cache.get(42));
+        cache.remove(42);
+        assertEquals(VerdictCache.MISS, cache.get(42));
+        cache.invalidateAll();
+        assertEquals(VerdictCache.MISS, cache.get(43));
+    }
+
+    @Test
+    public void testBounded() {
+        VerdictCache cache = new VerdictCache(1000);
+        for (int id = 1; id <= 100_000; id++) {
+            cache.put(id, id % 7);
+            assertEquals("Latest put should always be readable", id % 7, cache.get(id));
+        }
+        assertTrue("Cache should stay within its bound", cache.size() <= 1000);
+    }
+}
@@ -0,0 +1,133 @@
+package dev.bmac.intellij.indexing;
+
+import com.google.common.collect.Lists;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.testFramework.UsefulTestCase;
+import dev.bmac.intellij.settings.IndexExclusion;
+import dev.bmac.intellij.settings.PluginSettings;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class VerdictStoreTest extends UsefulTestCase {
+    private static final PluginSettings.MatcherEngine ENGINE = PluginSettings.MatcherEngine.LITERAL_PREFILTER;
+
+    private static List<IndexExclusion> rules(String... paths) {
+        List<IndexExclusion> rules = Lists.newArrayList();
+        for (String path : paths) {
+            rules.add(new IndexExclusion(path, new IndexExclusion.IndexNameExclusion()));
+        }
+        return rules;
+    }
+
+    @Test
+    public void testSurvivesReopen() throws IOException {
+        Path directory = FileUtil.createTempDirectory("verdicts", null).toPath();
+        VerdictStore store = VerdictStore.open(directory, ENGINE, rules(".*/test/.*"));
+        assertNotNull(store);
+        assertEquals(VerdictStore.MISS, store.get(42, 7));
+        store.put(42, 7, 0);
+        store.put(43, 7, -1);
+        store.put(1_000_000, 7, 0);
+        assertEquals(0, store.get(42, 7));
+        assertEquals("Expect a different stamp to be a miss", VerdictStore.MISS, store.get(42, 8));
+        store.close();
+
+        store = VerdictStore.open(directory, ENGINE, rules(".*/test/.*"));
+        assertNotNull(store);
+        assertEquals(0, store.get(42, 7));
+        assertEquals("No match is a verdict too", -1, store.get(43, 7));
+        assertEquals("Expect the grown store to be reopened", 0, store.get(1_000_000, 7));
+        store.invalidateAll();
+        assertEquals(VerdictStore.MISS, store.get(42, 7));
+        store.close();
+    }
+
+    @Test
+    public void testInvalidatedStaysInvalid() throws IOException {
+        Path directory = FileUtil.createTempDirectory("verdicts", null).toPath();
+        VerdictStore store = VerdictStore.open(directory, ENGINE, rules(".*/test/.*"));
+        assertNotNull(store);
+        store.put(42, 7, 0);
+        store.put(43, 7, 0);
+        store.invalidateAll();
+        store.put(43, 7, -1);
+        store.close();
+
+        store = VerdictStore.open(directory, ENGINE, rules(".*/test/.*"));
+        assertNotNull(store);
+        assertEquals("Expect verdicts from before the invalidation to stay forgotten", VerdictStore.MISS,
+                store.get(42, 7));
+        assertEquals("Expect verdicts from after the invalidation to be kept", -1, store.get(43, 7));
+        store.close();
+    }
+
+    @Test
+    public void testFileTypeRulesNotPersisted() throws IOException {
+        Path directory = FileUtil.createTempDirectory("verdicts", null).toPath();
+        PluginSettings settings = new PluginSettings();
+        settings.setIndexPathExclude(rules(".*/test/.*"));
+        VerdictStore store = new FilterSnapshot(settings, directory).verdictStore;
+        assertNotNull(store);
+        store.close();
+
+        settings.getIndexPathExclude().add(new IndexExclusion("Image", IndexExclusion.Syntax.FILE_TYPE,
+                new IndexExclusion.IndexNameExclusion()));
+        assertNull("Expect verdicts depending on the file type registry not to be persisted",
+                new FilterSnapshot(settings, directory).verdictStore);
+    }
+
+    @Test
+    public void testOtherRulesDiscard() throws IOException {
+        Path directory = FileUtil.createTempDirectory("verdicts", null).toPath();
+        VerdictStore store = VerdictStore.open(directory, ENGINE, rules(".*/test/.*"));
+        assertNotNull(store);
+        store.put(42, 7, 0);
+        store.close();
+
+        store = VerdictStore.open(directory, ENGINE, rules(".*/test/.*", ".*/other/.*"));
+        assertNotNull(store);
+        assertEquals(VerdictStore.MISS, store.get(42, 7));
+        store.close();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            assertEquals("Expect the store of the old rules to be deleted", 1, Lists.newArrayList(files).size());
+        }
+    }
+
+    @Test
+    public void testOtherEngineDiscards() throws IOException {
+        Path directory = FileUtil.createTempDirectory("verdicts", null).toPath();
+        VerdictStore store = VerdictStore.open(directory, ENGINE, rules(".*/test/.*"));
+        assertNotNull(store);
+        store.put(42, 7, 0);
+        store.close();
+
+        store = VerdictStore.open(directory, PluginSettings.MatcherEngine.DFA, rules(".*/test/.*"));
+        assertNotNull(store);
+        assertEquals("Expect verdicts of another engine not to be reused", VerdictStore.MISS, store.get(42, 7));
+        store.close();
+    }
+
+    @Test
+    public void testCorruptDiscard() throws IOException {
+        Path directory = FileUtil.createTempDirectory("verdicts", null).toPath();
+        VerdictStore store = VerdictStore.open(directory, ENGINE, rules(".*/test/.*"));
+        assertNotNull(store);
+        store.put(42, 7, 0);
+        store.close();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.write(file, new byte[]{1, 2, 3});
+            }
+        }
+
+        store = VerdictStore.open(directory, ENGINE, rules(".*/test/.*"));
+        assertNotNull(store);
+        assertEquals(VerdictStore.MISS, store.get(42, 7));
+        store.close();
+    }
+}